@@ -0,0 +1,440 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
+
+/**
+ * Reports what a conversion would have to do, without writing any output.
+ * <pre>
+ * java io.github.karlatemp.jvm8converter.Audit &lt;report dir&gt; &lt;jar or directory&gt;...
+ * </pre>
+ * Directories are searched for jars. Jars are audited in parallel and each gets a
+ * report in the report directory, a summary line is printed per jar.
+ * <p>
+ * Classes are only visited, no {@code ClassNode} is built. Calls are resolved like
+ * {@link MethodBridgeMap} does and checked against {@link JdkApi}: a call to a JDK
+ * member missing in JDK 8 which has no bridge is unresolvable.
+ */
+public class Audit {
+    /**
+     * Classes whose uses are lowered by the converter
+     */
+    static final Map<String, String> LOWERED = Map.of(
+            "java/lang/Record", "Record",
+            "java/lang/runtime/ObjectMethods", "ObjectMethods",
+            "java/lang/runtime/SwitchBootstraps", "SwitchBootstraps",
+            "java/lang/invoke/ConstantBootstraps", "ConstantBootstraps",
+            "java/lang/invoke/StringConcatFactory", "StringConcatFactory",
+            VarHandleLowering.VAR_HANDLE, "VarHandle"
+    );
+
+    private final MethodBridgeMap bridges;
+    /**
+     * {@code null} if the running JDK has no JDK 8 signatures
+     */
+    private final JdkApi api;
+
+    private static final Integer RESOLVED = 0, BRIDGED = 1, UNRESOLVABLE = 2;
+    /**
+     * Resolution of each platform call, per invoke opcode. Shared by all jars,
+     * a call site costs one lookup once its target has been seen.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ConcurrentHashMap<String, Integer>[] resolutions = new ConcurrentHashMap[]{
+            new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>()
+    };
+
+    public Audit() throws Exception {
+        this.bridges = MethodBridgeMap.template(false);
+        this.api = JdkApi.shared();
+    }
+
+    public static class Report {
+        public final String jar;
+        public final TreeMap<Integer, Integer> versions = new TreeMap<>();
+        public int classes;
+        public int newerClasses;
+        public int skippedClasses;
+        public int unreadableClasses;
+        public int accessors;
+        public final TreeMap<String, Integer> lowered = new TreeMap<>();
+        public final TreeMap<String, Integer> bridged = new TreeMap<>();
+        public final TreeMap<String, Integer> unresolvable = new TreeMap<>();
+        public String error;
+
+        public Report(String jar) {
+            this.jar = jar;
+        }
+
+        public boolean needsConversion() {
+            return newerClasses != 0;
+        }
+
+        public String summary() {
+            if (error != null) return jar + ": error " + error;
+            return jar + ": " + (needsConversion() ? "convert" : "ok")
+                    + ", classes " + classes
+                    + ", max version " + (versions.isEmpty() ? "-" : versions.lastKey())
+                    + ", accessors " + accessors
+                    + ", bridged " + sum(bridged)
+                    + ", unresolvable " + sum(unresolvable);
+        }
+
+        public void write(Appendable out) throws IOException {
+            out.append(jar).append('\n');
+            if (error != null) {
+                out.append("error: ").append(error).append('\n');
+                return;
+            }
+            out.append("classes: ").append(String.valueOf(classes))
+                    .append(", newer than Java 8: ").append(String.valueOf(newerClasses))
+                    .append(", skipped: ").append(String.valueOf(skippedClasses))
+                    .append(", unreadable: ").append(String.valueOf(unreadableClasses)).append('\n');
+            out.append("versions:").append(versions.entrySet().stream()
+                    .map(it -> " " + it.getKey() + "=" + it.getValue())
+                    .collect(Collectors.joining())).append('\n');
+            out.append("accessors: ").append(String.valueOf(accessors)).append('\n');
+            write(out, "lowered", lowered);
+            write(out, "bridged", bridged);
+            write(out, "unresolvable", unresolvable);
+        }
+
+        private static void write(Appendable out, String title, Map<String, Integer> counts) throws IOException {
+            out.append(title).append(": ").append(String.valueOf(sum(counts))).append('\n');
+            for (var entry : counts.entrySet()) {
+                out.append("  ").append(entry.getKey()).append(' ').append(String.valueOf(entry.getValue())).append('\n');
+            }
+        }
+
+        private static int sum(Map<String, Integer> counts) {
+            var sum = 0;
+            for (var count : counts.values()) sum += count;
+            return sum;
+        }
+    }
+
+    /**
+     * State of one jar, private members and the references to them decide the accessors
+     */
+    private final class JarScan {
+        final Report report;
+        final HashSet<String> privateMembers = new HashSet<>();
+        final HashSet<String> methodRefs = new HashSet<>();
+        final HashSet<String> fieldGets = new HashSet<>();
+        final HashSet<String> fieldSets = new HashSet<>();
+
+        JarScan(Report report) {
+            this.report = report;
+        }
+
+        void scan(byte[] bytes) {
+            var major = bytes.length < 8 ? 0 : ((bytes[6] & 0xFF) << 8) | (bytes[7] & 0xFF);
+            report.classes++;
+            report.versions.merge(major, 1, Integer::sum);
+            var newer = major > Opcodes.V1_8;
+            if (newer) report.newerClasses++;
+            try {
+                new ClassReader(bytes).accept(new ClassScanner(newer), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            } catch (RuntimeException e) {
+                // Versions newer than the ASM in use, or a malformed class
+                report.unreadableClasses++;
+            }
+        }
+
+        void finish() {
+            var accessors = 0;
+            for (var ref : methodRefs) {
+                if (privateMembers.contains(ref)) accessors++;
+            }
+            for (var ref : fieldGets) {
+                if (privateMembers.contains(ref)) accessors++;
+            }
+            for (var ref : fieldSets) {
+                if (privateMembers.contains(ref)) accessors++;
+            }
+            report.accessors = accessors;
+        }
+
+        /**
+         * @return the label of a type replaced by the converter, {@code null} if it isn't
+         */
+        String lowered(String type) {
+            var lowered = LOWERED.get(type);
+            if (lowered == null && bridges.isBackported(type)) {
+                lowered = type.substring(type.lastIndexOf('/') + 1);
+            }
+            return lowered;
+        }
+
+        void classRef(String type) {
+            if (type.charAt(0) == '[') {
+                var element = Type.getType(type).getElementType();
+                if (element.getSort() != Type.OBJECT) return;
+                type = element.getInternalName();
+            }
+            var lowered = lowered(type);
+            if (lowered != null) {
+                report.lowered.merge(lowered, 1, Integer::sum);
+                return;
+            }
+            if (api != null && api.isPlatformPackage(type) && !api.hasClass(type)) {
+                report.unresolvable.merge(type, 1, Integer::sum);
+            }
+        }
+
+        void methodRef(int opcode, String owner, String name, String desc) {
+            if (owner.charAt(0) == '[') return;
+            var lowered = lowered(owner);
+            if (lowered == null && (name.equals("findVarHandle") || name.equals("findStaticVarHandle") || name.equals("arrayElementVarHandle"))
+                    && (owner.equals(VarHandleLowering.LOOKUP) || owner.equals(VarHandleLowering.METHOD_HANDLES))) {
+                lowered = "VarHandle";
+            }
+            if (lowered != null) {
+                report.lowered.merge(lowered, 1, Integer::sum);
+                return;
+            }
+            // Only platform owners can be bridged, user classes stay out of the shared caches
+            if (api != null && !api.isPlatformPackage(owner)) return;
+            var key = owner + '.' + name + desc;
+            var resolution = resolutions[opcode - Opcodes.INVOKEVIRTUAL].get(key);
+            if (resolution == null) {
+                resolution = resolve(opcode, owner, name, desc);
+                resolutions[opcode - Opcodes.INVOKEVIRTUAL].put(key, resolution);
+            }
+            if (resolution == BRIDGED) {
+                report.bridged.merge(key, 1, Integer::sum);
+            } else if (resolution == UNRESOLVABLE) {
+                report.unresolvable.merge(key, 1, Integer::sum);
+            }
+        }
+
+        void fieldRef(String owner, String name, String desc) {
+            if (bridges.isBackported(owner)) {
+                report.lowered.merge(lowered(owner), 1, Integer::sum);
+                return;
+            }
+            if (api != null && api.isPlatformPackage(owner) && !api.hasField(owner, name, desc)) {
+                report.unresolvable.merge(owner + '.' + name + ' ' + desc, 1, Integer::sum);
+            }
+        }
+
+        void handleRef(Handle handle) {
+            var tag = handle.getTag();
+            if (tag <= Opcodes.H_PUTSTATIC) {
+                fieldRef(handle.getOwner(), handle.getName(), handle.getDesc());
+            } else {
+                methodRef(MethodBridgeMap.handleOpcode(tag), handle.getOwner(), handle.getName(), handle.getDesc());
+            }
+        }
+
+        void constant(Object value) {
+            if (value instanceof Type) {
+                var type = (Type) value;
+                if (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY) classRef(type.getInternalName());
+            } else if (value instanceof Handle) {
+                handleRef((Handle) value);
+            } else if (value instanceof ConstantDynamic) {
+                var condy = (ConstantDynamic) value;
+                report.lowered.merge("CONSTANT_Dynamic", 1, Integer::sum);
+                handleRef(condy.getBootstrapMethod());
+                for (var i = 0; i < condy.getBootstrapMethodArgumentCount(); i++) {
+                    constant(condy.getBootstrapMethodArgument(i));
+                }
+            }
+        }
+
+        private final class ClassScanner extends ClassVisitor {
+            final boolean newer;
+            String className;
+            boolean isInterface;
+
+            ClassScanner(boolean newer) {
+                super(Jvm8Converter.ASMV);
+                this.newer = newer;
+            }
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                className = name;
+                isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+                if (superName != null) classRef(superName);
+                if (interfaces != null) {
+                    for (var itf : interfaces) classRef(itf);
+                }
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if (newer && (access & Opcodes.ACC_PRIVATE) != 0) {
+                    privateMembers.add(className + '.' + name + ' ' + descriptor);
+                }
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if (newer && (access & Opcodes.ACC_PRIVATE) != 0) {
+                    privateMembers.add(className + '.' + name + descriptor);
+                }
+                return new MethodScanner();
+            }
+
+            private final class MethodScanner extends MethodVisitor {
+                MethodScanner() {
+                    super(Jvm8Converter.ASMV);
+                }
+
+                @Override
+                public void visitTypeInsn(int opcode, String type) {
+                    classRef(type);
+                }
+
+                @Override
+                public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+                    if (newer && !owner.equals(className)) {
+                        var get = opcode == Opcodes.GETSTATIC || opcode == Opcodes.GETFIELD;
+                        (get ? fieldGets : fieldSets).add(owner + '.' + name + ' ' + descriptor);
+                    }
+                    fieldRef(owner, name, descriptor);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+                    if (newer && (ClassScanner.this.isInterface || !owner.equals(className))) {
+                        methodRefs.add(owner + '.' + name + descriptor);
+                    }
+                    methodRef(opcode, owner, name, descriptor);
+                }
+
+                @Override
+                public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                    handleRef(bootstrapMethodHandle);
+                    for (var arg : bootstrapMethodArguments) {
+                        constant(arg);
+                    }
+                }
+
+                @Override
+                public void visitLdcInsn(Object value) {
+                    constant(value);
+                }
+
+                @Override
+                public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+                    classRef(descriptor);
+                }
+            }
+        }
+    }
+
+    private Integer resolve(int opcode, String owner, String name, String desc) {
+        if (MethodBridgeMap.REWRITE_RULES.find(opcode, owner, name, desc) != null) return BRIDGED;
+        if (api != null && api.hasMethod(owner, name, desc)) return RESOLVED;
+        try {
+            if (bridges.redirectInfo(owner, name, bridges.backportedDesc(desc)) != null) return BRIDGED;
+        } catch (Exception ignore) {
+        }
+        return api == null ? RESOLVED : UNRESOLVABLE;
+    }
+
+    public Report audit(File jar) {
+        return audit(jar, jar.getPath());
+    }
+
+    private Report audit(File jar, String name) {
+        var report = new Report(name);
+        var scan = new JarScan(report);
+        try (var zip = new ZipFile(jar)) {
+            for (var entry : Jvm8Converter.II.of(zip.entries().asIterator())) {
+                var entryName = entry.getName();
+                if (!entryName.endsWith(".class")) continue;
+                // Multi-release variants and module descriptors are never loaded by JDK 8
+                if (entryName.startsWith("META-INF/") || entryName.endsWith("module-info.class")) {
+                    report.skippedClasses++;
+                    continue;
+                }
+                byte[] bytes;
+                try (var res = zip.getInputStream(entry)) {
+                    bytes = res.readAllBytes();
+                }
+                scan.scan(bytes);
+            }
+            scan.finish();
+        } catch (IOException e) {
+            report.error = e.toString();
+        }
+        return report;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: Audit <report dir> <jar or directory>...");
+            return;
+        }
+        var reportDir = new File(args[0]);
+        var jars = new LinkedHashMap<Path, String>();
+        for (var i = 1; i < args.length; i++) {
+            var root = new File(args[i]).toPath();
+            if (Files.isDirectory(root)) {
+                try (var walk = Files.walk(root)) {
+                    walk.filter(it -> {
+                        var fileName = it.getFileName().toString();
+                        return fileName.endsWith(".jar") && !fileName.endsWith("-sources.jar") && !fileName.endsWith("-javadoc.jar");
+                    }).forEach(it -> jars.put(it, root.relativize(it).toString()));
+                }
+            } else {
+                // Named after the path as given, the report directory mirrors it
+                jars.put(root, root.normalize().toString().replaceFirst("^/+", ""));
+            }
+        }
+
+        var audit = new Audit();
+        if (audit.api == null) {
+            System.out.println("No JDK 8 API index and no lib/ct.sym in " + System.getProperty("java.home") + ", missing JDK 8 APIs are not detected");
+        }
+        var start = System.nanoTime();
+        var pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        var futures = new ArrayList<Future<Report>>(jars.size());
+        for (var jar : jars.entrySet()) {
+            futures.add(pool.submit(() -> {
+                var report = audit.audit(jar.getKey().toFile(), jar.getValue());
+                var file = new File(reportDir, jar.getValue() + ".txt");
+                file.getParentFile().mkdirs();
+                try (var writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+                    report.write(writer);
+                }
+                System.out.println(report.summary());
+                return report;
+            }));
+        }
+        pool.shutdown();
+
+        int convert = 0, unresolvable = 0, errors = 0;
+        for (var future : futures) {
+            Report report;
+            try {
+                report = future.get();
+            } catch (ExecutionException e) {
+                errors++;
+                e.getCause().printStackTrace(System.out);
+                continue;
+            }
+            if (report.error != null) errors++;
+            if (report.needsConversion()) convert++;
+            if (!report.unresolvable.isEmpty()) unresolvable++;
+        }
+        System.out.println("Audited " + jars.size() + " jars in " + (System.nanoTime() - start) / 1_000_000 + "ms: "
+                + convert + " need conversion, " + unresolvable + " with unresolvable references, " + errors + " errors");
+    }
+}
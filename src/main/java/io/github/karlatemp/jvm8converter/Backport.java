@@ -0,0 +1,16 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * A class replacing a JDK type JDK 8 doesn't have, with the same members.
+ * The converted classes are remapped to use it instead.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@interface Backport {
+    /**
+     * Internal name of the JDK type, which may be missing in the JDK running the converter
+     */
+    String value();
+}
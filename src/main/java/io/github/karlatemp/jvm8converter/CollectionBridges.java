@@ -0,0 +1,1016 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable collection factories of JDK 9 / 10.
+ * <p>
+ * Like the jdk, one and two elements are kept in fields and larger sets / maps
+ * are open addressed tables probed linearly. Nulls are rejected.
+ * <p>
+ * Members are package-private, nest mates do not exist after the conversion.
+ */
+@SuppressWarnings({"unchecked", "DuplicatedCode"})
+class CollectionBridges {
+    @Shadow(List.class)
+    static class ListB {
+        @ShadowStatic
+        public static <E> List<E> of() {
+            return (List<E>) ListN.EMPTY;
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1) {
+            return new List12<>(e1);
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2) {
+            return new List12<>(e1, e2);
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5, E e6) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5, e6});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5, e6, e7});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8, E e9) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8, e9});
+        }
+
+        @ShadowStatic
+        public static <E> List<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8, E e9, E e10) {
+            return ListN.fromTrustedArray(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8, e9, e10});
+        }
+
+        @ShadowStatic
+        @SafeVarargs
+        public static <E> List<E> of(E... elements) {
+            return ListN.fromTrustedArray(Arrays.copyOf(elements, elements.length, Object[].class));
+        }
+
+        @ShadowStatic
+        public static <E> List<E> copyOf(Collection<? extends E> coll) {
+            if (coll instanceof AbstractImmutableList && !(coll instanceof ListN && ((ListN<?>) coll).allowNulls)) {
+                return (List<E>) coll;
+            }
+            return ListN.fromTrustedArray(coll.toArray());
+        }
+    }
+
+    @Shadow(Set.class)
+    static class SetB {
+        @ShadowStatic
+        public static <E> Set<E> of() {
+            return (Set<E>) SetN.EMPTY;
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1) {
+            return new Set12<>(e1);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2) {
+            return new Set12<>(e1, e2);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3) {
+            return new SetN<>(new Object[]{e1, e2, e3}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5, E e6) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5, e6}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5, e6, e7}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8, E e9) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8, e9}, true);
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> of(E e1, E e2, E e3, E e4, E e5, E e6, E e7, E e8, E e9, E e10) {
+            return new SetN<>(new Object[]{e1, e2, e3, e4, e5, e6, e7, e8, e9, e10}, true);
+        }
+
+        @ShadowStatic
+        @SafeVarargs
+        @SuppressWarnings("varargs")
+        public static <E> Set<E> of(E... elements) {
+            switch (elements.length) {
+                case 0:
+                    return (Set<E>) SetN.EMPTY;
+                case 1:
+                    return new Set12<>(elements[0]);
+                case 2:
+                    return new Set12<>(elements[0], elements[1]);
+                default:
+                    return new SetN<>(elements, true);
+            }
+        }
+
+        @ShadowStatic
+        public static <E> Set<E> copyOf(Collection<? extends E> coll) {
+            if (coll instanceof AbstractImmutableSet) {
+                return (Set<E>) coll;
+            }
+            var elements = coll.toArray();
+            if (elements.length == 0) return (Set<E>) SetN.EMPTY;
+            return new SetN<>(elements, false);
+        }
+    }
+
+    @Shadow(Map.class)
+    static class MapB {
+        @ShadowStatic
+        public static <K, V> Map<K, V> of() {
+            return (Map<K, V>) MapN.EMPTY;
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1) {
+            return new Map1<>(k1, v1);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2) {
+            return new Map2<>(k1, v1, k2, v2);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5,
+                                          K k6, V v6) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5,
+                                          K k6, V v6, K k7, V v7) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5,
+                                          K k6, V v6, K k7, V v7, K k8, V v8) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7, k8, v8);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5,
+                                          K k6, V v6, K k7, V v7, K k8, V v8, K k9, V v9) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7, k8, v8, k9, v9);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> of(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4, K k5, V v5,
+                                          K k6, V v6, K k7, V v7, K k8, V v8, K k9, V v9, K k10, V v10) {
+            return new MapN<>(k1, v1, k2, v2, k3, v3, k4, v4, k5, v5, k6, v6, k7, v7, k8, v8, k9, v9, k10, v10);
+        }
+
+        @ShadowStatic
+        @SafeVarargs
+        public static <K, V> Map<K, V> ofEntries(Map.Entry<? extends K, ? extends V>... entries) {
+            switch (entries.length) {
+                case 0:
+                    return (Map<K, V>) MapN.EMPTY;
+                case 1:
+                    return new Map1<>(entries[0].getKey(), entries[0].getValue());
+                case 2:
+                    return new Map2<>(entries[0].getKey(), entries[0].getValue(),
+                            entries[1].getKey(), entries[1].getValue());
+                default:
+                    var kvs = new Object[entries.length << 1];
+                    var index = 0;
+                    for (var entry : entries) {
+                        kvs[index++] = entry.getKey();
+                        kvs[index++] = entry.getValue();
+                    }
+                    return new MapN<>(kvs);
+            }
+        }
+
+        @ShadowStatic
+        public static <K, V> Map.Entry<K, V> entry(K k, V v) {
+            return new KeyValueHolder<>(k, v);
+        }
+
+        @ShadowStatic
+        public static <K, V> Map<K, V> copyOf(Map<? extends K, ? extends V> map) {
+            if (map instanceof AbstractImmutableMap) {
+                return (Map<K, V>) map;
+            }
+            switch (map.size()) {
+                case 0:
+                    return (Map<K, V>) MapN.EMPTY;
+                case 1:
+                    var entry = map.entrySet().iterator().next();
+                    return new Map1<>(entry.getKey(), entry.getValue());
+                case 2:
+                    var iterator = map.entrySet().iterator();
+                    var e0 = iterator.next();
+                    var e1 = iterator.next();
+                    return new Map2<>(e0.getKey(), e0.getValue(), e1.getKey(), e1.getValue());
+                default:
+                    var kvs = new Object[map.size() << 1];
+                    var index = 0;
+                    for (var e : map.entrySet()) {
+                        kvs[index++] = e.getKey();
+                        kvs[index++] = e.getValue();
+                    }
+                    return new MapN<>(kvs);
+            }
+        }
+    }
+
+    static final class Immutables {
+        static final Object[] EMPTY_ARRAY = new Object[0];
+
+        static UnsupportedOperationException uoe() {
+            return new UnsupportedOperationException();
+        }
+
+        /**
+         * @return a power of two, at least twice of {@code size}
+         */
+        static int tableSize(int size) {
+            return Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        }
+
+        static int hash(Object o, int mask) {
+            var h = o.hashCode();
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+
+    abstract static class AbstractImmutableList<E> extends AbstractList<E> implements RandomAccess {
+        @Override
+        public boolean add(E e) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void add(int index, E element) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends E> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public E set(int index, E element) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public E remove(int index) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<E> operator) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void sort(Comparator<? super E> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void clear() {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return indexOf(o) >= 0;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            Objects.requireNonNull(o);
+            var size = size();
+            for (var i = 0; i < size; i++) {
+                if (o.equals(get(i))) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            Objects.requireNonNull(o);
+            for (var i = size() - 1; i >= 0; i--) {
+                if (o.equals(get(i))) return i;
+            }
+            return -1;
+        }
+    }
+
+    static final class List12<E> extends AbstractImmutableList<E> {
+        final E e0;
+        final E e1; // null if single element
+
+        List12(E e0) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = null;
+        }
+
+        List12(E e0, E e1) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = Objects.requireNonNull(e1);
+        }
+
+        @Override
+        public int size() {
+            return e1 == null ? 1 : 2;
+        }
+
+        @Override
+        public E get(int index) {
+            if (index == 0) return e0;
+            if (index == 1 && e1 != null) return e1;
+            throw new IndexOutOfBoundsException("Index: " + index + " Size: " + size());
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            Objects.requireNonNull(o);
+            if (o.equals(e0)) return 0;
+            if (e1 != null && o.equals(e1)) return 1;
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            Objects.requireNonNull(o);
+            if (e1 != null && o.equals(e1)) return 1;
+            if (o.equals(e0)) return 0;
+            return -1;
+        }
+
+        @Override
+        public Object[] toArray() {
+            return e1 == null ? new Object[]{e0} : new Object[]{e0, e1};
+        }
+    }
+
+    static final class ListN<E> extends AbstractImmutableList<E> {
+        static final ListN<?> EMPTY = new ListN<>(Immutables.EMPTY_ARRAY, false);
+
+        final Object[] elements;
+        final boolean allowNulls;
+
+        ListN(Object[] elements, boolean allowNulls) {
+            this.elements = elements;
+            this.allowNulls = allowNulls;
+        }
+
+        /**
+         * @param input an {@code Object[]} not shared with anyone
+         */
+        static <E> List<E> fromTrustedArray(Object[] input) {
+            for (var e : input) {
+                Objects.requireNonNull(e);
+            }
+            switch (input.length) {
+                case 0:
+                    return (List<E>) EMPTY;
+                case 1:
+                    return new List12<>((E) input[0]);
+                case 2:
+                    return new List12<>((E) input[0], (E) input[1]);
+                default:
+                    return new ListN<>(input, false);
+            }
+        }
+
+        @Override
+        public int size() {
+            return elements.length;
+        }
+
+        @Override
+        public E get(int index) {
+            return (E) elements[index];
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!allowNulls) return super.indexOf(o);
+            var elements = this.elements;
+            for (var i = 0; i < elements.length; i++) {
+                if (Objects.equals(o, elements[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            if (!allowNulls) return super.lastIndexOf(o);
+            var elements = this.elements;
+            for (var i = elements.length - 1; i >= 0; i--) {
+                if (Objects.equals(o, elements[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public Object[] toArray() {
+            return elements.clone();
+        }
+    }
+
+    abstract static class AbstractImmutableSet<E> extends AbstractSet<E> {
+        @Override
+        public boolean add(E e) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super E> filter) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void clear() {
+            throw Immutables.uoe();
+        }
+    }
+
+    static final class Set12<E> extends AbstractImmutableSet<E> {
+        final E e0;
+        final E e1; // null if single element
+
+        Set12(E e0) {
+            this.e0 = Objects.requireNonNull(e0);
+            this.e1 = null;
+        }
+
+        Set12(E e0, E e1) {
+            if (e0.equals(Objects.requireNonNull(e1))) {
+                throw new IllegalArgumentException("duplicate element: " + e0);
+            }
+            this.e0 = e0;
+            this.e1 = e1;
+        }
+
+        @Override
+        public int size() {
+            return e1 == null ? 1 : 2;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o.equals(e0) || (e1 != null && o.equals(e1));
+        }
+
+        @Override
+        public int hashCode() {
+            return e0.hashCode() + (e1 == null ? 0 : e1.hashCode());
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new Set12Iterator<>(this);
+        }
+    }
+
+    static final class Set12Iterator<E> implements Iterator<E> {
+        final Set12<E> set;
+        int index;
+
+        Set12Iterator(Set12<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index < set.size();
+        }
+
+        @Override
+        public E next() {
+            if (index == 0) {
+                index++;
+                return set.e0;
+            }
+            if (index == 1 && set.e1 != null) {
+                index++;
+                return set.e1;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+
+    static final class SetN<E> extends AbstractImmutableSet<E> {
+        static final SetN<?> EMPTY = new SetN<>(Immutables.EMPTY_ARRAY, true);
+
+        final Object[] table;
+        final int size;
+
+        /**
+         * @param distinct throws on duplicate elements if {@code true}, drops them otherwise
+         */
+        SetN(Object[] input, boolean distinct) {
+            var table = this.table = new Object[Immutables.tableSize(input.length)];
+            var size = 0;
+            for (var e : input) {
+                var index = probe(Objects.requireNonNull(e));
+                if (index >= 0) {
+                    if (distinct) throw new IllegalArgumentException("duplicate element: " + e);
+                    continue;
+                }
+                table[-(index + 1)] = e;
+                size++;
+            }
+            this.size = size;
+        }
+
+        /**
+         * @return the index of {@code o}, or {@code -(insertion point + 1)}
+         */
+        int probe(Object o) {
+            var table = this.table;
+            var mask = table.length - 1;
+            var index = Immutables.hash(o, mask);
+            while (true) {
+                var e = table[index];
+                if (e == null) return -index - 1;
+                if (o.equals(e)) return index;
+                index = (index + 1) & mask;
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Objects.requireNonNull(o);
+            return size != 0 && probe(o) >= 0;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new TableIterator<>(table, size, 1);
+        }
+    }
+
+    /**
+     * Iterates the non-null slots of an open addressed table
+     */
+    static class TableIterator<E> implements Iterator<E> {
+        final Object[] table;
+        final int step;
+        int remaining;
+        int index;
+
+        TableIterator(Object[] table, int size, int step) {
+            this.table = table;
+            this.remaining = size;
+            this.step = step;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * @return the index of the next non-null slot
+         */
+        int nextIndex() {
+            if (remaining <= 0) throw new NoSuchElementException();
+            var table = this.table;
+            while (table[index] == null) {
+                index += step;
+            }
+            remaining--;
+            var result = index;
+            index += step;
+            return result;
+        }
+
+        @Override
+        public E next() {
+            return (E) table[nextIndex()];
+        }
+    }
+
+    static final class KeyValueHolder<K, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+
+        KeyValueHolder(K key, V value) {
+            this.key = Objects.requireNonNull(key);
+            this.value = Objects.requireNonNull(value);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            var e = (Map.Entry<?, ?>) o;
+            return key.equals(e.getKey()) && value.equals(e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    abstract static class AbstractImmutableMap<K, V> extends AbstractMap<K, V> {
+        @Override
+        public V put(K key, V value) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends V> m) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V remove(Object key) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean remove(Object key, Object value) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V replace(K key, V value) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public boolean replace(K key, V oldValue, V newValue) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public void clear() {
+            throw Immutables.uoe();
+        }
+
+        @Override
+        public V getOrDefault(Object key, V defaultValue) {
+            var v = get(key);
+            return v != null ? v : defaultValue;
+        }
+    }
+
+    static final class Map1<K, V> extends AbstractImmutableMap<K, V> {
+        final K k0;
+        final V v0;
+
+        Map1(K k0, V v0) {
+            this.k0 = Objects.requireNonNull(k0);
+            this.v0 = Objects.requireNonNull(v0);
+        }
+
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public V get(Object key) {
+            return key.equals(k0) ? v0 : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key.equals(k0);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value.equals(v0);
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new Set12<>(new KeyValueHolder<>(k0, v0));
+        }
+
+        @Override
+        public int hashCode() {
+            return k0.hashCode() ^ v0.hashCode();
+        }
+    }
+
+    static final class Map2<K, V> extends AbstractImmutableMap<K, V> {
+        final K k0;
+        final V v0;
+        final K k1;
+        final V v1;
+
+        Map2(K k0, V v0, K k1, V v1) {
+            this.k0 = Objects.requireNonNull(k0);
+            this.v0 = Objects.requireNonNull(v0);
+            this.k1 = Objects.requireNonNull(k1);
+            this.v1 = Objects.requireNonNull(v1);
+            if (k0.equals(k1)) throw new IllegalArgumentException("duplicate key: " + k1);
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public V get(Object key) {
+            return key.equals(k0) ? v0 : key.equals(k1) ? v1 : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key.equals(k0) || key.equals(k1);
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            return value.equals(v0) || value.equals(v1);
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new Set12<>(new KeyValueHolder<>(k0, v0), new KeyValueHolder<>(k1, v1));
+        }
+
+        @Override
+        public int hashCode() {
+            return (k0.hashCode() ^ v0.hashCode()) + (k1.hashCode() ^ v1.hashCode());
+        }
+    }
+
+    static final class MapN<K, V> extends AbstractImmutableMap<K, V> {
+        static final MapN<?, ?> EMPTY = new MapN<>();
+
+        final Object[] table; // [k0, v0, k1, v1, ...]
+        final int size;
+
+        MapN(Object... input) {
+            var size = this.size = input.length >> 1;
+            var table = this.table = new Object[Immutables.tableSize(size) << 1];
+            for (var i = 0; i < input.length; i += 2) {
+                var k = Objects.requireNonNull(input[i]);
+                var v = Objects.requireNonNull(input[i + 1]);
+                var index = probe(k);
+                if (index >= 0) throw new IllegalArgumentException("duplicate key: " + k);
+                index = -(index + 1);
+                table[index] = k;
+                table[index + 1] = v;
+            }
+        }
+
+        /**
+         * @return the index of key {@code k}, or {@code -(insertion point + 1)}
+         */
+        int probe(Object k) {
+            var table = this.table;
+            var mask = (table.length >> 1) - 1;
+            var index = Immutables.hash(k, mask);
+            while (true) {
+                var ek = table[index << 1];
+                if (ek == null) return -(index << 1) - 1;
+                if (k.equals(ek)) return index << 1;
+                index = (index + 1) & mask;
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public V get(Object key) {
+            Objects.requireNonNull(key);
+            if (size == 0) return null;
+            var index = probe(key);
+            return index >= 0 ? (V) table[index + 1] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Objects.requireNonNull(key);
+            return size != 0 && probe(key) >= 0;
+        }
+
+        @Override
+        public boolean containsValue(Object value) {
+            Objects.requireNonNull(value);
+            var table = this.table;
+            for (var i = 1; i < table.length; i += 2) {
+                var v = table[i];
+                if (v != null && value.equals(v)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return new MapNEntrySet<>(this);
+        }
+    }
+
+    static final class MapNEntrySet<K, V> extends AbstractImmutableSet<Map.Entry<K, V>> {
+        final MapN<K, V> map;
+
+        MapNEntrySet(MapN<K, V> map) {
+            this.map = map;
+        }
+
+        @Override
+        public int size() {
+            return map.size;
+        }
+
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new MapNIterator<>(map.table, map.size);
+        }
+    }
+
+    static final class MapNIterator<K, V> extends TableIterator<Map.Entry<K, V>> {
+        MapNIterator(Object[] table, int size) {
+            super(table, size, 2);
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            var index = nextIndex();
+            return new KeyValueHolder<>((K) table[index], (V) table[index + 1]);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * java.util.concurrent methods of JDK 9+.
+ * <p>
+ * Timeouts share one daemon {@link ScheduledThreadPoolExecutor}, created on first use.
+ * Its remove-on-cancel policy is enabled and the timer is cancelled as soon as the
+ * future completes, completed futures never leave tasks in the queue.
+ */
+@SuppressWarnings({"unchecked", "DuplicatedCode"})
+class ConcurrentBridges {
+    @Shadow(CompletableFuture.class)
+    static class CompletableFutureB {
+        public static <T> CompletableFuture<T> orTimeout(CompletableFuture<T> thiz, long timeout, TimeUnit unit) {
+            Objects.requireNonNull(unit);
+            if (!thiz.isDone()) {
+                thiz.whenComplete(new Canceller(Delayer.delay(new Timeout(thiz), timeout, unit)));
+            }
+            return thiz;
+        }
+
+        public static <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> thiz, T value, long timeout, TimeUnit unit) {
+            Objects.requireNonNull(unit);
+            if (!thiz.isDone()) {
+                thiz.whenComplete(new Canceller(Delayer.delay(new DelayedCompleter<>(thiz, value), timeout, unit)));
+            }
+            return thiz;
+        }
+
+        public static <T> CompletableFuture<T> copy(CompletableFuture<T> thiz) {
+            return thiz.thenApply(Function.identity());
+        }
+
+        public static <T> CompletionStage<T> minimalCompletionStage(CompletableFuture<T> thiz) {
+            var stage = new MinimalStage<T>();
+            thiz.whenComplete(stage::completeInternal);
+            return stage;
+        }
+
+        @ShadowStatic
+        public static <U> CompletableFuture<U> failedFuture(Throwable ex) {
+            Objects.requireNonNull(ex);
+            var future = new CompletableFuture<U>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+
+        @ShadowStatic
+        public static Executor delayedExecutor(long delay, TimeUnit unit) {
+            return new DelayedExecutor(delay, Objects.requireNonNull(unit), Delayer.ASYNC_POOL);
+        }
+
+        @ShadowStatic
+        public static Executor delayedExecutor(long delay, TimeUnit unit, Executor executor) {
+            return new DelayedExecutor(delay, Objects.requireNonNull(unit), Objects.requireNonNull(executor));
+        }
+    }
+
+    /**
+     * Holder of the shared scheduler, initialized on first use
+     */
+    static final class Delayer {
+        static final ScheduledThreadPoolExecutor DELAYER;
+        static final Executor ASYNC_POOL = ForkJoinPool.getCommonPoolParallelism() > 1
+                ? ForkJoinPool.commonPool() : new ThreadPerTaskExecutor();
+
+        static {
+            DELAYER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory());
+            DELAYER.setRemoveOnCancelPolicy(true);
+        }
+
+        static ScheduledFuture<?> delay(Runnable command, long delay, TimeUnit unit) {
+            return DELAYER.schedule(command, delay, unit);
+        }
+    }
+
+    static final class DaemonThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            var thread = new Thread(r, "CompletableFutureDelayScheduler");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    static final class ThreadPerTaskExecutor implements Executor {
+        @Override
+        public void execute(Runnable r) {
+            new Thread(Objects.requireNonNull(r)).start();
+        }
+    }
+
+    static final class DelayedExecutor implements Executor {
+        final long delay;
+        final TimeUnit unit;
+        final Executor executor;
+
+        DelayedExecutor(long delay, TimeUnit unit, Executor executor) {
+            this.delay = delay;
+            this.unit = unit;
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable r) {
+            Delayer.delay(new TaskSubmitter(executor, Objects.requireNonNull(r)), delay, unit);
+        }
+    }
+
+    /**
+     * Hands the task to the target executor, the scheduler thread never runs user code
+     */
+    static final class TaskSubmitter implements Runnable {
+        final Executor executor;
+        final Runnable action;
+
+        TaskSubmitter(Executor executor, Runnable action) {
+            this.executor = executor;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            executor.execute(action);
+        }
+    }
+
+    static final class Timeout implements Runnable {
+        final CompletableFuture<?> future;
+
+        Timeout(CompletableFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future != null && !future.isDone()) {
+                future.completeExceptionally(new TimeoutException());
+            }
+        }
+    }
+
+    static final class DelayedCompleter<U> implements Runnable {
+        final CompletableFuture<U> future;
+        final U value;
+
+        DelayedCompleter(CompletableFuture<U> future, U value) {
+            this.future = future;
+            this.value = value;
+        }
+
+        @Override
+        public void run() {
+            if (future != null) {
+                future.complete(value);
+            }
+        }
+    }
+
+    /**
+     * Cancels the timer once the future completes, the task is removed from the queue
+     */
+    static final class Canceller implements BiConsumer<Object, Throwable> {
+        final Future<?> future;
+
+        Canceller(Future<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void accept(Object ignore, Throwable ex) {
+            if (future != null && !future.isDone()) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A {@link CompletionStage} which rejects the {@link CompletableFuture} only methods
+     */
+    static final class MinimalStage<T> extends CompletableFuture<T> {
+        void completeInternal(T value, Throwable ex) {
+            if (ex == null) {
+                super.complete(value);
+            } else {
+                super.completeExceptionally(ex);
+            }
+        }
+
+        @Override
+        public T get() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public T getNow(T valueIfAbsent) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public T join() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean complete(T value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable ex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void obtrudeValue(T value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void obtrudeException(Throwable ex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isDone() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isCompletedExceptionally() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getNumberOfDependents() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<T> toCompletableFuture() {
+            var future = new CompletableFuture<T>();
+            whenComplete((value, ex) -> {
+                if (ex == null) {
+                    future.complete(value);
+                } else {
+                    future.completeExceptionally(ex);
+                }
+            });
+            return future;
+        }
+    }
+}
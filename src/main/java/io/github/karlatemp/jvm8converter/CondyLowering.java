@@ -0,0 +1,287 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.*;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Lowers {@code CONSTANT_Dynamic} constants.
+ * <p>
+ * Trivial {@code ConstantBootstraps} constants are replaced by the equivalent instruction.
+ * Any other constant gets a holder class {@code Outer$Condy$N} whose {@code <clinit>} runs
+ * the bootstrap once, so a load becomes a {@code GETSTATIC} of the holder field and is
+ * computed lazily and thread-safely by class initialization.
+ * <p>
+ * {@code invokedynamic} call sites with dynamic static arguments get a synthetic bootstrap
+ * method which loads the constants and delegates to the original bootstrap.
+ */
+public class CondyLowering {
+    static final String CONSTANT_BOOTSTRAPS = "java/lang/invoke/ConstantBootstraps";
+    static final String MH = "java/lang/invoke/MethodHandle";
+
+    private final ClassNode klass;
+    private final Collection<ClassNode> output;
+    private final boolean isInterface;
+    private final HashMap<ConstantDynamic, FieldInsnNode> holders = new HashMap<>();
+    private int counter;
+
+    private CondyLowering(ClassNode klass, Collection<ClassNode> output) {
+        this.klass = klass;
+        this.output = output;
+        this.isInterface = (klass.access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @param output receives the generated holder classes
+     */
+    public static void lower(ClassNode klass, Collection<ClassNode> output) {
+        var lowering = new CondyLowering(klass, output);
+        for (var method : new ArrayList<>(klass.methods)) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (insn instanceof LdcInsnNode) {
+                    var ldc = (LdcInsnNode) insn;
+                    if (ldc.cst instanceof ConstantDynamic) {
+                        insnIterator.set(lowering.load((ConstantDynamic) ldc.cst));
+                    }
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    var idn = (InvokeDynamicInsnNode) insn;
+                    if (hasDynamicArgument(idn.bsmArgs)) {
+                        idn.bsm = lowering.bootstrapBridge(idn.bsm, idn.bsmArgs);
+                        idn.bsmArgs = new Object[0];
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean hasDynamicArgument(Object[] args) {
+        for (var arg : args) {
+            if (arg instanceof ConstantDynamic) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the instruction that replaces {@code ldc condy}
+     */
+    private AbstractInsnNode load(ConstantDynamic condy) {
+        var trivial = trivialLoad(condy);
+        if (trivial != null) return trivial;
+        var holder = holders.get(condy);
+        if (holder == null) {
+            holder = genHolder(condy);
+            holders.put(condy, holder);
+        }
+        return holder.clone(null);
+    }
+
+    private static AbstractInsnNode trivialLoad(ConstantDynamic condy) {
+        var bsm = condy.getBootstrapMethod();
+        if (!bsm.getOwner().equals(CONSTANT_BOOTSTRAPS)) return null;
+        var type = Type.getType(condy.getDescriptor());
+        switch (bsm.getName()) {
+            case "nullConstant":
+                return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? new InsnNode(Opcodes.ACONST_NULL) : null;
+            case "primitiveClass":
+                return primitiveClass(Type.getType(condy.getName()));
+            case "enumConstant":
+                return new FieldInsnNode(Opcodes.GETSTATIC, type.getInternalName(), condy.getName(), condy.getDescriptor());
+            case "getStaticFinal":
+                if (condy.getBootstrapMethodArgumentCount() == 0) {
+                    if (type.getSort() != Type.OBJECT) return null; // declared in the wrapper type
+                    return new FieldInsnNode(Opcodes.GETSTATIC, type.getInternalName(), condy.getName(), condy.getDescriptor());
+                }
+                var declaring = condy.getBootstrapMethodArgument(0);
+                if (!(declaring instanceof Type)) return null;
+                return new FieldInsnNode(Opcodes.GETSTATIC, ((Type) declaring).getInternalName(), condy.getName(), condy.getDescriptor());
+            default:
+                return null;
+        }
+    }
+
+    private static AbstractInsnNode primitiveClass(Type type) {
+        String wrapper;
+        switch (type.getSort()) {
+            case Type.VOID:
+                wrapper = "java/lang/Void";
+                break;
+            case Type.BOOLEAN:
+                wrapper = "java/lang/Boolean";
+                break;
+            case Type.BYTE:
+                wrapper = "java/lang/Byte";
+                break;
+            case Type.SHORT:
+                wrapper = "java/lang/Short";
+                break;
+            case Type.CHAR:
+                wrapper = "java/lang/Character";
+                break;
+            case Type.INT:
+                wrapper = "java/lang/Integer";
+                break;
+            case Type.LONG:
+                wrapper = "java/lang/Long";
+                break;
+            case Type.FLOAT:
+                wrapper = "java/lang/Float";
+                break;
+            case Type.DOUBLE:
+                wrapper = "java/lang/Double";
+                break;
+            default:
+                return null;
+        }
+        return new FieldInsnNode(Opcodes.GETSTATIC, wrapper, "TYPE", "Ljava/lang/Class;");
+    }
+
+    private FieldInsnNode genHolder(ConstantDynamic condy) {
+        var id = counter++;
+        var type = Type.getType(condy.getDescriptor());
+
+        // Resolved in the outer class, lookup() must be called from there
+        var resolver = klass.visitMethod(
+                (isInterface ? Opcodes.ACC_PUBLIC : 0) | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                "condy$" + id, "()Ljava/lang/Object;", null, null
+        );
+        resolver.visitLdcInsn(condy.getBootstrapMethod());
+        var args = new Object[condy.getBootstrapMethodArgumentCount()];
+        for (var i = 0; i < args.length; i++) {
+            args[i] = condy.getBootstrapMethodArgument(i);
+        }
+        newArguments(resolver, args,
+                () -> resolver.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", false),
+                () -> resolver.visitLdcInsn(condy.getName()),
+                () -> {
+                    var primitive = primitiveClass(type);
+                    if (primitive != null) {
+                        primitive.accept(resolver);
+                    } else {
+                        resolver.visitLdcInsn(type);
+                    }
+                });
+        resolver.visitMethodInsn(Opcodes.INVOKEVIRTUAL, MH, "invokeWithArguments", "([Ljava/lang/Object;)Ljava/lang/Object;", false);
+        resolver.visitInsn(Opcodes.ARETURN);
+        resolver.visitMaxs(7, 0);
+
+        var holder = new ClassNode();
+        holder.visit(Opcodes.V1_8,
+                Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                klass.name + "$Condy$" + id,
+                null, "java/lang/Object", null
+        );
+        holder.sourceFile = klass.sourceFile;
+        holder.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC, "VALUE", condy.getDescriptor(), null, null);
+        var clinit = holder.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        clinit.visitMethodInsn(Opcodes.INVOKESTATIC, klass.name, "condy$" + id, "()Ljava/lang/Object;", isInterface);
+        unbox(clinit, type);
+        clinit.visitFieldInsn(Opcodes.PUTSTATIC, holder.name, "VALUE", condy.getDescriptor());
+        clinit.visitInsn(Opcodes.RETURN);
+        clinit.visitMaxs(2, 0);
+        output.add(holder);
+
+        return new FieldInsnNode(Opcodes.GETSTATIC, holder.name, "VALUE", condy.getDescriptor());
+    }
+
+    private Handle bootstrapBridge(Handle bsm, Object[] bsmArgs) {
+        var name = "condyBsm$" + counter++;
+        var desc = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+        var mv = klass.visitMethod(
+                (isInterface ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE) | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                name, desc, null, null
+        );
+        mv.visitLdcInsn(bsm);
+        newArguments(mv, bsmArgs,
+                () -> mv.visitVarInsn(Opcodes.ALOAD, 0),
+                () -> mv.visitVarInsn(Opcodes.ALOAD, 1),
+                () -> mv.visitVarInsn(Opcodes.ALOAD, 2)
+        );
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, MH, "invokeWithArguments", "([Ljava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/invoke/CallSite");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(7, 3);
+        return new Handle(Opcodes.H_INVOKESTATIC, klass.name, name, desc, isInterface);
+    }
+
+    /**
+     * Pushes {@code Object[]{lookup, name, type, args...}}
+     */
+    private void newArguments(MethodVisitor mv, Object[] args, Runnable... leading) {
+        SwitchLowering.pushInt(mv, leading.length + args.length);
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+        var index = 0;
+        for (var load : leading) {
+            mv.visitInsn(Opcodes.DUP);
+            SwitchLowering.pushInt(mv, index++);
+            load.run();
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+        for (var arg : args) {
+            mv.visitInsn(Opcodes.DUP);
+            SwitchLowering.pushInt(mv, index++);
+            if (arg instanceof ConstantDynamic) {
+                var condy = (ConstantDynamic) arg;
+                load(condy).accept(mv);
+                box(mv, Type.getType(condy.getDescriptor()));
+            } else {
+                mv.visitLdcInsn(arg);
+                if (arg instanceof Integer) {
+                    box(mv, Type.INT_TYPE);
+                } else if (arg instanceof Long) {
+                    box(mv, Type.LONG_TYPE);
+                } else if (arg instanceof Float) {
+                    box(mv, Type.FLOAT_TYPE);
+                } else if (arg instanceof Double) {
+                    box(mv, Type.DOUBLE_TYPE);
+                }
+            }
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+    }
+
+    static String wrapper(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
+        }
+    }
+
+    static void box(MethodVisitor mv, Type type) {
+        var wrapper = wrapper(type);
+        if (wrapper == null) return;
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper, "valueOf", "(" + type.getDescriptor() + ")L" + wrapper + ";", false);
+    }
+
+    static void unbox(MethodVisitor mv, Type type) {
+        var wrapper = wrapper(type);
+        if (wrapper == null) {
+            if (!type.getInternalName().equals("java/lang/Object")) {
+                mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+            }
+            return;
+        }
+        mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()" + type.getDescriptor(), false);
+    }
+}
@@ -0,0 +1,12 @@
+package io.github.karlatemp.jvm8converter;
+
+/**
+ * A pass loaded with {@link java.util.ServiceLoader}, listed in
+ * {@code META-INF/services/io.github.karlatemp.jvm8converter.ConversionPass}.
+ * <p>
+ * Registered once per conversion after the built-in passes, its handlers share
+ * their traversal, see {@link TransformPipeline}.
+ */
+public interface ConversionPass {
+    void register(TransformPipeline pipeline) throws Exception;
+}
@@ -0,0 +1,158 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A configured conversion.
+ * <pre>
+ * new Converter().spinLambdas(true).convert(src, output);
+ * </pre>
+ * Configure it before sharing it, then it may convert any number of jars from any number
+ * of threads at once. Every conversion has its own class nodes, generated names and copy of
+ * the bridges. Only read-only caches are shared between conversions and instances:
+ * the JDK hierarchy, the {@link JdkApi JDK 8 API index} and the bridge templates.
+ */
+public class Converter {
+    private boolean redirectNewMethods = true;
+    private boolean flattenMultiRelease = false;
+    private boolean spinLambdas = false;
+    private Set<Shrinker.Strip> shrink = Collections.emptySet();
+    private List<String> loadOrder = null;
+    private boolean jarIndex = false;
+    private boolean telemetry = false;
+    private int target = 8;
+    private boolean multiRelease = false;
+
+    /**
+     * @return the stages of the conversion with their queue depths and throughput
+     */
+    public Stages convert(File src, File output) throws Exception {
+        return Jvm8Converter.convert(this, src, output);
+    }
+
+    /**
+     * Redirect newer jdk methods
+     */
+    public Converter redirectNewMethods(boolean redirectNewMethods) {
+        this.redirectNewMethods = redirectNewMethods;
+        return this;
+    }
+
+    /**
+     * Flatten multi-release jars: only the newest variant of each class
+     * (base or {@code META-INF/versions/N/}) is converted, the others are dropped.
+     * Jars without {@code Multi-Release: true} in their manifest are left as they are.
+     */
+    public Converter flattenMultiRelease(boolean flattenMultiRelease) {
+        this.flattenMultiRelease = flattenMultiRelease;
+        return this;
+    }
+
+    /**
+     * Spin lambda classes at conversion time instead of using
+     * {@code LambdaMetafactory} at runtime, see {@link LambdaSpinner}.
+     * Below JDK 9 string concatenation is spun too, JDK 8 then bootstraps no method handles.
+     */
+    public Converter spinLambdas(boolean spinLambdas) {
+        this.spinLambdas = spinLambdas;
+        return this;
+    }
+
+    /**
+     * Debug information and metadata dropped from the output, see {@link Shrinker}.
+     * When not empty, classes which need no conversion are rewritten too.
+     */
+    public Converter shrink(Set<Shrinker.Strip> shrink) {
+        this.shrink = shrink.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(EnumSet.copyOf(shrink));
+        return this;
+    }
+
+    /**
+     * Class load order profile, classes are written in first-use order, see {@link JarLayout#readProfile}
+     */
+    public Converter loadOrder(List<String> loadOrder) {
+        this.loadOrder = loadOrder == null ? null : List.copyOf(loadOrder);
+        return this;
+    }
+
+    /**
+     * Write a {@code META-INF/INDEX.LIST} for the {@code URLClassLoader} of JDK 8
+     */
+    public Converter jarIndex(boolean jarIndex) {
+        this.jarIndex = jarIndex;
+        return this;
+    }
+
+    /**
+     * Inject {@link Telemetry}: bridge call counters and linkage timings, exposed over JMX
+     */
+    public Converter telemetry(boolean telemetry) {
+        this.telemetry = telemetry;
+        return this;
+    }
+
+    /**
+     * The Java release the output runs on, 8 by default. Classes of a newer class file version are
+     * converted to the version of {@code target}, only the constructs and APIs {@code target} lacks
+     * are lowered and bridged, see {@link JdkApi#shared(int)}. Its signatures come from the running
+     * JDK, which can't be older than {@code target}.
+     */
+    public Converter target(int target) {
+        if (target < 8) throw new IllegalArgumentException("target " + target + " < 8");
+        var running = Runtime.version().feature();
+        if (target > running) throw new IllegalArgumentException("target " + target + " > running JDK " + running);
+        this.target = target;
+        return this;
+    }
+
+    /**
+     * Write a multi-release jar: the converted classes are the base entries and the original classes
+     * go under {@code META-INF/versions/N/}, {@code N} the newest release among them, so JDK N+ runs them
+     * as they are. Only the base entries use the injected runtime. A class which already has a
+     * {@code META-INF/versions/} variant keeps it.
+     */
+    public Converter multiRelease(boolean multiRelease) {
+        this.multiRelease = multiRelease;
+        return this;
+    }
+
+    public boolean redirectNewMethods() {
+        return redirectNewMethods;
+    }
+
+    public boolean flattenMultiRelease() {
+        return flattenMultiRelease;
+    }
+
+    public boolean spinLambdas() {
+        return spinLambdas;
+    }
+
+    public Set<Shrinker.Strip> shrink() {
+        return shrink;
+    }
+
+    public List<String> loadOrder() {
+        return loadOrder;
+    }
+
+    public boolean jarIndex() {
+        return jarIndex;
+    }
+
+    public boolean telemetry() {
+        return telemetry;
+    }
+
+    public int target() {
+        return target;
+    }
+
+    public boolean multiRelease() {
+        return multiRelease;
+    }
+}
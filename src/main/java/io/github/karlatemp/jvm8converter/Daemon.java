@@ -0,0 +1,324 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long running converter, taking conversions over a local Unix domain socket (JDK 16+).
+ * <pre>
+ * java io.github.karlatemp.jvm8converter.Daemon serve &lt;socket&gt; [idle minutes [option...]]
+ * java io.github.karlatemp.jvm8converter.Daemon convert &lt;socket&gt; &lt;src jar&gt; &lt;output jar&gt; [option...]
+ * java io.github.karlatemp.jvm8converter.Daemon stop &lt;socket&gt;
+ * </pre>
+ * The bridge templates, the JDK hierarchy cache and the JIT compiled converter stay
+ * warm between conversions, a request only pays for its own jar.
+ * <p>
+ * Each connection is handled on its own thread and each conversion has its own class
+ * nodes and bridge copy, a failing request doesn't affect the others. At most one
+ * conversion per core runs at a time, which bounds the peak memory, and the daemon
+ * exits after being idle for the given minutes (30 by default).
+ * <p>
+ * Options configure the {@link Converter} of a conversion, as {@code name} or {@code name=value}:
+ * {@code target=<release>}, {@code spinLambdas}, {@code shrink=<strip>,...}, {@code telemetry},
+ * {@code jarIndex}, {@code loadOrder=<profile>}, {@code multiRelease}, {@code flattenMultiRelease}
+ * and {@code redirectNewMethods=false}. The options given to {@code serve} are the defaults of
+ * every conversion, those of a request come after them and override them.
+ * <p>
+ * One request per line, fields are separated by tabs:
+ * {@code convert <src> <output> [option...]} is answered by {@code ok <millis>} or {@code error <message>},
+ * {@code ping} by {@code pong} and {@code stop} by {@code bye}. After {@code stop} the daemon takes no
+ * more conversions, it answers once the running conversions of all connections finished and exits.
+ */
+public class Daemon {
+    private static final int PERMITS = Runtime.getRuntime().availableProcessors();
+
+    private final List<String> options;
+    private final ServerSocketChannel server;
+    private final long idleTimeout;
+    private final Semaphore conversions = new Semaphore(PERMITS);
+    private final CountDownLatch exit = new CountDownLatch(1);
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong lastActive = new AtomicLong(System.nanoTime());
+    private volatile boolean stopped;
+
+    Daemon(ServerSocketChannel server, long idleTimeout, List<String> options) {
+        this.server = server;
+        this.idleTimeout = idleTimeout;
+        this.options = List.copyOf(options);
+    }
+
+    void serve() throws Exception {
+        // Warm up before taking requests, the first conversion shouldn't pay for it
+        MethodBridgeMap.template(converter(options).spinLambdas());
+
+        var watchdog = new Thread(this::watchIdle, "Daemon Idle Watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+
+        while (!stopped) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (stopped) break;
+                throw e;
+            }
+            active.incrementAndGet();
+            var handler = new Thread(() -> handle(channel), "Daemon Connection");
+            handler.setDaemon(true);
+            handler.start();
+        }
+        // Until the running conversions finished and the stop request is answered
+        exit.await();
+    }
+
+    private void watchIdle() {
+        var released = false;
+        while (!stopped) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (active.get() != 0) {
+                released = false;
+                continue;
+            }
+            var idle = System.nanoTime() - lastActive.get();
+            if (idle >= idleTimeout) {
+                System.out.println("[Daemon] Idle, stopping");
+                stop();
+                awaitConversions();
+                exit.countDown();
+                return;
+            }
+            if (!released && idle >= 10_000_000_000L) {
+                // Let the heap shrink back to the warm caches
+                released = true;
+                System.gc();
+            }
+        }
+    }
+
+    /**
+     * Stops taking connections and conversions
+     */
+    private void stop() {
+        stopped = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void awaitConversions() {
+        conversions.acquireUninterruptibly(PERMITS);
+        conversions.release(PERMITS);
+    }
+
+    private void handle(SocketChannel channel) {
+        try (channel;
+             var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8))
+        ) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var request = line.split("\t");
+                switch (request[0]) {
+                    case "ping":
+                        writer.println("pong");
+                        break;
+                    case "stop":
+                        stop();
+                        awaitConversions();
+                        writer.println("bye");
+                        writer.flush();
+                        exit.countDown();
+                        return;
+                    case "convert":
+                        if (request.length < 3) {
+                            writer.println("error\tUsage: convert <src> <output> [option...]");
+                            break;
+                        }
+                        var options = new ArrayList<>(this.options);
+                        options.addAll(Arrays.asList(request).subList(3, request.length));
+                        writer.println(convert(new File(request[1]), new File(request[2]), options));
+                        break;
+                    default:
+                        writer.println("error\tUnknown request: " + request[0]);
+                }
+                writer.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            lastActive.set(System.nanoTime());
+            active.decrementAndGet();
+        }
+    }
+
+    private String convert(File src, File output, List<String> options) {
+        if (stopped) return "error\tStopping";
+        try {
+            conversions.acquire();
+        } catch (InterruptedException e) {
+            return "error\tInterrupted";
+        }
+        try {
+            if (stopped) return "error\tStopping";
+            var converter = converter(options);
+            var start = System.nanoTime();
+            converter.convert(src, output);
+            var time = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("[Daemon] Converted " + src + " in " + time + "ms");
+            return "ok\t" + time;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return "error\t" + String.valueOf(e).replace('\n', ' ');
+        } finally {
+            conversions.release();
+        }
+    }
+
+    /**
+     * Configures a converter from {@code name} / {@code name=value} options, a later option overrides an earlier one
+     */
+    static Converter converter(List<String> options) throws IOException {
+        var converter = new Converter();
+        for (var option : options) {
+            var index = option.indexOf('=');
+            var name = index < 0 ? option : option.substring(0, index);
+            var value = index < 0 ? "true" : option.substring(index + 1);
+            switch (name) {
+                case "target":
+                    converter.target(Integer.parseInt(value));
+                    break;
+                case "spinLambdas":
+                    converter.spinLambdas(flag(name, value));
+                    break;
+                case "shrink":
+                    var strips = EnumSet.noneOf(Shrinker.Strip.class);
+                    for (var strip : value.split(",")) {
+                        if (!strip.isEmpty()) strips.add(Shrinker.Strip.valueOf(strip));
+                    }
+                    converter.shrink(strips);
+                    break;
+                case "telemetry":
+                    converter.telemetry(flag(name, value));
+                    break;
+                case "jarIndex":
+                    converter.jarIndex(flag(name, value));
+                    break;
+                case "loadOrder":
+                    converter.loadOrder(value.isEmpty() ? null : JarLayout.readProfile(new File(value)));
+                    break;
+                case "multiRelease":
+                    converter.multiRelease(flag(name, value));
+                    break;
+                case "flattenMultiRelease":
+                    converter.flattenMultiRelease(flag(name, value));
+                    break;
+                case "redirectNewMethods":
+                    converter.redirectNewMethods(flag(name, value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        return converter;
+    }
+
+    private static boolean flag(String name, String value) {
+        switch (value) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw new IllegalArgumentException("Not a boolean: " + name + "=" + value);
+        }
+    }
+
+    /**
+     * Resolves the file of a {@code loadOrder} option, the daemon has its own working directory
+     */
+    private static String absolute(String option) {
+        return option.startsWith("loadOrder=") && option.length() > 10
+                ? "loadOrder=" + new File(option.substring(10)).getAbsolutePath()
+                : option;
+    }
+
+    private static String request(Path socket, String request) throws IOException {
+        try (var channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+             var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))
+        ) {
+            var writer = new PrintWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            writer.println(request);
+            writer.flush();
+            return reader.readLine();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: Daemon serve <socket> [idle minutes [option...]]");
+            System.out.println("       Daemon convert <socket> <src jar> <output jar> [option...]");
+            System.out.println("       Daemon stop <socket>");
+            return;
+        }
+        var socket = Path.of(args[1]);
+        switch (args[0]) {
+            case "serve": {
+                var idleMinutes = args.length > 2 ? Long.parseLong(args[2]) : 30;
+                var options = new ArrayList<String>();
+                for (var i = 3; i < args.length; i++) options.add(absolute(args[i]));
+                // Fail on a bad option before binding
+                converter(options);
+                // A socket file left by a killed daemon
+                Files.deleteIfExists(socket);
+                try (var server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+                    server.bind(UnixDomainSocketAddress.of(socket));
+                    System.out.println("[Daemon] Listening on " + socket);
+                    new Daemon(server, idleMinutes * 60_000_000_000L, options).serve();
+                } finally {
+                    Files.deleteIfExists(socket);
+                }
+                break;
+            }
+            case "convert": {
+                if (args.length < 4) {
+                    System.out.println("Usage: Daemon convert <socket> <src jar> <output jar> [option...]");
+                    return;
+                }
+                // The daemon has its own working directory
+                var request = new StringBuilder("convert\t").append(new File(args[2]).getAbsolutePath())
+                        .append('\t').append(new File(args[3]).getAbsolutePath());
+                for (var i = 4; i < args.length; i++) request.append('\t').append(absolute(args[i]));
+                var response = request(socket, request.toString());
+                System.out.println(response);
+                if (response == null || !response.startsWith("ok")) System.exit(1);
+                break;
+            }
+            case "stop":
+                System.out.println(request(socket, "stop"));
+                break;
+            default:
+                System.out.println("Unknown command: " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Entry order of the output jar, see {@link Converter#loadOrder(List)}, {@link Converter#jarIndex(boolean)}
+ * and {@link Converter#multiRelease(boolean)}.
+ * <p>
+ * Without any, entries are written as they come. Otherwise they are held back until
+ * {@link #finish()}, then written as: the manifest, {@code META-INF/INDEX.LIST}, the classes
+ * of the profile in first-use order and everything else in its original order.
+ * A multi-release jar gets {@code Multi-Release: true} once it has {@code META-INF/versions/} entries.
+ */
+public class JarLayout {
+    @FunctionalInterface
+    interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * {@code [Loaded a.b.C from ...]} of JDK 8, {@code [...][class,load] a.b.C source: ...} of JDK 9+
+     */
+    private static final Pattern VERBOSE_CLASS = Pattern.compile("^\\[Loaded (\\S+) .*|.*\\[class,load] (\\S+) .*");
+
+    private final ZipOutputStream out;
+    private final String jarName;
+    private final List<String> loadOrder;
+    private final boolean index;
+    private final boolean multiRelease;
+    private final LinkedHashMap<String, Kit.Pair<ZipEntry, Content>> pending;
+
+    JarLayout(ZipOutputStream out, String jarName, List<String> loadOrder, boolean index, boolean multiRelease) {
+        this.out = out;
+        this.jarName = jarName;
+        this.loadOrder = loadOrder;
+        this.index = index;
+        this.multiRelease = multiRelease;
+        this.pending = loadOrder != null || index || multiRelease ? new LinkedHashMap<>() : null;
+    }
+
+    /**
+     * Reads a class load order: the output of {@code -verbose:class} or {@code -Xlog:class+load},
+     * or a list of class names or class entries, one per line
+     *
+     * @return internal names in first-use order
+     */
+    public static List<String> readProfile(File file) throws IOException {
+        var order = new LinkedHashSet<String>();
+        for (var line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            String name;
+            var matcher = VERBOSE_CLASS.matcher(line);
+            if (matcher.matches()) {
+                name = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            } else if (!line.isEmpty() && line.indexOf(' ') == -1 && line.charAt(0) != '[') {
+                name = line.endsWith(".class") ? line.substring(0, line.length() - 6) : line;
+            } else {
+                continue;
+            }
+            order.add(name.replace('.', '/'));
+        }
+        return new ArrayList<>(order);
+    }
+
+    void add(ZipEntry entry, Content content) throws IOException {
+        if (pending == null) {
+            write(entry, content);
+        } else {
+            pending.put(entry.getName(), new Kit.Pair<>(entry, content));
+        }
+    }
+
+    void finish() throws IOException {
+        if (pending == null) return;
+        var names = new ArrayList<>(pending.keySet());
+        var metaInf = pending.remove("META-INF/");
+        if (metaInf != null) write(metaInf.k, metaInf.v);
+        var manifest = pending.remove(JarFile.MANIFEST_NAME);
+        if (multiRelease && names.stream().anyMatch(name -> name.startsWith(Jvm8Converter.VERSIONS_PREFIX))) {
+            manifest = multiRelease(manifest);
+        }
+        if (manifest != null) {
+            var bytes = new ByteArrayOutputStream();
+            manifest.v.writeTo(bytes);
+            write(manifest.k, bytes::writeTo);
+            if (index) index(names, new Manifest(new ByteArrayInputStream(bytes.toByteArray())));
+        } else if (index) {
+            index(names, null);
+        }
+        if (loadOrder != null) {
+            var ordered = 0;
+            for (var name : loadOrder) {
+                var entry = pending.remove(name + ".class");
+                if (entry == null) continue;
+                write(entry.k, entry.v);
+                ordered++;
+            }
+            System.out.println("[JarLayout] " + ordered + " classes in load order");
+        }
+        for (var entry : pending.values()) {
+            write(entry.k, entry.v);
+        }
+        pending.clear();
+    }
+
+    /**
+     * {@code manifest} with {@code Multi-Release: true}, a new one if there is none
+     */
+    private static Kit.Pair<ZipEntry, Content> multiRelease(Kit.Pair<ZipEntry, Content> manifest) throws IOException {
+        var parsed = new Manifest();
+        if (manifest != null) {
+            var bytes = new ByteArrayOutputStream();
+            manifest.v.writeTo(bytes);
+            parsed.read(new ByteArrayInputStream(bytes.toByteArray()));
+        } else {
+            parsed.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        }
+        parsed.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        var bytes = new ByteArrayOutputStream();
+        parsed.write(bytes);
+        return new Kit.Pair<>(new ZipEntry(JarFile.MANIFEST_NAME), bytes::writeTo);
+    }
+
+    private void index(List<String> names, Manifest manifest) throws IOException {
+        if (manifest != null && manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH) != null) {
+            // JDK 8 ignores Class-Path when there is an index, the dependencies would not be found
+            System.out.println("[JarLayout] " + jarName + " has a Class-Path, META-INF/INDEX.LIST skipped");
+            return;
+        }
+        pending.remove("META-INF/INDEX.LIST");
+        var packages = new TreeSet<String>();
+        for (var name : names) {
+            if (name.endsWith("/") || name.startsWith("META-INF/")) continue;
+            var pkg = name.lastIndexOf('/');
+            packages.add(pkg == -1 ? name : name.substring(0, pkg));
+        }
+        var text = new StringBuilder("JarIndex-Version: 1.0\n\n").append(jarName).append('\n');
+        for (var pkg : packages) {
+            text.append(pkg).append('\n');
+        }
+        text.append('\n');
+        var bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        write(new ZipEntry("META-INF/INDEX.LIST"), out -> out.write(bytes));
+    }
+
+    private void write(ZipEntry entry, Content content) throws IOException {
+        out.putNextEntry(entry);
+        content.writeTo(out);
+    }
+}
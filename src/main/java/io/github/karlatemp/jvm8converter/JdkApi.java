@@ -0,0 +1,466 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+/**
+ * The public API of a JDK release, as an index of every class, method and field signature.
+ * <p>
+ * The JDK 8 index is generated at build time by {@link #main} from the {@code rt.jar} of a JDK 8
+ * or the {@code lib/ct.sym} of a newer JDK (the signature data used by {@code javac --release 8}),
+ * and shipped as the {@code jdk8-api.idx} resource. Lookups hash into the index directly,
+ * nothing is parsed when it's loaded and a file given by {@code -Djvm8converter.jdk8api}
+ * is memory mapped.
+ * <pre>
+ * int magic, version, classCount, memberCount, classSlots, memberSlots, interfaceCount, stringsSize
+ * class table:     name, super class index or -1, interfaces offset, first member, member count
+ * member table:    class index, {@code name(desc)} of methods or {@code name desc} of fields
+ * class slots:     class index + 1, 0 is empty, hashed by name
+ * member slots:    member index + 1, hashed by class index and member
+ * interfaces:      count followed by the class indexes
+ * strings:         sorted and deduplicated, u2 length followed by the UTF-8 bytes
+ * </pre>
+ * Classes are sorted by name, members by class then signature.
+ * Instances are safe for concurrent use.
+ * <p>
+ * The API of a newer release, for a newer {@link Converter#target(int) target}, is indexed the same way
+ * on first use by {@link #shared(int)}: from {@code ct.sym}, or from the runtime image for the release
+ * of the running JDK which {@code ct.sym} doesn't list.
+ */
+public class JdkApi {
+    static final int MAGIC = 0x4A384149; // J8AI
+    static final int VERSION = 1;
+    static final String RESOURCE = "jdk8-api.idx";
+    private static final int HEADER = 8 * 4, CLASS_SIZE = 5 * 4, MEMBER_SIZE = 2 * 4;
+
+    private static JdkApi shared;
+    private static volatile boolean sharedLoaded;
+    private static final Map<Integer, Optional<JdkApi>> RELEASES = new ConcurrentHashMap<>();
+
+    private final ByteBuffer index;
+    private final int classCount, classSlots, memberSlots;
+    private final int classTable, memberTable, classDir, memberDir, interfaces, strings;
+    private final HashSet<String> packages = new HashSet<>();
+
+    JdkApi(ByteBuffer index) throws IOException {
+        this.index = index;
+        if (index.getInt(0) != MAGIC || index.getInt(4) != VERSION) {
+            throw new IOException("Not a JDK API index of version " + VERSION);
+        }
+        classCount = index.getInt(8);
+        var memberCount = index.getInt(12);
+        classSlots = index.getInt(16);
+        memberSlots = index.getInt(20);
+        classTable = HEADER;
+        memberTable = classTable + classCount * CLASS_SIZE;
+        classDir = memberTable + memberCount * MEMBER_SIZE;
+        memberDir = classDir + classSlots * 4;
+        interfaces = memberDir + memberSlots * 4;
+        strings = interfaces + index.getInt(24) * 4;
+        for (var i = 0; i < classCount; i++) {
+            var className = string(index.getInt(classTable + i * CLASS_SIZE));
+            var pkg = className.lastIndexOf('/');
+            if (pkg != -1) packages.add(className.substring(0, pkg));
+        }
+    }
+
+    /**
+     * The index of the {@code jvm8converter.jdk8api} file, the {@value RESOURCE} resource
+     * or, if neither exists, built from {@code lib/ct.sym} of the running JDK
+     *
+     * @return {@code null} if no index could be found or built
+     */
+    public static JdkApi load() throws IOException {
+        var file = System.getProperty("jvm8converter.jdk8api");
+        if (file != null) {
+            try (var channel = FileChannel.open(new File(file).toPath(), StandardOpenOption.READ)) {
+                return new JdkApi(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+        try (var res = JdkApi.class.getResourceAsStream(RESOURCE)) {
+            if (res != null) return new JdkApi(ByteBuffer.wrap(res.readAllBytes()));
+        }
+        var ctSym = new File(System.getProperty("java.home"), "lib/ct.sym");
+        if (!ctSym.isFile()) return null;
+        var out = new ByteArrayOutputStream();
+        write(ctSym, out);
+        return new JdkApi(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * The index of this process, loaded on first use
+     *
+     * @return {@code null} if there is none
+     */
+    static JdkApi shared() throws IOException {
+        if (sharedLoaded) return shared;
+        synchronized (JdkApi.class) {
+            if (!sharedLoaded) {
+                shared = load();
+                sharedLoaded = true;
+            }
+            return shared;
+        }
+    }
+
+    /**
+     * The index of a release, built on first use
+     *
+     * @return {@code null} if the running JDK has no signatures of {@code release}
+     */
+    static JdkApi shared(int release) throws IOException {
+        if (release == 8) return shared();
+        var api = RELEASES.get(release);
+        if (api == null) {
+            var out = new ByteArrayOutputStream();
+            if (release == Runtime.version().feature()) {
+                writeRuntime(out);
+            } else {
+                var ctSym = new File(System.getProperty("java.home"), "lib/ct.sym");
+                if (ctSym.isFile()) write(ctSym, release, out);
+            }
+            var index = out.size() == 0 ? null : new JdkApi(ByteBuffer.wrap(out.toByteArray()));
+            if (index != null && index.classCount == 0) index = null;
+            var existing = RELEASES.putIfAbsent(release, api = Optional.ofNullable(index));
+            if (existing != null) api = existing;
+        }
+        return api.orElse(null);
+    }
+
+    /**
+     * Whether {@code className} is in a package of the indexed API or in {@code java/}, {@code javax/}
+     */
+    public boolean isPlatformPackage(String className) {
+        if (className.startsWith("java/") || className.startsWith("javax/")) return true;
+        var pkg = className.lastIndexOf('/');
+        return pkg != -1 && packages.contains(className.substring(0, pkg));
+    }
+
+    public boolean hasClass(String className) {
+        return classIndex(className) != -1;
+    }
+
+    public boolean hasMethod(String owner, String name, String desc) {
+        if (owner.equals("java/lang/invoke/MethodHandle") && (name.equals("invoke") || name.equals("invokeExact"))) {
+            // Signature polymorphic
+            return true;
+        }
+        if (owner.equals("java/lang/invoke/VarHandle")) {
+            // Signature polymorphic, declared with an Object[] of their return type
+            var polymorphic = name + "([Ljava/lang/Object;)";
+            if (hasMember(owner, polymorphic + "Ljava/lang/Object;") || hasMember(owner, polymorphic + "Z")
+                    || hasMember(owner, polymorphic + "V")) {
+                return true;
+            }
+        }
+        return hasMember(owner, name + desc);
+    }
+
+    public boolean hasField(String owner, String name, String desc) {
+        return hasMember(owner, name + ' ' + desc);
+    }
+
+    /**
+     * {@code className}, its super classes and all its interfaces
+     *
+     * @return {@code null} if the indexed API has no {@code className}
+     */
+    public Set<String> supertypes(String className) {
+        var klass = classIndex(className);
+        if (klass == -1) return null;
+        var result = new HashSet<String>();
+        collectSupertypes(klass, result);
+        result.add("java/lang/Object");
+        return result;
+    }
+
+    private void collectSupertypes(int klass, Set<String> result) {
+        if (!result.add(string(index.getInt(classTable + klass * CLASS_SIZE)))) return;
+        var superClass = index.getInt(classTable + klass * CLASS_SIZE + 4);
+        if (superClass != -1) collectSupertypes(superClass, result);
+        var itfs = index.getInt(classTable + klass * CLASS_SIZE + 8);
+        for (var i = index.getInt(interfaces + itfs * 4); i > 0; i--) {
+            collectSupertypes(index.getInt(interfaces + (itfs + i) * 4), result);
+        }
+    }
+
+    private boolean hasMember(String owner, String member) {
+        var klass = classIndex(owner);
+        if (klass == -1) return false;
+        var bytes = member.getBytes(StandardCharsets.UTF_8);
+        return hasMember(klass, bytes, hash(bytes));
+    }
+
+    private boolean hasMember(int klass, byte[] member, int hash) {
+        var mask = memberSlots - 1;
+        for (var slot = (hash ^ klass * 0x9E3779B9) & mask; ; slot = (slot + 1) & mask) {
+            var entry = index.getInt(memberDir + slot * 4) - 1;
+            if (entry == -1) break;
+            if (index.getInt(memberTable + entry * MEMBER_SIZE) == klass
+                    && equals(index.getInt(memberTable + entry * MEMBER_SIZE + 4), member)) {
+                return true;
+            }
+        }
+        var superClass = index.getInt(classTable + klass * CLASS_SIZE + 4);
+        if (superClass != -1 && hasMember(superClass, member, hash)) return true;
+        var itfs = index.getInt(classTable + klass * CLASS_SIZE + 8);
+        for (var i = index.getInt(interfaces + itfs * 4); i > 0; i--) {
+            if (hasMember(index.getInt(interfaces + (itfs + i) * 4), member, hash)) return true;
+        }
+        return false;
+    }
+
+    private int classIndex(String className) {
+        var name = className.getBytes(StandardCharsets.UTF_8);
+        var mask = classSlots - 1;
+        for (var slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            var entry = index.getInt(classDir + slot * 4) - 1;
+            if (entry == -1) return -1;
+            if (equals(index.getInt(classTable + entry * CLASS_SIZE), name)) return entry;
+        }
+    }
+
+    private boolean equals(int string, byte[] value) {
+        var offset = strings + string;
+        var length = index.getShort(offset) & 0xFFFF;
+        if (length != value.length) return false;
+        offset += 2;
+        for (var i = 0; i < length; i++) {
+            if (index.get(offset + i) != value[i]) return false;
+        }
+        return true;
+    }
+
+    private String string(int string) {
+        var offset = strings + string;
+        var bytes = new byte[index.getShort(offset) & 0xFFFF];
+        for (var i = 0; i < bytes.length; i++) {
+            bytes[i] = index.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * FNV-1a
+     */
+    static int hash(byte[] value) {
+        var hash = 0x811C9DC5;
+        for (var b : value) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash;
+    }
+
+    static final class ClassInfo {
+        String name;
+        String superName;
+        String[] interfaces;
+        final TreeSet<String> members = new TreeSet<>();
+    }
+
+    /**
+     * Writes the index of {@code source}, the {@code rt.jar} of a JDK 8 or a {@code ct.sym}
+     */
+    static void write(File source, OutputStream output) throws IOException {
+        write(source, 8, output);
+    }
+
+    /**
+     * Writes the index of {@code release} in a {@code ct.sym}, or of an {@code rt.jar}
+     */
+    static void write(File source, int release, OutputStream output) throws IOException {
+        // Releases are listed as one digit each, 10 is 'A'
+        var tag = Character.toUpperCase(Character.forDigit(release, 36));
+        var classes = new TreeMap<String, ClassInfo>();
+        try (var zip = new ZipFile(source)) {
+            for (var entry : Jvm8Converter.II.of(zip.entries().asIterator())) {
+                var name = entry.getName();
+                if (name.endsWith(".sig")) {
+                    // <releases>/<module>/<class>.sig
+                    var releases = name.indexOf('/');
+                    if (releases == -1 || name.lastIndexOf(tag, releases) == -1) continue;
+                } else if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+                    continue;
+                }
+                try (var res = zip.getInputStream(entry)) {
+                    read(res, classes);
+                }
+            }
+        }
+        write(classes, output);
+    }
+
+    /**
+     * Writes the index of the packages exported by the modules of the running JDK
+     */
+    static void writeRuntime(OutputStream output) throws IOException {
+        var classes = new TreeMap<String, ClassInfo>();
+        var jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        for (var module : ModuleLayer.boot().modules()) {
+            for (var exports : module.getDescriptor().exports()) {
+                if (exports.isQualified()) continue;
+                var dir = jrt.getPath("modules", module.getName(), exports.source().replace('.', '/'));
+                if (!Files.isDirectory(dir)) continue;
+                try (var files = Files.list(dir)) {
+                    for (var file : Jvm8Converter.II.of(files.iterator())) {
+                        if (!file.toString().endsWith(".class")) continue;
+                        try (var res = Files.newInputStream(file)) {
+                            read(res, classes);
+                        }
+                    }
+                }
+            }
+        }
+        write(classes, output);
+    }
+
+    private static void read(InputStream res, Map<String, ClassInfo> classes) throws IOException {
+        var info = new ClassInfo();
+        new ClassReader(res).accept(new ClassVisitor(Jvm8Converter.ASMV) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                info.name = name;
+                info.superName = superName;
+                info.interfaces = interfaces == null ? new String[0] : interfaces;
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+                if ((access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0) {
+                    info.members.add(name + ' ' + descriptor);
+                }
+                return null;
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                if ((access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0) {
+                    info.members.add(name + descriptor);
+                }
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        classes.put(info.name, info);
+    }
+
+    private static void write(TreeMap<String, ClassInfo> classes, OutputStream output) throws IOException {
+        var names = new ArrayList<>(classes.keySet());
+        var classIndexes = new HashMap<String, Integer>();
+        for (var i = 0; i < names.size(); i++) {
+            classIndexes.put(names.get(i), i);
+        }
+        var stringTable = new TreeMap<String, Integer>();
+        var memberCount = 0;
+        for (var info : classes.values()) {
+            stringTable.put(info.name, 0);
+            for (var member : info.members) {
+                stringTable.put(member, 0);
+                memberCount++;
+            }
+        }
+        var stringBytes = new ByteArrayOutputStream();
+        var stringData = new DataOutputStream(stringBytes);
+        for (var string : stringTable.entrySet()) {
+            string.setValue(stringBytes.size());
+            var bytes = string.getKey().getBytes(StandardCharsets.UTF_8);
+            stringData.writeShort(bytes.length);
+            stringData.write(bytes);
+        }
+
+        var classSlots = new int[slots(classes.size())];
+        var memberSlots = new int[slots(memberCount)];
+        var classTable = new int[classes.size() * 5];
+        var memberTable = new int[memberCount * 2];
+        var interfaceTable = new ArrayList<Integer>();
+        var member = 0;
+        for (var klass = 0; klass < names.size(); klass++) {
+            var info = classes.get(names.get(klass));
+            classTable[klass * 5] = stringTable.get(info.name);
+            classTable[klass * 5 + 1] = info.superName == null ? -1 : classIndexes.getOrDefault(info.superName, -1);
+            classTable[klass * 5 + 2] = interfaceTable.size();
+            var itfs = Arrays.stream(info.interfaces).filter(classIndexes::containsKey).toArray(String[]::new);
+            interfaceTable.add(itfs.length);
+            for (var itf : itfs) {
+                interfaceTable.add(classIndexes.get(itf));
+            }
+            classTable[klass * 5 + 3] = member;
+            classTable[klass * 5 + 4] = info.members.size();
+            put(classSlots, hash(info.name.getBytes(StandardCharsets.UTF_8)), klass);
+
+            for (var signature : info.members) {
+                memberTable[member * 2] = klass;
+                memberTable[member * 2 + 1] = stringTable.get(signature);
+                put(memberSlots, hash(signature.getBytes(StandardCharsets.UTF_8)) ^ klass * 0x9E3779B9, member);
+                member++;
+            }
+        }
+
+        var data = new DataOutputStream(new BufferedOutputStream(output));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(classes.size());
+        data.writeInt(memberCount);
+        data.writeInt(classSlots.length);
+        data.writeInt(memberSlots.length);
+        data.writeInt(interfaceTable.size());
+        data.writeInt(stringBytes.size());
+        for (var table : new int[][]{classTable, memberTable, classSlots, memberSlots}) {
+            for (var value : table) {
+                data.writeInt(value);
+            }
+        }
+        for (var value : interfaceTable) {
+            data.writeInt(value);
+        }
+        stringBytes.writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * A power of two keeping the load factor at most 0.5
+     */
+    private static int slots(int entries) {
+        return Integer.highestOneBit(Math.max(entries, 1)) << 2;
+    }
+
+    private static void put(int[] slots, int hash, int entry) {
+        var mask = slots.length - 1;
+        var slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args.length > 2) {
+            System.out.println("Usage: JdkApi [rt.jar or ct.sym] <output>");
+            return;
+        }
+        var source = args.length == 2 && !args[0].isEmpty()
+                ? new File(args[0])
+                : new File(System.getProperty("java.home"), "lib/ct.sym");
+        var output = new File(args[args.length - 1]);
+        var parent = output.getParentFile();
+        if (parent != null) parent.mkdirs();
+        try (var out = new FileOutputStream(output)) {
+            write(source, out);
+        }
+        System.out.println("[JdkApi] " + source + " -> " + output + ", " + output.length() + " bytes");
+    }
+}
@@ -10,515 +10,431 @@ import java.lang.invoke.*;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 public class Jvm8Converter {
     public static final int ASMV = Opcodes.ASM9;
+    static final String VERSIONS_PREFIX = "META-INF/versions/";
     /**
-     * Redirect newer jdk methods
+     * The newest release whose constructs are lowered, newer multi-release variants aren't converted
      */
-    public static boolean redirectNewMethods = true;
+    static final int MAX_RELEASE = 21;
 
     public static void main(String[] args) throws Exception {
         var out = new File("build/dump/tester-1.2.3.jar");
-        run(
+        var stages = new Converter().convert(
                 new File("tester/build/libs/tester-1.2.3.jar"),
                 out
         );
+        for (var stage : stages.stages()) {
+            System.out.println("[Stages] " + stage);
+        }
         var loader = new URLClassLoader(new URL[]{out.toURI().toURL()});
         loader.loadClass("twunit.Tester")
                 .getMethod("main", String[].class)
                 .invoke(null, (Object) args);
     }
 
+    /**
+     * Converts with the default configuration, see {@link Converter}
+     */
     public static void run(File src, File output) throws Exception {
+        new Converter().convert(src, output);
+    }
+
+    static Stages convert(Converter converter, File src, File output) throws Exception {
+        var shrink = converter.shrink();
+        var version = classVersion(converter.target());
+        if (converter.target() > 8 && JdkApi.shared(converter.target()) == null) {
+            // Everything would be bridged and nothing reported missing
+            throw new IOException("No signatures of JDK " + converter.target() + " in " + System.getProperty("java.home"));
+        }
         {
             var p = output.getParentFile();
             if (p != null) p.mkdirs();
         }
-        var source = new ZipFile(src);
-        var zipOut = new ZipOutputStream(new BufferedOutputStream(new RAFOutputStream(new RandomAccessFile(output, "rw"))));
-
-        var pendingTransferClasses = new ArrayList<ZipEntry>(source.size());
-        var resourceEntries = new ArrayList<ZipEntry>(source.size());
-        for (var entry : II.of(source.entries().asIterator())) {
-            if (!entry.getName().endsWith(".class") || entry.getName().startsWith("META-INF/")) {
-                resourceEntries.add(entry);
-                continue;
-            }
-            var res = source.getInputStream(entry);
-            var reader = new ClassReader(res);
-            res.close();
-            var classVisitor = new ClassVisitor(ASMV) {
-                int version;
-
-                @Override
-                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
-                    this.version = version;
-                }
-            };
-            reader.accept(classVisitor, 0);
-            if (classVisitor.version > Opcodes.V1_8) {
-                pendingTransferClasses.add(entry);
-            } else {
-                resourceEntries.add(entry);
-            }
-        }
-
-        System.out.println("Coping resources.....");
-
-        for (var entry : resourceEntries) {
-            zipOut.putNextEntry(entry);
-            if (!entry.isDirectory()) {
-                var res = source.getInputStream(entry);
-                res.transferTo(zipOut);
-                res.close();
-            }
-        }
-        if (!pendingTransferClasses.isEmpty()) {
-            var classes = new ArrayList<ClassNode>(pendingTransferClasses.size());
-            for (var entry : pendingTransferClasses) {
-                var node = new ClassNode();
-                var rs = source.getInputStream(entry);
-                new ClassReader(rs).accept(node, 0);
-                rs.close();
-                classes.add(node);
-            }
-
-            // Analyze accesses
-
-            class SharedMethod {
-                ClassNode declaredClass;
-                MethodNode declaredMethod;
-                boolean isStatic;
-                String desc;
-                String accessorName;
-                String redirectedClassName;
-            }
-            class SharedField {
-                ClassNode declaredClass;
-                FieldNode declaredField;
-                boolean isStatic;
-                String getAccessName;
-                String setAccessName;
-                boolean hasGetAccess;
-                boolean hasSetAccess;
-            }
-
-            var methods = new ArrayList<SharedMethod>(1024);
-            var fields = new ArrayList<SharedField>(1024);
-            var hasStringFactoryCall = false;
-
-            var toolkit = new Object() {
-
-                SharedMethod methodF(String targetClass, String targetMethod, String targetMethodDesc, boolean isStatic) {
-                    for (var met : methods) {
-                        if (met.isStatic != isStatic) continue;
-                        if (!met.declaredClass.name.equals(targetClass)) continue;
-                        if (!met.declaredMethod.name.equals(targetMethod)) continue;
-                        if (!met.desc.equals(targetMethodDesc)) continue;
-                        return met;
+        var stages = new Stages();
+        try (var source = new ZipFile(src);
+             var zipOut = new ZipOutputStream(new BufferedOutputStream(new RAFOutputStream(new RandomAccessFile(output, "rw"))))
+        ) {
+            var multiRelease = converter.multiRelease();
+            var layout = new JarLayout(zipOut, output.getName(), converter.loadOrder(), converter.jarIndex(), multiRelease);
+            var entries = Collections.list(source.entries());
+            // Without the manifest attribute META-INF/versions/ holds plain resources
+            var multiReleaseJar = isMultiRelease(source);
+            var multiReleaseVariants = multiReleaseJar && converter.flattenMultiRelease() ? selectMultiReleaseVariants(entries, MAX_RELEASE) : null;
+            // Classes which keep their own variants, their originals aren't added
+            var versioned = multiReleaseJar && multiRelease && multiReleaseVariants == null ? selectMultiReleaseVariants(entries, Integer.MAX_VALUE).keySet() : Set.<String>of();
+            // Base name -> original bytes of the converted classes for META-INF/versions/N/
+            var originals = new ArrayList<Kit.Pair<String, byte[]>>();
+
+            // read -> classify -> (all classes) transform -> encode -> write
+            // Resources go from classify to write directly, they are written while classes are parsed
+            var read = stages.stage("read", 0);
+            var classify = stages.stage("classify", 64);
+            var transform = stages.stage("transform", 0);
+            var encode = stages.stage("encode", 64);
+            var write = stages.stage("write", 256);
+            var classes = new ArrayList<ClassNode>();
+
+            stages.start(read, stage -> {
+                for (var entry : entries) {
+                    if (multiReleaseVariants != null && entry.getName().endsWith(".class")) {
+                        var baseName = multiReleaseBaseName(entry.getName());
+                        ZipEntry selected = baseName == null ? null : multiReleaseVariants.get(baseName);
+                        // The other variants are dropped, also those too new to be selected
+                        if (selected != null ? selected != entry : baseName != null && entry.getName().startsWith(VERSIONS_PREFIX)) continue;
                     }
-                    return null;
-                }
-
-                @SuppressWarnings("UnusedReturnValue")
-                SharedMethod method(String targetClass, String targetMethod, String targetMethodDesc, boolean isStatic) {
-                    var f = methodF(targetClass, targetMethod, targetMethodDesc, isStatic);
-                    if (f != null) return f;
-                    for (var klass : classes) {
-                        if (!klass.name.equals(targetClass)) continue;
-                        if (klass.methods == null) continue;
-                        for (var method : klass.methods) {
-                            if (((method.access & Opcodes.ACC_STATIC) == 0) == isStatic) continue;
-                            if (!method.name.equals(targetMethod)) continue;
-                            if (!method.desc.equals(targetMethodDesc)) continue;
-                            var met = new SharedMethod();
-                            met.declaredMethod = method;
-                            met.declaredClass = klass;
-                            met.isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
-                            met.desc = method.desc;
-                            methods.add(met);
-                            return met;
+                    byte[] bytes = null;
+                    if (!entry.isDirectory()) {
+                        try (var res = source.getInputStream(entry)) {
+                            bytes = res.readAllBytes();
                         }
                     }
-                    return null;
+                    stage.emit(classify, new Kit.Pair<>(entry, bytes), bytes == null ? 0 : bytes.length);
                 }
-
-                SharedField fieldF(String targetClass, String targetField, String targetFieldDesc, boolean isStatic) {
-                    for (var fie : fields) {
-                        if (fie.isStatic != isStatic) continue;
-                        if (!fie.declaredClass.name.equals(targetClass)) continue;
-                        if (!fie.declaredField.name.equals(targetField)) continue;
-                        if (!fie.declaredField.desc.equals(targetFieldDesc)) continue;
-                        return fie;
+                stage.end(classify);
+            });
+            stages.start(classify, stage -> {
+                Kit.Pair<ZipEntry, byte[]> item;
+                while ((item = stage.take()) != null) {
+                    var entry = item.k;
+                    var name = entry.getName();
+                    var bytes = item.v;
+                    if (bytes == null) {
+                        stage.emit(write, item, 0);
+                        continue;
                     }
-                    return null;
-                }
-
-                @SuppressWarnings("UnusedReturnValue")
-                SharedField field(String targetClass, String targetField, String targetFieldDesc, boolean isStatic) {
-                    var f = fieldF(targetClass, targetField, targetFieldDesc, isStatic);
-                    if (f != null) return f;
-                    for (var klass : classes) {
-                        if (!klass.name.equals(targetClass)) continue;
-                        if (klass.fields == null) continue;
-                        for (var field : klass.fields) {
-                            if (((field.access & Opcodes.ACC_STATIC) == 0) == isStatic) continue;
-                            if (!field.name.equals(targetField)) continue;
-                            if (!field.desc.equals(targetFieldDesc)) continue;
-                            var fie = new SharedField();
-                            fie.declaredField = field;
-                            fie.declaredClass = klass;
-                            fie.isStatic = (field.access & Opcodes.ACC_STATIC) != 0;
-                            fields.add(fie);
-                            return fie;
+                    if (multiReleaseVariants != null && name.endsWith(".class") && multiReleaseVariants.get(multiReleaseBaseName(name)) == entry) {
+                        // Converted and written back under the base name
+                        var node = new ClassNode();
+                        var reader = new ClassReader(bytes);
+                        reader.accept(node, 0);
+                        classes.add(node);
+                        if (multiRelease && reader.readUnsignedShort(6) > version) {
+                            originals.add(new Kit.Pair<>(multiReleaseBaseName(name), bytes));
                         }
+                        continue;
                     }
-                    return null;
-                }
-            };
-
-            for (var klass : classes) {
-                if (klass.methods == null) continue;
-                for (var method : klass.methods) {
-                    if (method.instructions == null) continue;
-                    for (var insn : method.instructions) {
-                        if (insn instanceof MethodInsnNode) {
-                            var min = (MethodInsnNode) insn;
-                            if (
-                                    (klass.access & Opcodes.ACC_INTERFACE) == 0
-                                            && min.owner.equals(klass.name)
-                            ) continue;
-                            toolkit.method(min.owner, min.name, min.desc, min.getOpcode() == Opcodes.INVOKESTATIC);
-                        } else if (insn instanceof FieldInsnNode) {
-                            var fin = (FieldInsnNode) insn;
-                            if (fin.owner.equals(klass.name)) continue;
-                            var opcode = fin.getOpcode();
-                            var field = toolkit.field(fin.owner, fin.name, fin.desc, opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC);
-                            if (field == null) continue;
-                            field.hasGetAccess |= (opcode == Opcodes.GETSTATIC || opcode == Opcodes.GETFIELD);
-                            field.hasSetAccess |= (opcode == Opcodes.PUTSTATIC || opcode == Opcodes.PUTFIELD);
-                        } else if (insn instanceof InvokeDynamicInsnNode) {
-                            var bsm = ((InvokeDynamicInsnNode) insn).bsm;
-                            if (bsm.getOwner().equals("java/lang/invoke/StringConcatFactory")) {
-                                hasStringFactoryCall = true;
-                            }
-                        }
+                    if (multiReleaseVariants != null && name.equals(JarFile.MANIFEST_NAME)) {
+                        // Nothing version specific is left, JDK 9+ must not look for it
+                        var manifest = new Manifest(new ByteArrayInputStream(bytes));
+                        manifest.getMainAttributes().remove(new Attributes.Name("Multi-Release"));
+                        var out = new ByteArrayOutputStream();
+                        manifest.write(out);
+                        bytes = out.toByteArray();
+                        stage.emit(write, new Kit.Pair<>(new ZipEntry(name), bytes), bytes.length);
+                        continue;
                     }
-                }
-            }
-
-            // Drop non-private calls
-            methods.removeIf(method -> (method.declaredMethod.access & Opcodes.ACC_PRIVATE) == 0);
-            fields.removeIf(field -> (field.declaredField.access & Opcodes.ACC_PRIVATE) == 0);
-
-            // gen accessors
-            var counter = 0;
-            for (var field : fields) {
-                var klass = field.declaredClass;
-                var type = Type.getType(field.declaredField.desc);
-                if (field.hasGetAccess) {
-                    var name = "accessor$" + counter++;
-                    field.getAccessName = name;
-                    var accessor = klass.visitMethod(
-                            (field.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
-                            name, "()" + field.declaredField.desc,
-                            null, null
-                    );
-                    if (!field.isStatic) {
-                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
+                    if (!name.endsWith(".class") || name.startsWith("META-INF/")) {
+                        stage.emit(write, item, bytes.length);
+                        continue;
                     }
-                    accessor.visitFieldInsn(
-                            field.isStatic ? Opcodes.GETSTATIC : Opcodes.GETFIELD,
-                            field.declaredClass.name,
-                            field.declaredField.name,
-                            field.declaredField.desc
-                    );
-                    accessor.visitInsn(type.getOpcode(Opcodes.IRETURN));
-                    if (field.isStatic) {
-                        accessor.visitMaxs(type.getSize() + 1, type.getSize());
+                    var reader = new ClassReader(bytes);
+                    if (reader.readUnsignedShort(6) > version) {
+                        var node = new ClassNode();
+                        reader.accept(node, 0);
+                        classes.add(node);
+                        if (multiRelease && !versioned.contains(name)) originals.add(new Kit.Pair<>(name, bytes));
+                    } else if (!shrink.isEmpty()) {
+                        var writer = new ClassWriter(0);
+                        reader.accept(Shrinker.strip(writer, shrink), 0);
+                        bytes = writer.toByteArray();
+                        stage.emit(write, new Kit.Pair<>(new ZipEntry(name), bytes), bytes.length);
                     } else {
-                        accessor.visitMaxs(type.getSize() + 2, type.getSize() + 1);
+                        stage.emit(write, item, bytes.length);
                     }
                 }
-                if (field.hasSetAccess) {
-                    var name = "accessor$" + counter++;
-                    field.setAccessName = name;
-                    var accessor = klass.visitMethod(
-                            (field.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
-                            name, "(" + field.declaredField.desc + ")V",
-                            null, null
-                    );
-                    if (!field.isStatic) {
-                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
-                    }
-                    accessor.visitVarInsn(
-                            type.getOpcode(Opcodes.ILOAD),
-                            field.isStatic ? 0 : 1
-                    );
-                    accessor.visitFieldInsn(
-                            field.isStatic ? Opcodes.PUTSTATIC : Opcodes.PUTFIELD,
-                            field.declaredClass.name,
-                            field.declaredField.name,
-                            field.declaredField.desc
-                    );
-                    accessor.visitInsn(Opcodes.RETURN);
-                    if (field.isStatic) {
-                        accessor.visitMaxs(type.getSize() + 1, type.getSize());
-                    } else {
-                        accessor.visitMaxs(type.getSize() + 2, type.getSize() + 1);
-                    }
+            });
+            stages.start(encode, stage -> {
+                ClassNode klass;
+                while ((klass = stage.take()) != null) {
+                    var writer = new ClassWriter(0);
+                    klass.accept(Shrinker.strip(writer, shrink));
+                    var bytes = writer.toByteArray();
+                    stage.emit(write, new Kit.Pair<>(new ZipEntry(klass.name + ".class"), bytes), bytes.length);
                 }
-            }
-            {
-                class ItfPair {
-                    ClassNode node;
-                    List<SharedMethod> methods;
+                stage.end(write);
+            });
+            stages.start(write, stage -> {
+                Kit.Pair<ZipEntry, byte[]> item;
+                while ((item = stage.take()) != null) {
+                    var bytes = item.v;
+                    if (bytes != null) stage.bytes += bytes.length;
+                    layout.add(item.k, bytes == null ? out -> {
+                    } : out -> out.write(bytes));
                 }
-                var itfs = new ArrayList<ItfPair>(classes.size() / 3);
-                for (var method : methods) {
-                    // private interface call
-                    var cln = method.declaredClass;
-                    if ((cln.access & Opcodes.ACC_INTERFACE) == 0) continue;
-                    ItfPair pair = null;
-                    for (var p0 : itfs) {
-                        if (p0.node == cln) {
-                            pair = p0;
-                            break;
-                        }
-                    }
-                    if (pair == null) {
-                        pair = new ItfPair();
-                        pair.node = cln;
-                        pair.methods = new ArrayList<>(cln.methods.size());
-                        itfs.add(pair);
+            });
+            try {
+                stages.run(transform, stage -> {
+                    // The access analysis needs every class
+                    stages.await(classify, stage);
+                    if (!originals.isEmpty()) {
+                        writeOriginals(originals, stage, write);
                     }
-                    pair.methods.add(method);
-                }
-                for (var itf : itfs) {
-                    var bridge = new ClassNode();
-                    bridge.visit(Opcodes.V1_8,
-                            Opcodes.ACC_FINAL,
-                            itf.node.name + "$Bridge$" + counter++,
-                            null, "java/lang/Object", null
-                    );
-                    classes.add(bridge);
-                    bridge.sourceDebug = itf.node.sourceDebug;
-                    bridge.sourceFile = itf.node.sourceFile;
-                    for (var met : itf.methods) {
-                        var m = met.declaredMethod;
-                        itf.node.methods.remove(m);
-                        bridge.methods.add(m);
-                        m.access &= ~Opcodes.ACC_PRIVATE;
-                        m.access |= Opcodes.ACC_STATIC;
-                        m.desc = "(L" + itf.node.name + ";" + m.desc.substring(1);
-                        met.redirectedClassName = bridge.name;
-                        met.accessorName = m.desc;
+                    if (!classes.isEmpty()) {
+                        transform(converter, classes, klass -> stage.emit(encode, klass, 0));
                     }
-                }
+                    stage.end(encode);
+                });
+            } catch (Throwable e) {
+                stages.fail(e);
             }
-            for (var method : methods) {
-                if (method.accessorName != null) continue;
-                if (method.declaredMethod.name.equals("<init>")) {
-                    // java.lang.SuppressWarnings;
-                    // )V
-                    var desc = method.declaredMethod.desc;
-                    desc = desc.substring(0, desc.length() - 2) + "Ljava/lang/SuppressWarnings;)V";
-                    method.accessorName = desc;
-                    var classNode = method.declaredClass;
-                    var accessor = classNode.visitMethod(
-                            Opcodes.ACC_SYNTHETIC,
-                            "<init>",
-                            desc, null, null
-                    );
-                    accessor.visitVarInsn(Opcodes.ALOAD, 0);
-                    var slot = 1;
-                    for (var t : Type.getArgumentTypes(method.declaredMethod.desc)) {
-                        accessor.visitVarInsn(t.getOpcode(Opcodes.ILOAD), slot);
-                        slot += t.getSize();
-                    }
-                    accessor.visitMethodInsn(
-                            Opcodes.INVOKESPECIAL,
-                            method.declaredClass.name,
-                            "<init>",
-                            method.declaredMethod.desc,
-                            false
-                    );
-                    accessor.visitInsn(Opcodes.RETURN);
-                    slot++;
-                    accessor.visitMaxs(slot, slot);
+            stages.join();
+            layout.finish();
+        }
+        return stages;
+    }
 
-                } else {
-                    var name = "accessor$" + counter++;
-                    method.accessorName = name;
-                    var classNode = method.declaredClass;
-                    var desc = method.declaredMethod.desc;
-                    var accessor = classNode.visitMethod(
-                            (method.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
-                            name,
-                            desc,
-                            null, null
-                    );
-                    int slot = 0;
-                    if (!method.isStatic) {
-                        slot++;
-                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
-                    }
-                    for (var t : Type.getArgumentTypes(desc)) {
-                        accessor.visitVarInsn(t.getOpcode(Opcodes.ILOAD), slot);
-                        slot += t.getSize();
-                    }
+    /**
+     * Puts the originals of the converted classes into one {@code META-INF/versions/N/}, {@code N} the
+     * newest release among them. With one layer for all of them a JDK runs either only converted
+     * or only original classes, a converted class may call an accessor its original nestmate lacks.
+     */
+    static void writeOriginals(List<Kit.Pair<String, byte[]>> originals, Stages.Stage stage, Stages.Stage write) throws InterruptedException {
+        var release = 9;
+        for (var original : originals) {
+            var major = (original.v[6] & 0xFF) << 8 | original.v[7] & 0xFF;
+            release = Math.max(release, major - Opcodes.V1_8 + 8);
+        }
+        var prefix = VERSIONS_PREFIX + release + '/';
+        for (var original : originals) {
+            stage.emit(write, new Kit.Pair<>(new ZipEntry(prefix + original.k), original.v), original.v.length);
+        }
+        System.out.println("[MultiRelease] " + originals.size() + " original classes in " + prefix);
+    }
 
-                    accessor.visitMethodInsn(
-                            method.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL,
-                            method.declaredClass.name,
-                            method.declaredMethod.name,
-                            method.declaredMethod.desc,
-                            false
-                    );
+    /**
+     * Converts the classes of a jar, {@code done} gets each class once it is converted
+     */
+    static void transform(Converter converter, ArrayList<ClassNode> classes, TransformPipeline.ClassHandler done) throws Exception {
+        var target = converter.target();
+        var version = classVersion(target);
+        // Lower constructs without a runtime in the target
+        var lowered = new ArrayList<ClassNode>();
+        for (var i = 0; i < classes.size(); i++) {
+            var klass = classes.get(i);
+            if (target < 16) RecordLowering.lower(klass);
+            if (target < 21) classes.set(i, klass = SwitchLowering.lower(klass));
+            if (target < 11) CondyLowering.lower(klass, lowered);
+            if (converter.spinLambdas()) {
+                LambdaSpinner.spin(klass, lowered);
+            }
+        }
+        classes.addAll(lowered);
 
-                    accessor.visitInsn(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN));
+        var lowerConcat = target < 9;
+        var hasStringFactoryCall = lowerConcat && usesStringConcat(classes);
+        var access = NestAccess.analyze(classes, version);
 
-                    slot++;
-                    accessor.visitMaxs(slot, slot);
-                }
+        String stringFactoryName = null;
+        String pkg;
+        {
+            var pkgedClasses = classes.stream().filter(it -> it.name.indexOf('/') != -1)
+                    .toArray(ClassNode[]::new);
+            pkg = pkgedClasses.length == 0
+                    ? "stasdcj/"
+                    : Optional.of(pkgedClasses[Math.abs(new Random().nextInt()) % pkgedClasses.length])
+                    .map(it -> it.name.substring(0, it.name.lastIndexOf('/') + 1)).get();
+            pkg += UUID.randomUUID() + "/";
+        }
+        var ngener = new Kit.NameGenerator(() -> UUID.randomUUID().toString());
+        if (target < 9) VarHandleLowering.lower(classes, pkg + ngener.get());
+        var pipeline = new TransformPipeline(classes, pkg, ngener);
+        var telemetry = converter.telemetry() ? pkg + ngener.get() : null;
+        if (converter.redirectNewMethods()) {
+            // The injected bridges may concat strings too
+            hasStringFactoryCall |= MethodBridgeMap.inject(pipeline, converter.spinLambdas(), telemetry, target) && lowerConcat;
+        }
+        // The telemetry times the concat bootstraps, only spin them without it
+        if (converter.spinLambdas() && lowerConcat && telemetry == null) {
+            for (var klass : classes) {
+                LambdaSpinner.spinConcat(klass);
             }
-
-            String stringFactoryName = null;
-            String pkg;
-            {
-                var pkgedClasses = classes.stream().filter(it -> it.name.indexOf('/') != -1)
-                        .toArray(ClassNode[]::new);
-                pkg = pkgedClasses.length == 0
-                        ? "stasdcj/"
-                        : Optional.of(pkgedClasses[Math.abs(new Random().nextInt()) % pkgedClasses.length])
-                        .map(it -> it.name.substring(0, it.name.lastIndexOf('/') + 1)).get();
-                pkg += UUID.randomUUID() + "/";
+            hasStringFactoryCall = false;
+        }
+        var cfs = List.of(StringCF.class, StringCCF.class, JInvokeCF.class);
+        var mappings = new HashMap<String, String>();
+        for (var klass : cfs) {
+            mappings.put(klass.getName().replace('.', '/'), pkg + ngener.get());
+        }
+        var runtime = new ArrayList<Class<?>>();
+        if (telemetry != null) {
+            // The telemetry concats strings too
+            hasStringFactoryCall = lowerConcat;
+            for (var klass : List.of(Telemetry.class, TelemetryMXBean.class, Telemetry.Dump.class)) {
+                mappings.put(klass.getName().replace('.', '/'), klass == Telemetry.class ? telemetry : pkg + ngener.get());
+                runtime.add(klass);
             }
-            var ngener = new Kit.NameGenerator(() -> UUID.randomUUID().toString());
-            if (hasStringFactoryCall) {
-                var cfs = List.of(StringCF.class, StringCCF.class, JInvokeCF.class);
-                var mappings = new HashMap<String, String>();
-                for (var klass : cfs) {
-                    mappings.put(klass.getName().replace('.', '/'), pkg + ngener.get());
-                }
-                var remapper = new SimpleRemapper(mappings);
-                for (var klass : cfs) {
-                    var node = new ClassNode();
-                    new ClassReader(klass.getName())
-                            .accept(new ClassRemapper(node, remapper), 0);
-                    if (klass == StringCCF.class) {
-                        stringFactoryName = node.name;
-                    }
-                    classes.add(node);
-                    node.innerClasses.clear();
+        }
+        if (hasStringFactoryCall) runtime.addAll(cfs);
+        {
+            var remapper = new SimpleRemapper(mappings);
+            for (var klass : runtime) {
+                var node = new ClassNode();
+                new ClassReader(klass.getName())
+                        .accept(new ClassRemapper(node, remapper), 0);
+                if (klass == StringCCF.class) {
+                    stringFactoryName = node.name;
                 }
-
-            }
-            if (redirectNewMethods) {
-                MethodBridgeMap.inject(classes, pkg, ngener);
+                classes.add(node);
+                node.innerClasses.clear();
             }
-            // replace calls
-            for (var klass : classes) {
-                klass.version = Opcodes.V1_8;
-                klass.module = null;
+
+        }
+        pipeline.onClass(klass -> {
+            // The preview minor version goes too
+            if ((klass.version & 0xFFFF) > version) klass.version = version;
+            if (klass.version < Opcodes.V9) klass.module = null;
+            if (klass.version < Opcodes.V11) {
                 klass.nestHostClass = null;
                 klass.nestMembers = null;
-                klass.permittedSubclasses = null;
-
-                if (klass.methods == null) continue;
-                for (var method : klass.methods) {
-                    if (method.instructions == null) continue;
-                    var insnIterator = method.instructions.iterator();
-                    var omittedExpand = false;
-                    for (var insn : II.of(insnIterator)) {
-                        if (insn instanceof MethodInsnNode) {
-                            var min = (MethodInsnNode) insn;
-                            var met = toolkit.methodF(min.owner, min.name, min.desc, min.getOpcode() == Opcodes.INVOKESTATIC);
-                            if (met == null) continue;
-                            if (met.redirectedClassName == null && min.owner.equals(klass.name)) continue;
-                            if (min.name.equals("<init>")) {
-                                if (met.accessorName != null) {
-                                    min.desc = met.accessorName;
-                                    insnIterator.previous();
-                                    insnIterator.add(new InsnNode(Opcodes.ACONST_NULL));
-                                    insnIterator.next();
-                                    omittedExpand = true;
-                                }
-                            } else if (met.accessorName != null) {
-                                min.name = met.accessorName;
-                                if (met.redirectedClassName != null) {
-                                    min.owner = met.redirectedClassName;
-                                    min.desc = met.accessorName;
-                                    min.name = met.declaredMethod.name;
-                                    min.setOpcode(Opcodes.INVOKESTATIC);
-                                    min.itf = false;
-                                }
-                            }
-                        } else if (insn instanceof FieldInsnNode) {
-                            var fin = (FieldInsnNode) insn;
-                            if (fin.owner.equals(klass.name)) continue;
-                            var opcode = fin.getOpcode();
-                            var field = toolkit.field(fin.owner, fin.name, fin.desc, opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC);
-                            if (field == null) continue;
-                            if (opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC) {
-                                var getAccessName = field.getAccessName;
-                                insnIterator.set(new MethodInsnNode(
-                                        field.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKEVIRTUAL,
-                                        fin.owner,
-                                        getAccessName,
-                                        "()" + fin.desc,
-                                        false
-                                ));
-                            } else {
-                                var setAccessName = field.setAccessName;
-                                insnIterator.set(new MethodInsnNode(
-                                        field.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKEVIRTUAL,
-                                        fin.owner,
-                                        setAccessName,
-                                        "(" + fin.desc + ")V",
-                                        false
-                                ));
-                            }
-                        } else if (insn instanceof InvokeDynamicInsnNode) {
-                            var idn = ((InvokeDynamicInsnNode) insn);
-                            var bsm = idn.bsm;
-                            if (bsm.getOwner().equals("java/lang/invoke/StringConcatFactory")) {
-                                insnIterator.set(new InvokeDynamicInsnNode(
-                                        idn.name,
-                                        idn.desc,
-                                        new Handle(
-                                                bsm.getTag(),
-                                                stringFactoryName,
-                                                bsm.getName(),
-                                                bsm.getDesc(),
-                                                bsm.isInterface()
-                                        ),
-                                        idn.bsmArgs
-                                ));
-                            }
-                        }
-                    }
+            }
+            if (klass.version < Opcodes.V17) klass.permittedSubclasses = null;
+        });
+        access.register(pipeline);
+        // Timed by the telemetry, which calls StringCCF
+        var concatFactory = telemetry != null ? telemetry : stringFactoryName;
+        if (lowerConcat) pipeline.on(Opcodes.INVOKEDYNAMIC, cursor -> {
+            var idn = ((InvokeDynamicInsnNode) cursor.insn);
+            var bsm = idn.bsm;
+            if (bsm.getOwner().equals("java/lang/invoke/StringConcatFactory")) {
+                cursor.replace(new InvokeDynamicInsnNode(
+                        idn.name,
+                        idn.desc,
+                        new Handle(
+                                bsm.getTag(),
+                                concatFactory,
+                                bsm.getName(),
+                                bsm.getDesc(),
+                                bsm.isInterface()
+                        ),
+                        idn.bsmArgs
+                ));
+            }
+        });
+        for (var pass : ServiceLoader.load(ConversionPass.class)) {
+            pass.register(pipeline);
+        }
+        var missingApis = collectMissingApis(pipeline, target);
+        pipeline.run(done);
+        for (var missing : missingApis.entrySet()) {
+            for (var member : missing.getValue()) {
+                System.out.println("[JdkApi] " + missing.getKey() + " uses " + member + ", missing in JDK " + target);
+            }
+        }
+    }
 
-                    if (omittedExpand) {
-                        method.maxStack++;
+    static boolean usesStringConcat(List<ClassNode> classes) {
+        for (var klass : classes) {
+            if (klass.methods == null) continue;
+            for (var method : klass.methods) {
+                if (method.instructions == null) continue;
+                for (var insn : method.instructions) {
+                    if (insn instanceof InvokeDynamicInsnNode
+                            && ((InvokeDynamicInsnNode) insn).bsm.getOwner().equals("java/lang/invoke/StringConcatFactory")) {
+                        return true;
                     }
                 }
             }
-            // write
-            for (var klass : classes) {
-                ClassWriter writer = new ClassWriter(0);
-                klass.accept(writer);
-                zipOut.putNextEntry(new ZipEntry(klass.name + ".class"));
-                zipOut.write(writer.toByteArray());
-                //klass.accept(new TraceClassVisitor(null, new Textifier(), new PrintWriter(System.out)));
+        }
+        return false;
+    }
+
+    /**
+     * Collects the JDK members still used by the converted classes which the target doesn't have.
+     * The runtime injected into the runtime package is skipped, it only uses them behind checks.
+     *
+     * @return class name to its missing members, filled by the pipeline
+     */
+    static Map<String, Set<String>> collectMissingApis(TransformPipeline pipeline, int target) throws IOException {
+        var missing = new TreeMap<String, Set<String>>();
+        var api = JdkApi.shared(target);
+        if (api == null) return missing;
+        var pkg = pipeline.runtimePackage();
+        pipeline.onMethodInsn(cursor -> {
+            if (cursor.klass.name.startsWith(pkg)) return;
+            var min = (MethodInsnNode) cursor.insn;
+            if (api.isPlatformPackage(min.owner) && !api.hasMethod(min.owner, min.name, min.desc)) {
+                missing.computeIfAbsent(cursor.klass.name, k -> new TreeSet<>()).add(min.owner + '.' + min.name + min.desc);
+            }
+        });
+        pipeline.onFieldInsn(cursor -> {
+            if (cursor.klass.name.startsWith(pkg)) return;
+            var fin = (FieldInsnNode) cursor.insn;
+            if (api.isPlatformPackage(fin.owner) && !api.hasField(fin.owner, fin.name, fin.desc)) {
+                missing.computeIfAbsent(cursor.klass.name, k -> new TreeSet<>()).add(fin.owner + '.' + fin.name + ' ' + fin.desc);
             }
+        });
+        return missing;
+    }
+
+    /**
+     * @return the class file version of a Java release
+     */
+    static int classVersion(int release) {
+        return Opcodes.V1_8 + release - 8;
+    }
+
+    /**
+     * @return the path of a class relative to the jar root if {@code name} is in the base tree,
+     * or relative to {@code META-INF/versions/N/}, {@code null} if not a valid class path
+     */
+    /**
+     * Whether the manifest of {@code jar} has {@code Multi-Release: true}, only then the JDK reads
+     * {@code META-INF/versions/}
+     */
+    static boolean isMultiRelease(ZipFile jar) throws IOException {
+        var entry = jar.getEntry(JarFile.MANIFEST_NAME);
+        if (entry == null) return false;
+        try (var in = jar.getInputStream(entry)) {
+            return "true".equalsIgnoreCase(new Manifest(in).getMainAttributes().getValue("Multi-Release"));
+        }
+    }
+
+    static String multiReleaseBaseName(String name) {
+        if (!name.startsWith(VERSIONS_PREFIX)) {
+            return name.startsWith("META-INF/") ? null : name;
+        }
+        var split = name.indexOf('/', VERSIONS_PREFIX.length());
+        if (split == -1) return null;
+        try {
+            Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), split));
+        } catch (NumberFormatException ignore) {
+            return null;
         }
+        return name.substring(split + 1);
+    }
 
-        zipOut.close();
+    /**
+     * Picks the variant with the highest version up to {@code maxRelease} of every class that has at least
+     * one such {@code META-INF/versions/N/} variant. The base variant always loses. {@code module-info.class}
+     * is never picked, JDK 8 has no modules.
+     *
+     * @return base name -> selected entry
+     */
+    static Map<String, ZipEntry> selectMultiReleaseVariants(List<? extends ZipEntry> entries, int maxRelease) {
+        var versions = new HashMap<String, Integer>();
+        var selected = new HashMap<String, ZipEntry>();
+        for (var entry : entries) {
+            var name = entry.getName();
+            if (!name.startsWith(VERSIONS_PREFIX) || !name.endsWith(".class")) continue;
+            var baseName = multiReleaseBaseName(name);
+            if (baseName == null || baseName.equals("module-info.class")) continue;
+            var version = Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), name.indexOf('/', VERSIONS_PREFIX.length())));
+            if (version > maxRelease) continue;
+            var current = versions.get(baseName);
+            if (current == null || current < version) {
+                versions.put(baseName, version);
+                selected.put(baseName, entry);
+            }
+        }
+        return selected;
     }
 
     public static class II<T> implements Iterable<T> {
@@ -93,7 +93,8 @@ public class Kit {
     public static boolean isAnnotated(String n, List<AnnotationNode>... an) {
         return Stream.of(an)
                 .filter(Objects::nonNull)
-                .anyMatch(it -> it.contains(n));
+                .flatMap(List::stream)
+                .anyMatch(it -> it.desc.equals(n));
     }
 
     public static class NameGenerator {
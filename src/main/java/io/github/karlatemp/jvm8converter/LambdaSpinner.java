@@ -0,0 +1,458 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Spins {@code LambdaMetafactory} call sites ahead of time, like retrolambda does.
+ * <p>
+ * Every lambda / method reference gets a concrete class {@code Outer$$Lambda$N}.
+ * Non-capturing lambdas become a singleton and the call site becomes a {@code GETSTATIC};
+ * capturing lambdas are created by a static factory {@code get$Lambda}, which is a plain
+ * {@code NEW} the JIT inlines into the call site.
+ * <p>
+ * The lambda classes join the nest of their outer class, private implementation methods
+ * are reached through the accessors of {@link NestAccess}.
+ * <p>
+ * {@code StringConcatFactory} call sites become static {@code StringBuilder} helpers, see
+ * {@link #spinConcat}. Without any bootstrap left JDK 8 doesn't start its method handle runtime.
+ */
+public class LambdaSpinner {
+    static final String LMF = "java/lang/invoke/LambdaMetafactory";
+    static final String STRING_CONCAT_FACTORY = "java/lang/invoke/StringConcatFactory";
+    static final char TAG_ARG = '\u0001';
+    static final char TAG_CONST = '\u0002';
+    static final int FLAG_SERIALIZABLE = 1;
+    static final int FLAG_MARKERS = 2;
+    static final int FLAG_BRIDGES = 4;
+
+    /**
+     * @param output receives the generated lambda classes
+     */
+    public static void spin(ClassNode klass, Collection<ClassNode> output) {
+        var counter = 0;
+        for (var method : klass.methods) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+                var idn = (InvokeDynamicInsnNode) insn;
+                if (!idn.bsm.getOwner().equals(LMF)) continue;
+                var args = idn.bsmArgs;
+                var interfaces = new ArrayList<String>();
+                interfaces.add(Type.getReturnType(idn.desc).getInternalName());
+                var bridges = new ArrayList<Type>();
+                if (idn.bsm.getName().equals("altMetafactory")) {
+                    var flags = (Integer) args[3];
+                    if ((flags & FLAG_SERIALIZABLE) != 0) continue; // needs $deserializeLambda$
+                    var index = 4;
+                    if ((flags & FLAG_MARKERS) != 0) {
+                        var count = (Integer) args[index++];
+                        for (var i = 0; i < count; i++) {
+                            interfaces.add(((Type) args[index++]).getInternalName());
+                        }
+                    }
+                    if ((flags & FLAG_BRIDGES) != 0) {
+                        var count = (Integer) args[index++];
+                        for (var i = 0; i < count; i++) {
+                            bridges.add((Type) args[index++]);
+                        }
+                    }
+                } else if (!idn.bsm.getName().equals("metafactory")) {
+                    continue;
+                }
+
+                var lambda = genLambda(
+                        klass.name + "$$Lambda$" + counter++, klass, idn,
+                        (Type) args[0], (Handle) args[1], (Type) args[2],
+                        interfaces, bridges
+                );
+                output.add(lambda);
+                if (Type.getArgumentTypes(idn.desc).length == 0) {
+                    insnIterator.set(new FieldInsnNode(Opcodes.GETSTATIC, lambda.name, "INSTANCE", Type.getReturnType(idn.desc).getDescriptor()));
+                } else {
+                    insnIterator.set(new MethodInsnNode(Opcodes.INVOKESTATIC, lambda.name, "get$Lambda", idn.desc, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens the private implementation methods of the lambdas in {@code classes} to their package,
+     * for classes the access analysis doesn't cover, like the injected runtime
+     */
+    static void openImplementations(Collection<ClassNode> classes) {
+        var byName = new HashMap<String, ClassNode>();
+        for (var klass : classes) {
+            byName.put(klass.name, klass);
+        }
+        for (var klass : classes) {
+            for (var method : klass.methods) {
+                if (method.instructions == null) continue;
+                for (var insn : method.instructions) {
+                    if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+                    var idn = (InvokeDynamicInsnNode) insn;
+                    if (!idn.bsm.getOwner().equals(LMF)) continue;
+                    var impl = (Handle) idn.bsmArgs[1];
+                    var owner = byName.get(impl.getOwner());
+                    if (owner == null) continue;
+                    for (var target : owner.methods) {
+                        if (!target.name.equals(impl.getName()) || !target.desc.equals(impl.getDesc())) continue;
+                        target.access &= ~Opcodes.ACC_PRIVATE;
+                        // Interface methods are either public or private
+                        if ((owner.access & Opcodes.ACC_INTERFACE) != 0) target.access |= Opcodes.ACC_PUBLIC;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the {@code StringConcatFactory} call sites of {@code klass} by calls to static
+     * {@code concat$N} helpers appending to a {@code StringBuilder}, like javac 8 does.
+     * Call sites with the same recipe share a helper.
+     */
+    static void spinConcat(ClassNode klass) {
+        var generated = new HashMap<List<Object>, String>();
+        for (var method : new ArrayList<>(klass.methods)) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+                var idn = (InvokeDynamicInsnNode) insn;
+                if (!idn.bsm.getOwner().equals(STRING_CONCAT_FACTORY)) continue;
+                String recipe;
+                Object[] constants;
+                if (idn.bsm.getName().equals("makeConcat")) {
+                    recipe = String.valueOf(TAG_ARG).repeat(Type.getArgumentTypes(idn.desc).length);
+                    constants = new Object[0];
+                } else if (idn.bsm.getName().equals("makeConcatWithConstants")) {
+                    recipe = (String) idn.bsmArgs[0];
+                    constants = Arrays.copyOfRange(idn.bsmArgs, 1, idn.bsmArgs.length);
+                } else {
+                    throw new IllegalArgumentException("Unsupported StringConcatFactory." + idn.bsm.getName() + " in " + klass.name + "." + method.name);
+                }
+                // Constants folded into the literals, null for the arguments
+                var elements = new ArrayList<String>();
+                var literal = new StringBuilder();
+                var constant = 0;
+                for (var i = 0; i < recipe.length(); i++) {
+                    var c = recipe.charAt(i);
+                    if (c == TAG_CONST) {
+                        literal.append(constants[constant++]);
+                    } else if (c == TAG_ARG) {
+                        if (literal.length() != 0) {
+                            elements.add(literal.toString());
+                            literal.setLength(0);
+                        }
+                        elements.add(null);
+                    } else {
+                        literal.append(c);
+                    }
+                }
+                if (literal.length() != 0) elements.add(literal.toString());
+
+                var key = new ArrayList<Object>(elements);
+                key.add(idn.desc);
+                var name = generated.get(key);
+                if (name == null) {
+                    name = "concat$" + generated.size();
+                    genConcat(klass, name, idn.desc, elements);
+                    generated.put(key, name);
+                }
+                insnIterator.set(new MethodInsnNode(
+                        Opcodes.INVOKESTATIC, klass.name, name, idn.desc,
+                        (klass.access & Opcodes.ACC_INTERFACE) != 0
+                ));
+            }
+        }
+    }
+
+    private static void genConcat(ClassNode klass, String name, String desc, List<String> elements) {
+        var sb = "java/lang/StringBuilder";
+        var mv = klass.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC, name, desc, null, null);
+        mv.visitTypeInsn(Opcodes.NEW, sb);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, sb, "<init>", "()V", false);
+        var args = Type.getArgumentTypes(desc);
+        var arg = 0;
+        var slot = 0;
+        for (var element : elements) {
+            String appended;
+            if (element == null) {
+                var type = args[arg++];
+                mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), slot);
+                slot += type.getSize();
+                switch (type.getSort()) {
+                    case Type.BYTE:
+                    case Type.SHORT:
+                        appended = "I";
+                        break;
+                    case Type.BOOLEAN:
+                    case Type.CHAR:
+                    case Type.INT:
+                    case Type.LONG:
+                    case Type.FLOAT:
+                    case Type.DOUBLE:
+                        appended = type.getDescriptor();
+                        break;
+                    default:
+                        // Also arrays, append(char[]) doesn't print like String.valueOf(Object)
+                        appended = type.getDescriptor().equals("Ljava/lang/String;") ? type.getDescriptor() : "Ljava/lang/Object;";
+                }
+            } else {
+                mv.visitLdcInsn(element);
+                appended = "Ljava/lang/String;";
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "append", "(" + appended + ")L" + sb + ";", false);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "toString", "()Ljava/lang/String;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, slot);
+    }
+
+    private static ClassNode genLambda(
+            String name, ClassNode outer, InvokeDynamicInsnNode idn,
+            Type samType, Handle impl, Type instantiatedType,
+            Collection<String> interfaces, Collection<Type> bridges
+    ) {
+        var captured = Type.getArgumentTypes(idn.desc);
+        var itfDesc = Type.getReturnType(idn.desc).getDescriptor();
+        var lambda = new ClassNode();
+        // Converted to the target like outer, the nest of outer only counts from JDK 11 class files
+        lambda.visit(Math.max(outer.version & 0xFFFF, Opcodes.V1_8),
+                Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                name, null, "java/lang/Object", interfaces.toArray(new String[0])
+        );
+        lambda.sourceFile = outer.sourceFile;
+        NestAccess.join(outer, lambda);
+
+        // fields & constructor
+        var initDesc = Type.getMethodDescriptor(Type.VOID_TYPE, captured);
+        var init = lambda.visitMethod(Opcodes.ACC_PRIVATE, "<init>", initDesc, null, null);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        var slot = 1;
+        for (var i = 0; i < captured.length; i++) {
+            lambda.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "arg$" + (i + 1), captured[i].getDescriptor(), null, null);
+            init.visitVarInsn(Opcodes.ALOAD, 0);
+            init.visitVarInsn(captured[i].getOpcode(Opcodes.ILOAD), slot);
+            init.visitFieldInsn(Opcodes.PUTFIELD, name, "arg$" + (i + 1), captured[i].getDescriptor());
+            slot += captured[i].getSize();
+        }
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(3, slot);
+
+        if (captured.length == 0) {
+            lambda.visitField(Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "INSTANCE", itfDesc, null, null);
+            var clinit = lambda.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+            clinit.visitTypeInsn(Opcodes.NEW, name);
+            clinit.visitInsn(Opcodes.DUP);
+            clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "<init>", "()V", false);
+            clinit.visitFieldInsn(Opcodes.PUTSTATIC, name, "INSTANCE", itfDesc);
+            clinit.visitInsn(Opcodes.RETURN);
+            clinit.visitMaxs(2, 0);
+        } else {
+            var factory = lambda.visitMethod(Opcodes.ACC_STATIC, "get$Lambda", idn.desc, null, null);
+            factory.visitTypeInsn(Opcodes.NEW, name);
+            factory.visitInsn(Opcodes.DUP);
+            slot = 0;
+            for (var type : captured) {
+                factory.visitVarInsn(type.getOpcode(Opcodes.ILOAD), slot);
+                slot += type.getSize();
+            }
+            factory.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "<init>", initDesc, false);
+            factory.visitInsn(Opcodes.ARETURN);
+            factory.visitMaxs(slot + 2, slot);
+        }
+
+        genSam(lambda, idn.name, captured, samType, impl, instantiatedType);
+        for (var bridge : bridges) {
+            if (bridge.getDescriptor().equals(samType.getDescriptor())) continue;
+            genBridge(lambda, idn.name, bridge, samType);
+        }
+        return lambda;
+    }
+
+    private static void genSam(ClassNode lambda, String samName, Type[] captured, Type samType, Handle impl, Type instantiatedType) {
+        var mv = lambda.visitMethod(Opcodes.ACC_PUBLIC, samName, samType.getDescriptor(), null, null);
+        var samArgs = samType.getArgumentTypes();
+        var instantiatedArgs = instantiatedType.getArgumentTypes();
+        var tag = impl.getTag();
+        var owner = Type.getObjectType(impl.getOwner());
+
+        var implArgs = new ArrayList<Type>();
+        if (tag == Opcodes.H_INVOKEVIRTUAL || tag == Opcodes.H_INVOKEINTERFACE || tag == Opcodes.H_INVOKESPECIAL) {
+            implArgs.add(owner);
+        }
+        implArgs.addAll(List.of(Type.getArgumentTypes(impl.getDesc())));
+
+        var stack = 2;
+        if (tag == Opcodes.H_NEWINVOKESPECIAL) {
+            mv.visitTypeInsn(Opcodes.NEW, impl.getOwner());
+            mv.visitInsn(Opcodes.DUP);
+            stack += 2;
+        }
+        var index = 0;
+        for (var i = 0; i < captured.length; i++) {
+            var target = implArgs.get(index++);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, lambda.name, "arg$" + (i + 1), captured[i].getDescriptor());
+            convert(mv, captured[i], captured[i], target);
+            stack += target.getSize();
+        }
+        var slot = 1;
+        for (var i = 0; i < samArgs.length; i++) {
+            var target = implArgs.get(index++);
+            mv.visitVarInsn(samArgs[i].getOpcode(Opcodes.ILOAD), slot);
+            convert(mv, samArgs[i], instantiatedArgs[i], target);
+            slot += samArgs[i].getSize();
+            stack += target.getSize();
+        }
+
+        Type implReturn;
+        switch (tag) {
+            case Opcodes.H_INVOKESTATIC:
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, impl.getOwner(), impl.getName(), impl.getDesc(), impl.isInterface());
+                implReturn = Type.getReturnType(impl.getDesc());
+                break;
+            case Opcodes.H_NEWINVOKESPECIAL:
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, impl.getOwner(), "<init>", impl.getDesc(), false);
+                implReturn = owner;
+                break;
+            default:
+                // Private members are invoked virtually and then redirected to accessors
+                mv.visitMethodInsn(
+                        impl.isInterface() ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL,
+                        impl.getOwner(), impl.getName(), impl.getDesc(), impl.isInterface()
+                );
+                implReturn = Type.getReturnType(impl.getDesc());
+        }
+
+        var samReturn = samType.getReturnType();
+        if (samReturn.getSort() == Type.VOID) {
+            if (implReturn.getSort() != Type.VOID) {
+                mv.visitInsn(implReturn.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+            }
+        } else {
+            convert(mv, implReturn, instantiatedType.getReturnType(), samReturn);
+        }
+        mv.visitInsn(samReturn.getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(stack, slot);
+    }
+
+    private static void genBridge(ClassNode lambda, String samName, Type bridge, Type samType) {
+        var mv = lambda.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC, samName, bridge.getDescriptor(), null, null);
+        var bridgeArgs = bridge.getArgumentTypes();
+        var samArgs = samType.getArgumentTypes();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        var slot = 1;
+        var stack = 3;
+        for (var i = 0; i < bridgeArgs.length; i++) {
+            mv.visitVarInsn(bridgeArgs[i].getOpcode(Opcodes.ILOAD), slot);
+            convert(mv, bridgeArgs[i], bridgeArgs[i], samArgs[i]);
+            slot += bridgeArgs[i].getSize();
+            stack += samArgs[i].getSize();
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, lambda.name, samName, samType.getDescriptor(), false);
+        var bridgeReturn = bridge.getReturnType();
+        if (bridgeReturn.getSort() == Type.VOID) {
+            var samReturn = samType.getReturnType();
+            if (samReturn.getSort() != Type.VOID) {
+                mv.visitInsn(samReturn.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP);
+            }
+        } else {
+            convert(mv, samType.getReturnType(), bridgeReturn, bridgeReturn);
+        }
+        mv.visitInsn(bridgeReturn.getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(stack, slot);
+    }
+
+    private static boolean isReference(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY;
+    }
+
+    /**
+     * Adapts the value on the top of the stack as {@code LambdaMetafactory} does:
+     * casts, boxing, unboxing and primitive widening.
+     *
+     * @param instantiated the instantiated type of the value, selects the unboxing type
+     */
+    static void convert(MethodVisitor mv, Type from, Type instantiated, Type to) {
+        if (from.equals(to)) return;
+        if (isReference(from)) {
+            if (isReference(to)) {
+                if (!to.getInternalName().equals("java/lang/Object")) {
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, to.getInternalName());
+                }
+                return;
+            }
+            if (to.getSort() == Type.VOID) return;
+            var unboxed = unboxedType(instantiated);
+            if (unboxed == null) unboxed = unboxedType(from);
+            if (unboxed == null) unboxed = to;
+            var wrapper = CondyLowering.wrapper(unboxed);
+            if (!from.getInternalName().equals(wrapper)) {
+                mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, unboxed.getClassName() + "Value", "()" + unboxed.getDescriptor(), false);
+            widen(mv, unboxed, to);
+            return;
+        }
+        if (isReference(to)) {
+            CondyLowering.box(mv, from);
+            return;
+        }
+        widen(mv, from, to);
+    }
+
+    private static Type unboxedType(Type type) {
+        if (type.getSort() != Type.OBJECT) return null;
+        switch (type.getInternalName()) {
+            case "java/lang/Boolean":
+                return Type.BOOLEAN_TYPE;
+            case "java/lang/Byte":
+                return Type.BYTE_TYPE;
+            case "java/lang/Short":
+                return Type.SHORT_TYPE;
+            case "java/lang/Character":
+                return Type.CHAR_TYPE;
+            case "java/lang/Integer":
+                return Type.INT_TYPE;
+            case "java/lang/Long":
+                return Type.LONG_TYPE;
+            case "java/lang/Float":
+                return Type.FLOAT_TYPE;
+            case "java/lang/Double":
+                return Type.DOUBLE_TYPE;
+            default:
+                return null;
+        }
+    }
+
+    private static void widen(MethodVisitor mv, Type from, Type to) {
+        var f = from.getSort();
+        var t = to.getSort();
+        if (f == t) return;
+        var intLike = f == Type.BYTE || f == Type.SHORT || f == Type.CHAR || f == Type.INT;
+        if (intLike) {
+            if (t == Type.LONG) mv.visitInsn(Opcodes.I2L);
+            else if (t == Type.FLOAT) mv.visitInsn(Opcodes.I2F);
+            else if (t == Type.DOUBLE) mv.visitInsn(Opcodes.I2D);
+        } else if (f == Type.LONG) {
+            if (t == Type.FLOAT) mv.visitInsn(Opcodes.L2F);
+            else if (t == Type.DOUBLE) mv.visitInsn(Opcodes.L2D);
+        } else if (f == Type.FLOAT && t == Type.DOUBLE) {
+            mv.visitInsn(Opcodes.F2D);
+        }
+    }
+}
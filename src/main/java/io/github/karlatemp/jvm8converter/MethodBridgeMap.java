@@ -1,20 +1,24 @@
 package io.github.karlatemp.jvm8converter;
 
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.SimpleRemapper;
 import org.objectweb.asm.tree.*;
 
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
 import java.lang.invoke.LambdaMetafactory;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -45,14 +49,51 @@ public class MethodBridgeMap {
     }
 
     private ArrayList<ClassNode> nodes = new ArrayList<>();
+    /**
+     * Bridges select pre-spun implementations instead of using {@code LambdaMetafactory}
+     */
+    private boolean spinLambdas;
     private ArrayList<Kit.Pair<ClassNode, Type>> bridges;
     private Map<String, ClassNode> itfs;
     private ClassNode bgGenerator;
     private ArrayList<ClassNode> proxys;
     private ArrayList<MethodRedirectInfo> redirectInfos = new ArrayList<>();
+    /**
+     * {@code type.name desc} of the original method to its redirect
+     */
+    private final HashMap<String, MethodRedirectInfo> redirectIndex = new HashMap<>();
+    /**
+     * Spun classes calling the real jdk methods, must not be redirected
+     */
+    private HashSet<String> nativeImpls = new HashSet<>();
+    /**
+     * JDK type missing in JDK 8 to the {@link Backport} class replacing it
+     */
+    private HashMap<String, String> backports = new HashMap<>();
+    static final RewriteRules REWRITE_RULES = RewriteRules.load();
+    /**
+     * Prepared bridges of this process, per {@link Converter#spinLambdas} mode
+     */
+    private static final Map<Boolean, MethodBridgeMap> TEMPLATES = new ConcurrentHashMap<>();
+    /**
+     * Class files of a template's {@link #nodes}, a {@link ClassNode} can't be visited by two threads at once
+     */
+    private List<byte[]> classFiles;
+    /**
+     * Whether a template's bridges concat strings
+     */
+    private boolean stringConcat;
+
+    /**
+     * Classes holding the {@link Shadow} bridges and {@link Backport} classes as nested classes
+     */
+    private static final Class<?>[] HOLDERS = {MethodBridges.class, CollectionBridges.class, StreamBridges.class, ConcurrentBridges.class, StackWalkerBridges.class, VirtualThreadBridges.class};
 
     private static Iterable<Class<?>> cc() {
-        ArrayDeque<Class<?>> cwx = new ArrayDeque<>(Arrays.asList(MethodBridges.class.getDeclaredClasses()));
+        ArrayDeque<Class<?>> cwx = new ArrayDeque<>();
+        for (var holder : HOLDERS) {
+            cwx.addAll(Arrays.asList(holder.getDeclaredClasses()));
+        }
         return Jvm8Converter.II.of(new Iterator<Class<?>>() {
             @Override
             public boolean hasNext() {
@@ -72,23 +113,41 @@ public class MethodBridgeMap {
     private void genBridges() throws Exception {
         var nodes = this.nodes;
         var bridges = new ArrayList<Kit.Pair<ClassNode, Type>>();
+        var holders = new HashSet<String>();
+        for (var holder : HOLDERS) {
+            holders.add(holder.getName().replace('.', '/'));
+        }
+        var queue = new ArrayDeque<Class<?>>();
         for (var c : cc()) {
+            queue.add(c);
+        }
+        while (!queue.isEmpty()) {
+            var c = queue.poll();
             var node = new ClassNode();
             new ClassReader(c.getName()).accept(node, 0);
             nodes.add(node);
+            for (var inner : node.innerClasses) {
+                // Anonymous classes are not listed by getDeclaredClasses()
+                if (inner.innerName == null && inner.name.startsWith(node.name + "$")) {
+                    queue.add(Class.forName(inner.name.replace('/', '.'), false, c.getClassLoader()));
+                }
+            }
             node.innerClasses.clear();
             node.outerClass = null;
             var shadow = c.getAnnotation(Shadow.class);
             if (shadow != null) {
                 bridges.add(new Kit.Pair<>(node, Type.getType(shadow.value())));
             }
+            var backport = c.getAnnotation(Backport.class);
+            if (backport != null) {
+                backports.put(backport.value(), node.name);
+            }
             if (c == MethodBridges.BridgeGenerator.class) {
                 bgGenerator = node;
             }
             // LDC Lio/github/karlatemp/jvm8converter/MethodBridges;.class
             for (var met : node.methods) {
                 if (met.name.equals("<clinit>")) {
-                    var n = MethodBridges.class.getName().replace('.', '/');
                     if (met.instructions == null) continue; // ??
                     for (var insn : met.instructions) {
                         if (insn instanceof LdcInsnNode) {
@@ -96,7 +155,7 @@ public class MethodBridgeMap {
                             var cst = ldc.cst;
                             if (cst instanceof Type) {
                                 var tc = (Type) cst;
-                                if (tc.getInternalName().equals(n)) {
+                                if (holders.contains(tc.getInternalName())) {
                                     ldc.cst = Type.getObjectType(node.name);
                                 }
                             }
@@ -116,7 +175,7 @@ public class MethodBridgeMap {
         for (var bridge : bridges) {
             for (var met : bridge.k.methods) {
                 if (met.name.equals("<init>") || met.name.equals("<clinit>")) continue;
-                var desc = met.desc;
+                var desc = erase(met.desc);
                 if (itfs.containsKey(desc)) continue;
                 var bg = new ClassNode();
                 var name = desc.substring(1)
@@ -138,6 +197,22 @@ public class MethodBridgeMap {
         }
     }
 
+    /**
+     * {@code desc} with all references as {@code Object}, bridges of the same shape share a {@code c/} interface
+     */
+    static String erase(String desc) {
+        var args = Type.getArgumentTypes(desc);
+        for (var i = 0; i < args.length; i++) {
+            args[i] = erase(args[i]);
+        }
+        return Type.getMethodDescriptor(erase(Type.getReturnType(desc)), args);
+    }
+
+    private static Type erase(Type type) {
+        var sort = type.getSort();
+        return sort == Type.OBJECT || sort == Type.ARRAY ? Type.getType(Object.class) : type;
+    }
+
     private void genProxy() throws Exception {
         var genbridgeDesc = "(" +
                 "Ljava/lang/Class;" +  // Class<?> itf,
@@ -169,15 +244,19 @@ public class MethodBridgeMap {
                 if (bmet.name.charAt(0) == '<') continue;
                 if ((bmet.access & Opcodes.ACC_PUBLIC) == 0) continue;
 
-                bmet.instructions.insert(assertNotThisNull());
-                bmet.maxStack = Math.max(bmet.maxStack, 3);
+                boolean isStatic = Kit.isAnnotated(bmet, ShadowStatic.class);
+                if (!isStatic) {
+                    bmet.instructions.insert(assertNotThisNull());
+                    bmet.maxStack = Math.max(bmet.maxStack, 3);
+                }
 
                 var mt = proxy.visitMethod(
                         Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
                         bmet.name, bmet.desc, null, null
                 );
                 var itfName = "f" + counter++;
-                var ifN = itfs.get(bmet.desc).name;
+                var samDesc = erase(bmet.desc);
+                var ifN = itfs.get(samDesc).name;
                 var itfDesc = "L" + ifN + ";";
                 proxy.visitField(
                         Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_PRIVATE,
@@ -196,30 +275,71 @@ public class MethodBridgeMap {
                         boolean isStatic
                 )
                  */
-                clinit.visitLdcInsn(Type.getObjectType(ifN));
-                clinit.visitLdcInsn(bmet.desc);
-                clinit.visitLdcInsn(bridge.v);
-                clinit.visitLdcInsn(bmet.name);
-                boolean isStatic = Kit.isAnnotated(bmet, ShadowStatic.class);
                 String odesc;
                 if (isStatic) {
-                    clinit.visitLdcInsn(odesc = bmet.desc);
+                    odesc = bmet.desc;
                 } else {
-                    clinit.visitLdcInsn(odesc = "(" + bmet.desc.substring(bmet.desc.indexOf(';') + 1));
+                    odesc = "(" + bmet.desc.substring(bmet.desc.indexOf(';') + 1);
+                }
+                if (spinLambdas) {
+                    // Select a pre-spun implementation, no LambdaMetafactory at runtime
+                    var nativeImpl = genImpl(proxy.name + "$" + itfName + "$Native", ifN, samDesc, bmet.desc);
+                    nativeImpl.visitMethodInsn(
+                            isStatic ? Opcodes.INVOKESTATIC : isInterface(bridge.v) ? Opcodes.INVOKEINTERFACE : Opcodes.INVOKEVIRTUAL,
+                            bridge.v.getInternalName(), bmet.name, odesc, isInterface(bridge.v)
+                    );
+                    nativeImpl.visitInsn(Type.getReturnType(bmet.desc).getOpcode(Opcodes.IRETURN));
+                    nativeImpls.add(proxy.name + "$" + itfName + "$Native");
+                    var backportImpl = genImpl(proxy.name + "$" + itfName + "$Backport", ifN, samDesc, bmet.desc);
+                    backportImpl.visitMethodInsn(Opcodes.INVOKESTATIC, bridge.k.name, bmet.name, bmet.desc, false);
+                    backportImpl.visitInsn(Type.getReturnType(bmet.desc).getOpcode(Opcodes.IRETURN));
+
+                    var backport = new Label();
+                    var store = new Label();
+                    clinit.visitLdcInsn(bridge.v);
+                    clinit.visitLdcInsn(bmet.name);
+                    clinit.visitLdcInsn(odesc);
+                    clinit.visitLdcInsn(isStatic);
+                    clinit.visitMethodInsn(
+                            Opcodes.INVOKESTATIC,
+                            bgGenerator.name,
+                            "hasMethod",
+                            "(Ljava/lang/Class;Ljava/lang/String;Ljava/lang/String;Z)Z",
+                            false
+                    );
+                    clinit.visitJumpInsn(Opcodes.IFEQ, backport);
+                    clinit.visitTypeInsn(Opcodes.NEW, proxy.name + "$" + itfName + "$Native");
+                    clinit.visitInsn(Opcodes.DUP);
+                    clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, proxy.name + "$" + itfName + "$Native", "<init>", "()V", false);
+                    clinit.visitJumpInsn(Opcodes.GOTO, store);
+                    clinit.visitLabel(backport);
+                    clinit.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+                    clinit.visitTypeInsn(Opcodes.NEW, proxy.name + "$" + itfName + "$Backport");
+                    clinit.visitInsn(Opcodes.DUP);
+                    clinit.visitMethodInsn(Opcodes.INVOKESPECIAL, proxy.name + "$" + itfName + "$Backport", "<init>", "()V", false);
+                    clinit.visitLabel(store);
+                    clinit.visitFrame(Opcodes.F_SAME1, 0, null, 1, new Object[]{ifN});
+                    clinit.visitFieldInsn(Opcodes.PUTSTATIC, proxy.name, itfName, itfDesc);
+                } else {
+                    clinit.visitLdcInsn(Type.getObjectType(ifN));
+                    clinit.visitLdcInsn(samDesc);
+                    clinit.visitLdcInsn(bridge.v);
+                    clinit.visitLdcInsn(bmet.name);
+                    clinit.visitLdcInsn(odesc);
+                    clinit.visitLdcInsn(Type.getObjectType(bridge.k.name));
+                    clinit.visitLdcInsn(bmet.desc);
+                    clinit.visitLdcInsn(isStatic);
+
+                    clinit.visitMethodInsn(
+                            Opcodes.INVOKESTATIC,
+                            bgGenerator.name,
+                            "genBridge",
+                            genbridgeDesc,
+                            false
+                    );
+                    clinit.visitTypeInsn(Opcodes.CHECKCAST, ifN);
+                    clinit.visitFieldInsn(Opcodes.PUTSTATIC, proxy.name, itfName, itfDesc);
                 }
-                clinit.visitLdcInsn(Type.getObjectType(bridge.k.name));
-                clinit.visitLdcInsn(bmet.desc);
-                clinit.visitLdcInsn(isStatic);
-
-                clinit.visitMethodInsn(
-                        Opcodes.INVOKESTATIC,
-                        bgGenerator.name,
-                        "genBridge",
-                        genbridgeDesc,
-                        false
-                );
-                clinit.visitTypeInsn(Opcodes.CHECKCAST, ifN);
-                clinit.visitFieldInsn(Opcodes.PUTSTATIC, proxy.name, itfName, itfDesc);
 
                 mt.visitFieldInsn(Opcodes.GETSTATIC, proxy.name, itfName, itfDesc);
                 var slot = 0;
@@ -227,8 +347,12 @@ public class MethodBridgeMap {
                     mt.visitVarInsn(type.getOpcode(Opcodes.ILOAD), slot);
                     slot += type.getSize();
                 }
-                mt.visitMethodInsn(Opcodes.INVOKEINTERFACE, ifN, "invoke", bmet.desc, true);
-                mt.visitInsn(Type.getReturnType(bmet.desc).getOpcode(Opcodes.IRETURN));
+                mt.visitMethodInsn(Opcodes.INVOKEINTERFACE, ifN, "invoke", samDesc, true);
+                var returnType = Type.getReturnType(bmet.desc);
+                if (!Type.getReturnType(samDesc).equals(returnType)) {
+                    mt.visitTypeInsn(Opcodes.CHECKCAST, returnType.getInternalName());
+                }
+                mt.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
                 mt.visitMaxs(slot + 1, slot);
 
                 var ri = new MethodRedirectInfo();
@@ -241,11 +365,48 @@ public class MethodBridgeMap {
                 ri.redirectedName = bmet.name;
 
                 redirectInfos.add(ri);
+                redirectIndex.putIfAbsent(ri.type + '.' + ri.name + ri.desc, ri);
             }
             clinit.visitInsn(Opcodes.RETURN);
         }
     }
 
+    /**
+     * Generates an implementation of {@code c/} interface {@code itf} and
+     * returns its {@code invoke} method with the arguments loaded as {@code desc}
+     */
+    private MethodVisitor genImpl(String name, String itf, String samDesc, String desc) {
+        var impl = new ClassNode();
+        impl.visit(Opcodes.V1_8,
+                Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC,
+                name, null, "java/lang/Object", new String[]{itf}
+        );
+        nodes.add(impl);
+        var init = impl.visitMethod(0, "<init>", "()V", null, null);
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(1, 1);
+
+        var invoke = impl.visitMethod(Opcodes.ACC_PUBLIC, "invoke", samDesc, null, null);
+        var slot = 1;
+        var samArgs = Type.getArgumentTypes(samDesc);
+        var args = Type.getArgumentTypes(desc);
+        for (var i = 0; i < args.length; i++) {
+            invoke.visitVarInsn(args[i].getOpcode(Opcodes.ILOAD), slot);
+            if (!samArgs[i].equals(args[i])) {
+                invoke.visitTypeInsn(Opcodes.CHECKCAST, args[i].getInternalName());
+            }
+            slot += args[i].getSize();
+        }
+        invoke.visitMaxs(Math.max(slot - 1, 2), slot);
+        return invoke;
+    }
+
+    private static boolean isInterface(Type type) throws ClassNotFoundException {
+        return Class.forName(type.getClassName(), false, ClassLoader.getPlatformClassLoader()).isInterface();
+    }
+
     private InsnList assertNotThisNull() {
         var list = new InsnList();
         list.add(new VarInsnNode(Opcodes.ALOAD, 0));
@@ -280,87 +441,374 @@ public class MethodBridgeMap {
         for (var node : nodes) {
             mappings.put(node.name, pkg + nameGenerator.get());
         }
+        mappings.put(UnsafeStub.NAME, UnsafeStub.UNSAFE);
+        // The bridges may use backported types too
+        var backports = new HashMap<String, String>();
+        for (var backport : this.backports.entrySet()) {
+            var name = mappings.get(backport.getValue());
+            mappings.put(backport.getKey(), name);
+            backports.put(backport.getKey(), name);
+        }
+        this.backports = backports;
         var newNodes = new ArrayList<ClassNode>(nodes.size());
         var remapper = new SimpleRemapper(mappings);
         for (var node : nodes) {
             var nw = new ClassNode();
             newNodes.add(nw);
             node.accept(new ClassRemapper(nw, remapper));
+            if (node.name.startsWith("p/")) {
+                // Descriptors passed to genBridge may hold backported types
+                for (var met : nw.methods) {
+                    for (var insn : met.instructions) {
+                        if (insn instanceof LdcInsnNode && ((LdcInsnNode) insn).cst instanceof String) {
+                            var cst = (String) ((LdcInsnNode) insn).cst;
+                            if (cst.startsWith("(")) ((LdcInsnNode) insn).cst = remapper.mapMethodDesc(cst);
+                        }
+                    }
+                }
+            }
         }
         nodes.clear();
         nodes.addAll(newNodes);
+        redirectIndex.clear();
         for (var info : redirectInfos) {
+            info.desc = remapper.mapMethodDesc(info.desc);
             info.redirectedType = remapper.map(info.redirectedType);
+            info.redirectedDesc = remapper.mapMethodDesc(info.redirectedDesc);
+            redirectIndex.putIfAbsent(info.type + '.' + info.name + info.desc, info);
+        }
+        var natives = new HashSet<String>();
+        for (var name : nativeImpls) {
+            natives.add(remapper.map(name));
         }
+        nativeImpls = natives;
     }
 
-    private MethodRedirectInfo redirectInfo(String type, String name, String desc) throws Exception {
+    static int handleOpcode(int tag) {
+        switch (tag) {
+            case Opcodes.H_INVOKEVIRTUAL:
+                return Opcodes.INVOKEVIRTUAL;
+            case Opcodes.H_INVOKESTATIC:
+                return Opcodes.INVOKESTATIC;
+            case Opcodes.H_INVOKESPECIAL:
+            case Opcodes.H_NEWINVOKESPECIAL:
+                return Opcodes.INVOKESPECIAL;
+            case Opcodes.H_INVOKEINTERFACE:
+                return Opcodes.INVOKEINTERFACE;
+            default:
+                return -1;
+        }
+    }
+
+    MethodRedirectInfo redirectInfo(String type, String name, String desc) throws Exception {
         var tts = ClassTypeAnalyze.types(type);
         if (tts == null) return null;
         for (var typex : tts) {
-            for (var info : redirectInfos) {
-                if (info.desc.equals(desc)) {
-                    if (info.name.equals(name)) {
-                        if (info.type.equals(typex))
-                            return info;
-                    }
-                }
-            }
+            var info = redirectIndex.get(typex + '.' + name + desc);
+            if (info != null) return info;
         }
         return null;
     }
 
-    public static void inject(Collection<ClassNode> nodes, String pkg, Kit.NameGenerator nameGenerator) throws Exception {
-
+    /**
+     * Generates the bridges without injecting them, for {@link #redirectInfo} lookups only
+     */
+    static MethodBridgeMap load(boolean spinLambdas) throws Exception {
         var map = new MethodBridgeMap();
+        map.spinLambdas = spinLambdas;
         map.genBridges();
         map.genInterfaces();
         map.genProxy();
-        map.drop();
-        map.obf(pkg, nameGenerator);
-        nodes.addAll(map.nodes);
+        if (spinLambdas) {
+            // The runtime joins no nest analysis, its lambdas call the opened implementations
+            LambdaSpinner.openImplementations(map.nodes);
+            var spun = new ArrayList<ClassNode>();
+            for (var node : map.nodes) {
+                LambdaSpinner.spin(node, spun);
+            }
+            map.nodes.addAll(spun);
+        }
+        return map;
+    }
+
+    /**
+     * The bridges of a lambda mode, generated once per process.
+     * Shared, only {@link #redirectInfo} may be called on it, {@link #instantiate()} before injecting.
+     */
+    static MethodBridgeMap template(boolean spinLambdas) throws Exception {
+        var template = TEMPLATES.get(spinLambdas);
+        if (template != null) return template;
+        synchronized (TEMPLATES) {
+            template = TEMPLATES.get(spinLambdas);
+            if (template != null) return template;
+            template = load(spinLambdas);
+            template.drop();
+            for (var node : template.nodes) {
+                for (var method : node.methods) {
+                    if (method.instructions == null) continue;
+                    for (var insn : method.instructions) {
+                        if (insn instanceof InvokeDynamicInsnNode && ((InvokeDynamicInsnNode) insn).bsm.getOwner().equals("java/lang/invoke/StringConcatFactory")) {
+                            template.stringConcat = true;
+                        }
+                    }
+                }
+            }
+            template.classFiles = new ArrayList<>(template.nodes.size());
+            for (var node : template.nodes) {
+                var writer = new ClassWriter(0);
+                node.accept(writer);
+                template.classFiles.add(writer.toByteArray());
+            }
+            TEMPLATES.put(spinLambdas, template);
+            return template;
+        }
+    }
+
+    /**
+     * A private copy of this template for one conversion
+     */
+    private MethodBridgeMap instantiate() {
+        var map = new MethodBridgeMap();
+        for (var bytes : classFiles) {
+            var node = new ClassNode();
+            new ClassReader(bytes).accept(node, 0);
+            map.nodes.add(node);
+        }
+        map.bridges = new ArrayList<>();
+        map.itfs = new HashMap<>();
+        map.proxys = new ArrayList<>();
+        for (var info : redirectInfos) {
+            var copy = new MethodRedirectInfo();
+            copy.type = info.type;
+            copy.name = info.name;
+            copy.desc = info.desc;
+            copy.redirectedType = info.redirectedType;
+            copy.redirectedName = info.redirectedName;
+            copy.redirectedDesc = info.redirectedDesc;
+            map.redirectInfos.add(copy);
+            map.redirectIndex.putIfAbsent(copy.type + '.' + copy.name + copy.desc, copy);
+        }
+        map.nativeImpls.addAll(nativeImpls);
+        map.backports.putAll(backports);
+        return map;
+    }
+
+    /**
+     * Counts the calls of each bridge and times the {@code <clinit>} of each proxy, see {@link Telemetry}
+     *
+     * @param telemetry the name of the injected {@link Telemetry}
+     */
+    private void instrument(String telemetry) {
+        // Reported with the JDK types, not the backports
+        var jdkTypes = new HashMap<String, String>();
+        for (var backport : backports.entrySet()) {
+            jdkTypes.put(backport.getValue(), backport.getKey());
+        }
+        var jdk = new SimpleRemapper(jdkTypes);
+        var adder = "Ljava/util/concurrent/atomic/LongAdder;";
+        var proxies = new HashMap<String, ClassNode>();
+        for (var node : nodes) {
+            if (node.name.startsWith("p/")) proxies.put(node.name, node);
+        }
+        var types = new HashMap<String, String>();
+        for (var info : redirectInfos) {
+            var proxy = proxies.get(info.redirectedType);
+            if (proxy == null) continue;
+            types.put(proxy.name, info.type + " (" + Kit.simpleName(proxy.name) + ")");
+            var field = "h" + proxy.fields.size();
+            proxy.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, field, adder, null, null);
+            var init = new InsnList();
+            init.add(new LdcInsnNode(info.type + '.' + info.name + jdk.mapMethodDesc(info.desc)));
+            init.add(new MethodInsnNode(Opcodes.INVOKESTATIC, telemetry, "counter", "(Ljava/lang/String;)" + adder, false));
+            init.add(new FieldInsnNode(Opcodes.PUTSTATIC, proxy.name, field, adder));
+            method(proxy, "<clinit>", "()V").instructions.insert(init);
+            var count = new InsnList();
+            count.add(new FieldInsnNode(Opcodes.GETSTATIC, proxy.name, field, adder));
+            count.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, "java/util/concurrent/atomic/LongAdder", "increment", "()V", false));
+            method(proxy, info.redirectedName, info.redirectedDesc).instructions.insert(count);
+        }
+        for (var proxy : proxies.values()) {
+            var type = types.get(proxy.name);
+            if (type == null) continue;
+            var clinit = method(proxy, "<clinit>", "()V");
+            var linking = new InsnList();
+            linking.add(new LdcInsnNode(type));
+            linking.add(new MethodInsnNode(Opcodes.INVOKESTATIC, telemetry, "linking", "(Ljava/lang/String;)V", false));
+            clinit.instructions.insert(linking);
+            for (var insn : clinit.instructions.toArray()) {
+                if (insn.getOpcode() != Opcodes.RETURN) continue;
+                var linked = new InsnList();
+                linked.add(new LdcInsnNode(type));
+                linked.add(new MethodInsnNode(Opcodes.INVOKESTATIC, telemetry, "linked", "(Ljava/lang/String;)V", false));
+                clinit.instructions.insertBefore(insn, linked);
+            }
+        }
+    }
+
+    private static MethodNode method(ClassNode klass, String name, String desc) {
+        for (var method : klass.methods) {
+            if (method.name.equals(name) && method.desc.equals(desc)) return method;
+        }
+        throw new NoSuchElementException(klass.name + '.' + name + desc);
+    }
+
+    /**
+     * Injects the bridges and registers the redirects to them
+     *
+     * @param telemetry the name of the injected {@link Telemetry}, {@code null} without telemetry
+     * @param target    the release of the output, see {@link Converter#target(int)}
+     * @return whether the injected bridges concat strings
+     */
+    public static boolean inject(TransformPipeline pipeline, boolean spinLambdas, String telemetry, int target) throws Exception {
+        var template = template(spinLambdas);
+        var map = template.instantiate();
+        if (telemetry != null) map.instrument(telemetry);
+        map.obf(pipeline.runtimePackage(), pipeline.names());
+        // Members and types the target already has are left alone
+        var api = JdkApi.shared(target);
+        if (api != null) map.backports.keySet().removeIf(api::hasClass);
+        remapBackports(pipeline.classes(), map.backports);
+        pipeline.classes().addAll(map.nodes);
 
         for (var red : map.redirectInfos) {
             System.out.println(red);
         }
         //Kit.dump(map.nodes, new File("build/dump/s.r.z"));
 
-        for (var node : nodes) {
-            for (var met : node.methods) {
-                if (met.instructions == null) continue;
-                var insnListItr = met.instructions.iterator();
-                for (var insn : Jvm8Converter.II.of(insnListItr)) {
-                    if (insn instanceof MethodInsnNode) {
-                        var min = (MethodInsnNode) insn;
-                        var ddsc = map.redirectInfo(min.owner, min.name, min.desc);
-                        if (ddsc == null) continue;
-                        min.owner = ddsc.redirectedType;
-                        min.name = ddsc.redirectedName;
-                        min.desc = ddsc.redirectedDesc;
-                        min.setOpcode(Opcodes.INVOKESTATIC);
-                    } else if (insn instanceof InvokeDynamicInsnNode) {
-                        var din = (InvokeDynamicInsnNode) insn;
-                        var bargs = din.bsmArgs;
-                        for (var i = 0; i < bargs.length; i++) {
-                            var oj = bargs[i];
-                            if (oj instanceof Handle) {
-                                var handle = (Handle) oj;
-                                var ddsc = map.redirectInfo(handle.getOwner(), handle.getName(), handle.getDesc());
-                                if (ddsc == null) continue;
-                                bargs[i] = new Handle(
-                                        Opcodes.H_INVOKESTATIC,
-                                        ddsc.redirectedType,
-                                        ddsc.redirectedName,
-                                        ddsc.redirectedDesc,
-                                        false
-                                );
-                            }
-                        }
+        pipeline.onMethodInsn(cursor -> {
+            if (map.nativeImpls.contains(cursor.klass.name)) return;
+            var min = (MethodInsnNode) cursor.insn;
+            // Calls the target has stay, the rewrite rules are for the members it lacks too
+            if (api != null && api.hasMethod(min.owner, min.name, min.desc)) return;
+            if (REWRITE_RULES.apply(min, cursor.iterator)) return;
+            var ddsc = map.redirectInfo(min.owner, min.name, min.desc);
+            if (ddsc == null) return;
+            min.owner = ddsc.redirectedType;
+            min.name = ddsc.redirectedName;
+            min.desc = ddsc.redirectedDesc;
+            min.setOpcode(Opcodes.INVOKESTATIC);
+            min.itf = false;
+        });
+        pipeline.on(Opcodes.INVOKEDYNAMIC, cursor -> {
+            if (map.nativeImpls.contains(cursor.klass.name)) return;
+            var bargs = ((InvokeDynamicInsnNode) cursor.insn).bsmArgs;
+            for (var i = 0; i < bargs.length; i++) {
+                var oj = bargs[i];
+                if (oj instanceof Handle) {
+                    var handle = (Handle) oj;
+                    if (api != null && api.hasMethod(handle.getOwner(), handle.getName(), handle.getDesc())) continue;
+                    var rule = REWRITE_RULES.find(handleOpcode(handle.getTag()), handle.getOwner(), handle.getName(), handle.getDesc());
+                    // A cast can't be inserted into a method handle
+                    if (rule != null && rule.checkcast == null && rule.newOpcode == rule.opcode) {
+                        bargs[i] = new Handle(
+                                handle.getTag(), rule.newOwner, rule.newName, rule.newDesc,
+                                rule.newOwner.equals(handle.getOwner()) ? handle.isInterface() : rule.newOpcode == Opcodes.INVOKEINTERFACE
+                        );
+                        continue;
                     }
+                    var ddsc = map.redirectInfo(handle.getOwner(), handle.getName(), handle.getDesc());
+                    if (ddsc == null) continue;
+                    bargs[i] = new Handle(
+                            Opcodes.H_INVOKESTATIC,
+                            ddsc.redirectedType,
+                            ddsc.redirectedName,
+                            ddsc.redirectedDesc,
+                            false
+                    );
                 }
             }
+        });
+        return template.stringConcat;
+    }
+
+    /**
+     * Whether {@code type} is replaced by a {@link Backport} class
+     */
+    boolean isBackported(String type) {
+        return backports.containsKey(type);
+    }
+
+    /**
+     * {@code desc} with the backported types replaced, as the converted classes have it
+     */
+    String backportedDesc(String desc) {
+        return backports.isEmpty() ? desc : new SimpleRemapper(backports).mapMethodDesc(desc);
+    }
+
+    /**
+     * Points the references to backported JDK types at the injected backports
+     */
+    private static void remapBackports(List<ClassNode> classes, Map<String, String> backports) {
+        var remapper = new SimpleRemapper(backports);
+        for (var i = 0; i < classes.size(); i++) {
+            var klass = classes.get(i);
+            if (!mentions(klass, backports.keySet())) continue;
+            var node = new ClassNode();
+            klass.accept(new ClassRemapper(node, remapper));
+            // The backports aren't nested in anything
+            node.innerClasses.removeIf(inner -> backports.containsValue(inner.name));
+            classes.set(i, node);
         }
+    }
 
+    private static boolean mentions(String desc, Set<String> types) {
+        if (desc == null) return false;
+        for (var type : types) {
+            if (desc.contains(type)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether {@code klass} refers to one of {@code types}, by its code, its exception handlers or its member types
+     */
+    static boolean mentions(ClassNode klass, Set<String> types) {
+        if (mentions(klass.superName, types)) return true;
+        for (var itf : klass.interfaces) {
+            if (mentions(itf, types)) return true;
+        }
+        for (var field : klass.fields) {
+            if (mentions(field.desc, types)) return true;
+        }
+        for (var method : klass.methods) {
+            if (mentions(method.desc, types)) return true;
+            if (method.instructions == null) continue;
+            for (var tryCatch : method.tryCatchBlocks) {
+                if (mentions(tryCatch.type, types)) return true;
+            }
+            if (method.localVariables != null) {
+                for (var local : method.localVariables) {
+                    if (mentions(local.desc, types)) return true;
+                }
+            }
+            for (var insn : method.instructions) {
+                if (insn instanceof MethodInsnNode) {
+                    var min = (MethodInsnNode) insn;
+                    if (mentions(min.owner, types) || mentions(min.desc, types)) return true;
+                } else if (insn instanceof FieldInsnNode) {
+                    var fin = (FieldInsnNode) insn;
+                    if (mentions(fin.owner, types) || mentions(fin.desc, types)) return true;
+                } else if (insn instanceof TypeInsnNode) {
+                    if (mentions(((TypeInsnNode) insn).desc, types)) return true;
+                } else if (insn instanceof MultiANewArrayInsnNode) {
+                    if (mentions(((MultiANewArrayInsnNode) insn).desc, types)) return true;
+                } else if (insn instanceof LdcInsnNode) {
+                    if (((LdcInsnNode) insn).cst instanceof Type && mentions(((LdcInsnNode) insn).cst.toString(), types)) return true;
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    var idn = (InvokeDynamicInsnNode) insn;
+                    if (mentions(idn.desc, types)) return true;
+                    for (var arg : idn.bsmArgs) {
+                        if (arg instanceof Handle) {
+                            var handle = (Handle) arg;
+                            if (mentions(handle.getOwner(), types) || mentions(handle.getDesc(), types)) return true;
+                        } else if (arg instanceof Type) {
+                            if (mentions(arg.toString(), types)) return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
     }
 
     public static void main(String[] args) throws Exception {
@@ -393,16 +841,39 @@ public class MethodBridgeMap {
 
 }
 
+/**
+ * Supertypes of the platform classes. The cache is shared by concurrent lookups,
+ * an entry is published once complete, classes which aren't found are cached too.
+ */
 class ClassTypeAnalyze {
-    static final Map<String, Collection<String>> types = new HashMap<>();
+    static final Map<String, Collection<String>> types = new ConcurrentHashMap<>();
+    /**
+     * Non platform classes, dropped once too many of them were seen so a long running process stays bounded
+     */
+    static final Set<String> misses = ConcurrentHashMap.newKeySet();
+    static final int MAX_MISSES = 1 << 16;
 
     static Collection<String> types(String type) throws Exception {
         {
             var r = types.get(type);
             if (r != null) return r;
+            if (misses.contains(type)) return null;
+        }
+        var api = JdkApi.shared();
+        if (api != null) {
+            var supertypes = api.supertypes(type);
+            if (supertypes != null) {
+                types.put(type, supertypes);
+                return supertypes;
+            }
         }
+        // Classes added after JDK 8, only the running JDK knows them
         var rsu = ClassLoader.getPlatformClassLoader().getResource(type + ".class");
-        if (rsu == null) return null;
+        if (rsu == null) {
+            if (misses.size() >= MAX_MISSES) misses.clear();
+            misses.add(type);
+            return null;
+        }
         ClassReader reader;
         try (var res = rsu.openStream()) {
             reader = new ClassReader(res);
@@ -410,7 +881,6 @@ class ClassTypeAnalyze {
         var resp = new HashSet<String>();
         resp.add(reader.getClassName());
         addIfNotNull(resp, reader.getSuperName());
-        types.put(type, resp);
         var interfaces = reader.getInterfaces();
         if (interfaces != null) {
             for (var itf : interfaces) {
@@ -419,6 +889,7 @@ class ClassTypeAnalyze {
             }
         }
         resp.add("java/lang/Object");
+        types.put(type, resp);
 
         return resp;
     }
@@ -428,22 +899,26 @@ class ClassTypeAnalyze {
     }
 }
 
-
-@Retention(RetentionPolicy.RUNTIME)
-@interface Shadow {
-    Class<?> value();
-}
-
-@Retention(RetentionPolicy.RUNTIME)
-@interface ShadowStatic {
-}
-
 @SuppressWarnings("DuplicatedCode")
 class MethodBridges {
     public static class BridgeGenerator {
 
         static final MethodHandles.Lookup lk = MethodHandles.lookup();
 
+        public static boolean hasMethod(Class<?> target, String name, String desc, boolean isStatic) {
+            var mt = MethodType.fromMethodDescriptorString(desc, ClassLoader.getSystemClassLoader());
+            try {
+                if (isStatic) {
+                    lk.findStatic(target, name, mt);
+                } else {
+                    lk.findVirtual(target, name, mt);
+                }
+                return true;
+            } catch (NoSuchMethodException | IllegalAccessException ignore) {
+                return false;
+            }
+        }
+
 
         public static Object genBridge(
                 Class<?> itf,
@@ -455,10 +930,12 @@ class MethodBridges {
                 String bridgeDesc,
                 boolean isStatic
         ) throws Throwable {
-            var sam = MethodType.fromMethodDescriptorString(sam0, ClassLoader.getSystemClassLoader());
-            var bgtype = MethodType.fromMethodDescriptorString(bridgeDesc, ClassLoader.getSystemClassLoader());
+            // The descriptors may hold backported types, only the loader of the runtime sees them
+            var loader = bridge.getClassLoader();
+            var sam = MethodType.fromMethodDescriptorString(sam0, loader);
+            var bgtype = MethodType.fromMethodDescriptorString(bridgeDesc, loader);
             try {
-                var mt = MethodType.fromMethodDescriptorString(desc, ClassLoader.getSystemClassLoader());
+                var mt = MethodType.fromMethodDescriptorString(desc, loader);
                 MethodHandle handle;
                 if (isStatic) {
                     handle = lk.findStatic(target, name, mt);
@@ -468,13 +945,13 @@ class MethodBridges {
                 return LambdaMetafactory.metafactory(
                         lk, "invoke", MethodType.methodType(itf), sam,
                         handle,
-                        sam
+                        bgtype
                 ).getTarget().invoke();
             } catch (NoSuchMethodException ignore) {
                 return LambdaMetafactory.metafactory(
                         lk, "invoke", MethodType.methodType(itf), sam,
                         lk.findStatic(bridge, name, bgtype),
-                        sam
+                        bgtype
                 ).getTarget().invoke();
             }
         }
@@ -734,4 +1211,636 @@ class MethodBridges {
         }
     }
 
+    @Shadow(Objects.class)
+    static class ObjectsB {
+        // One branch on the fast path, the exception is built out of line
+
+        @ShadowStatic
+        public static int checkIndex(int index, int length) {
+            if ((index | length | (length - index - 1)) < 0) throw outOfBoundsCheckIndex(index, length);
+            return index;
+        }
+
+        @ShadowStatic
+        public static int checkFromToIndex(int fromIndex, int toIndex, int length) {
+            if ((fromIndex | toIndex | length | (toIndex - fromIndex) | (length - toIndex)) < 0) {
+                throw outOfBoundsCheckFromToIndex(fromIndex, toIndex, length);
+            }
+            return fromIndex;
+        }
+
+        @ShadowStatic
+        public static int checkFromIndexSize(int fromIndex, int size, int length) {
+            if ((fromIndex | size | length) < 0 || size > length - fromIndex) {
+                throw outOfBoundsCheckFromIndexSize(fromIndex, size, length);
+            }
+            return fromIndex;
+        }
+
+        @ShadowStatic
+        public static long checkIndex(long index, long length) {
+            if ((index | length | (length - index - 1)) < 0) throw outOfBoundsCheckIndex(index, length);
+            return index;
+        }
+
+        @ShadowStatic
+        public static long checkFromToIndex(long fromIndex, long toIndex, long length) {
+            if ((fromIndex | toIndex | length | (toIndex - fromIndex) | (length - toIndex)) < 0) {
+                throw outOfBoundsCheckFromToIndex(fromIndex, toIndex, length);
+            }
+            return fromIndex;
+        }
+
+        @ShadowStatic
+        public static long checkFromIndexSize(long fromIndex, long size, long length) {
+            if ((fromIndex | size | length) < 0 || size > length - fromIndex) {
+                throw outOfBoundsCheckFromIndexSize(fromIndex, size, length);
+            }
+            return fromIndex;
+        }
+
+        static IndexOutOfBoundsException outOfBoundsCheckIndex(long index, long length) {
+            return new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+
+        static IndexOutOfBoundsException outOfBoundsCheckFromToIndex(long fromIndex, long toIndex, long length) {
+            return new IndexOutOfBoundsException("Range [" + fromIndex + ", " + toIndex + ") out of bounds for length " + length);
+        }
+
+        static IndexOutOfBoundsException outOfBoundsCheckFromIndexSize(long fromIndex, long size, long length) {
+            return new IndexOutOfBoundsException("Range [" + fromIndex + ", " + fromIndex + " + " + size + ") out of bounds for length " + length);
+        }
+    }
+
+    @Shadow(Math.class)
+    static class MathB {
+        @ShadowStatic
+        public static long multiplyHigh(long x, long y) {
+            // Hacker's Delight 8-2, signed and without branches
+            var x1 = x >> 32;
+            var x2 = x & 0xFFFFFFFFL;
+            var y1 = y >> 32;
+            var y2 = y & 0xFFFFFFFFL;
+            var z2 = x2 * y2;
+            var t = x1 * y2 + (z2 >>> 32);
+            var z1 = t & 0xFFFFFFFFL;
+            var z0 = t >> 32;
+            z1 += x2 * y1;
+            return x1 * y1 + z0 + (z1 >> 32);
+        }
+
+        @ShadowStatic
+        public static long multiplyFull(int x, int y) {
+            return (long) x * (long) y;
+        }
+
+        @ShadowStatic
+        public static long multiplyExact(long x, int y) {
+            return Math.multiplyExact(x, (long) y);
+        }
+
+        @ShadowStatic
+        public static long floorDiv(long x, int y) {
+            return Math.floorDiv(x, (long) y);
+        }
+
+        @ShadowStatic
+        public static int floorMod(long x, int y) {
+            return (int) Math.floorMod(x, (long) y);
+        }
+
+        @ShadowStatic
+        public static double fma(double a, double b, double c) {
+            if (Double.isNaN(a) || Double.isNaN(b) || Double.isNaN(c)) return Double.NaN;
+            var infiniteA = Double.isInfinite(a);
+            var infiniteB = Double.isInfinite(b);
+            if (infiniteA || infiniteB || Double.isInfinite(c)) {
+                if (infiniteA && b == 0.0 || infiniteB && a == 0.0) return Double.NaN;
+                var product = a * b;
+                // An overflowed product of finite values must not turn an infinite c into NaN
+                if (Double.isInfinite(product) && !infiniteA && !infiniteB) return c;
+                return product + c;
+            }
+            var product = new BigDecimal(a).multiply(new BigDecimal(b));
+            if (c == 0.0) {
+                // The sign of a zero result follows the floating-point expression
+                if (a == 0.0 || b == 0.0) return a * b + c;
+                return product.doubleValue();
+            }
+            return product.add(new BigDecimal(c)).doubleValue();
+        }
+
+        @ShadowStatic
+        public static float fma(float a, float b, float c) {
+            if (Float.isFinite(a) && Float.isFinite(b) && Float.isFinite(c)) {
+                if (a == 0.0 || b == 0.0) return a * b + c;
+                // The product of two floats is exact in double, only the sum rounds
+                return new BigDecimal((double) a * (double) b).add(new BigDecimal(c)).floatValue();
+            }
+            return (float) fma((double) a, (double) b, (double) c);
+        }
+    }
+
+    @Shadow(Thread.class)
+    static class ThreadB {
+        @ShadowStatic
+        public static void onSpinWait() {
+            // No spin-wait hint before JDK 9, an empty method is inlined away
+        }
+    }
+
+    @Shadow(Integer.class)
+    static class IntegerB {
+        /**
+         * Parses the range in place, no substring is created
+         */
+        @ShadowStatic
+        public static int parseInt(CharSequence s, int beginIndex, int endIndex, int radix) {
+            Objects.requireNonNull(s);
+            ObjectsB.checkFromToIndex(beginIndex, endIndex, s.length());
+            if (radix < Character.MIN_RADIX) {
+                throw new NumberFormatException("radix " + radix + " less than Character.MIN_RADIX");
+            }
+            if (radix > Character.MAX_RADIX) {
+                throw new NumberFormatException("radix " + radix + " greater than Character.MAX_RADIX");
+            }
+            if (beginIndex == endIndex) {
+                throw new NumberFormatException("For input string: \"\"" + (radix == 10 ? "" : " under radix " + radix));
+            }
+            var negative = false;
+            var i = beginIndex;
+            var limit = -Integer.MAX_VALUE;
+            var firstChar = s.charAt(i);
+            if (firstChar < '0') {
+                if (firstChar == '-') {
+                    negative = true;
+                    limit = Integer.MIN_VALUE;
+                } else if (firstChar != '+') {
+                    throw numberFormat(s, beginIndex, endIndex, i);
+                }
+                i++;
+                if (i == endIndex) throw numberFormat(s, beginIndex, endIndex, i);
+            }
+            var multmin = limit / radix;
+            var result = 0;
+            while (i < endIndex) {
+                // Accumulating negatively avoids surprises near MAX_VALUE
+                var digit = Character.digit(s.charAt(i), radix);
+                if (digit < 0 || result < multmin) throw numberFormat(s, beginIndex, endIndex, i);
+                result *= radix;
+                if (result < limit + digit) throw numberFormat(s, beginIndex, endIndex, i);
+                i++;
+                result -= digit;
+            }
+            return negative ? result : -result;
+        }
+
+        static NumberFormatException numberFormat(CharSequence s, int beginIndex, int endIndex, int errorIndex) {
+            return new NumberFormatException("Error at index " + (errorIndex - beginIndex) + " in: \"" + s.subSequence(beginIndex, endIndex) + "\"");
+        }
+    }
+
+    @Shadow(Arrays.class)
+    static class ArraysB {
+        @ShadowStatic
+        public static int mismatch(byte[] a, byte[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(byte[] a, int aFromIndex, int aToIndex, byte[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(byte[] a, int aFromIndex, int aToIndex, byte[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static int compare(byte[] a, byte[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, Math.min(a.length, b.length));
+            if (i >= 0) return Byte.compare(a[i], b[i]);
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static int compare(byte[] a, int aFromIndex, int aToIndex, byte[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, Math.min(aLength, bLength));
+            if (i >= 0) return Byte.compare(a[aFromIndex + i], b[bFromIndex + i]);
+            return aLength - bLength;
+        }
+
+        @ShadowStatic
+        public static int mismatch(char[] a, char[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(char[] a, int aFromIndex, int aToIndex, char[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(char[] a, int aFromIndex, int aToIndex, char[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static int compare(char[] a, char[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, Math.min(a.length, b.length));
+            if (i >= 0) return Character.compare(a[i], b[i]);
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static int compare(char[] a, int aFromIndex, int aToIndex, char[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, Math.min(aLength, bLength));
+            if (i >= 0) return Character.compare(a[aFromIndex + i], b[bFromIndex + i]);
+            return aLength - bLength;
+        }
+
+        @ShadowStatic
+        public static int mismatch(short[] a, short[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(short[] a, int aFromIndex, int aToIndex, short[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(short[] a, int aFromIndex, int aToIndex, short[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static int compare(short[] a, short[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, Math.min(a.length, b.length));
+            if (i >= 0) return Short.compare(a[i], b[i]);
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static int compare(short[] a, int aFromIndex, int aToIndex, short[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, Math.min(aLength, bLength));
+            if (i >= 0) return Short.compare(a[aFromIndex + i], b[bFromIndex + i]);
+            return aLength - bLength;
+        }
+
+        @ShadowStatic
+        public static int mismatch(int[] a, int[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(int[] a, int aFromIndex, int aToIndex, int[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(int[] a, int aFromIndex, int aToIndex, int[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static int compare(int[] a, int[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, Math.min(a.length, b.length));
+            if (i >= 0) return Integer.compare(a[i], b[i]);
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static int compare(int[] a, int aFromIndex, int aToIndex, int[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, Math.min(aLength, bLength));
+            if (i >= 0) return Integer.compare(a[aFromIndex + i], b[bFromIndex + i]);
+            return aLength - bLength;
+        }
+
+        @ShadowStatic
+        public static int mismatch(long[] a, long[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(long[] a, int aFromIndex, int aToIndex, long[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(long[] a, int aFromIndex, int aToIndex, long[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static int compare(long[] a, long[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, Math.min(a.length, b.length));
+            if (i >= 0) return Long.compare(a[i], b[i]);
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static int compare(long[] a, int aFromIndex, int aToIndex, long[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, Math.min(aLength, bLength));
+            if (i >= 0) return Long.compare(a[aFromIndex + i], b[bFromIndex + i]);
+            return aLength - bLength;
+        }
+
+        @ShadowStatic
+        public static int mismatch(Object[] a, Object[] b) {
+            var length = Math.min(a.length, b.length);
+            if (a == b) return -1;
+            var i = ArraysSupport.mismatch(a, 0, b, 0, length);
+            return i < 0 && a.length != b.length ? length : i;
+        }
+
+        @ShadowStatic
+        public static int mismatch(Object[] a, int aFromIndex, int aToIndex, Object[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            var i = ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length);
+            return i < 0 && aLength != bLength ? length : i;
+        }
+
+        @ShadowStatic
+        public static boolean equals(Object[] a, int aFromIndex, int aToIndex, Object[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var length = aToIndex - aFromIndex;
+            if (length != bToIndex - bFromIndex) return false;
+            return ArraysSupport.mismatch(a, aFromIndex, b, bFromIndex, length) < 0;
+        }
+
+        @ShadowStatic
+        public static <T extends Comparable<? super T>> int compare(T[] a, T[] b) {
+            if (a == b) return 0;
+            if (a == null || b == null) return a == null ? -1 : 1;
+            var length = Math.min(a.length, b.length);
+            for (var i = 0; i < length; i++) {
+                var oa = a[i];
+                var ob = b[i];
+                if (oa != ob) {
+                    if (oa == null || ob == null) return oa == null ? -1 : 1;
+                    var v = oa.compareTo(ob);
+                    if (v != 0) return v;
+                }
+            }
+            return a.length - b.length;
+        }
+
+        @ShadowStatic
+        public static <T extends Comparable<? super T>> int compare(T[] a, int aFromIndex, int aToIndex, T[] b, int bFromIndex, int bToIndex) {
+            ArraysSupport.rangeCheck(a.length, aFromIndex, aToIndex);
+            ArraysSupport.rangeCheck(b.length, bFromIndex, bToIndex);
+            var aLength = aToIndex - aFromIndex;
+            var bLength = bToIndex - bFromIndex;
+            var length = Math.min(aLength, bLength);
+            for (var i = 0; i < length; i++) {
+                var oa = a[aFromIndex + i];
+                var ob = b[bFromIndex + i];
+                if (oa != ob) {
+                    if (oa == null || ob == null) return oa == null ? -1 : 1;
+                    var v = oa.compareTo(ob);
+                    if (v != 0) return v;
+                }
+            }
+            return aLength - bLength;
+        }
+    }
+
+    /**
+     * Mismatch search shared by {@link ArraysB}.
+     * <p>
+     * Where unaligned access is cheap, byte, char, short and int ranges are
+     * compared 8 bytes at a time with {@code Unsafe.getLong}, the first differing
+     * element is located by counting the zero bits of the xor.
+     */
+    static final class ArraysSupport {
+        static final UnsafeStub U;
+        static final boolean UNALIGNED;
+        static final boolean BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+        static final long BYTE_BASE, CHAR_BASE, SHORT_BASE, INT_BASE;
+
+        static {
+            UnsafeStub unsafe;
+            try {
+                var theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = (UnsafeStub) theUnsafe.get(null);
+            } catch (Exception ignore) {
+                unsafe = null;
+            }
+            U = unsafe;
+            var arch = System.getProperty("os.arch", "");
+            UNALIGNED = unsafe != null && (arch.equals("amd64") || arch.equals("x86_64")
+                    || arch.equals("i386") || arch.equals("x86") || arch.equals("aarch64")
+                    || arch.equals("ppc64") || arch.equals("ppc64le"));
+            BYTE_BASE = UNALIGNED ? unsafe.arrayBaseOffset(byte[].class) : 0;
+            CHAR_BASE = UNALIGNED ? unsafe.arrayBaseOffset(char[].class) : 0;
+            SHORT_BASE = UNALIGNED ? unsafe.arrayBaseOffset(short[].class) : 0;
+            INT_BASE = UNALIGNED ? unsafe.arrayBaseOffset(int[].class) : 0;
+        }
+
+        static void rangeCheck(int arrayLength, int fromIndex, int toIndex) {
+            if ((fromIndex | toIndex | (toIndex - fromIndex) | (arrayLength - toIndex)) < 0) {
+                throw rangeError(arrayLength, fromIndex, toIndex);
+            }
+        }
+
+        static RuntimeException rangeError(int arrayLength, int fromIndex, int toIndex) {
+            if (fromIndex > toIndex) {
+                return new IllegalArgumentException("fromIndex(" + fromIndex + ") > toIndex(" + toIndex + ")");
+            }
+            if (fromIndex < 0) return new ArrayIndexOutOfBoundsException(fromIndex);
+            return new ArrayIndexOutOfBoundsException(toIndex);
+        }
+
+        /**
+         * Compares {@code length} elements of {@code 1 << log2Scale} bytes, one word at a time
+         *
+         * @return the index of the first mismatch, or the bitwise complement of the
+         * number of tail elements left to compare
+         */
+        static int vectorizedMismatch(Object a, long aOffset, Object b, long bOffset, int length, int log2Scale) {
+            var log2ValuesPerWidth = 3 - log2Scale;
+            var words = length >> log2ValuesPerWidth;
+            for (var wi = 0; wi < words; wi++) {
+                var bi = (long) wi << 3;
+                var av = U.getLong(a, aOffset + bi);
+                var bv = U.getLong(b, bOffset + bi);
+                if (av != bv) {
+                    var x = av ^ bv;
+                    var zeros = BIG_ENDIAN ? Long.numberOfLeadingZeros(x) : Long.numberOfTrailingZeros(x);
+                    return (wi << log2ValuesPerWidth) + (zeros >> (3 + log2Scale));
+                }
+            }
+            return ~(length - (words << log2ValuesPerWidth));
+        }
+
+        static int mismatch(byte[] a, int aFromIndex, byte[] b, int bFromIndex, int length) {
+            var i = 0;
+            if (UNALIGNED && length > 7) {
+                i = vectorizedMismatch(a, BYTE_BASE + aFromIndex, b, BYTE_BASE + bFromIndex, length, 0);
+                if (i >= 0) return i;
+                i = length - ~i;
+            }
+            for (; i < length; i++) {
+                if (a[aFromIndex + i] != b[bFromIndex + i]) return i;
+            }
+            return -1;
+        }
+
+        static int mismatch(char[] a, int aFromIndex, char[] b, int bFromIndex, int length) {
+            var i = 0;
+            if (UNALIGNED && length > 3) {
+                i = vectorizedMismatch(a, CHAR_BASE + ((long) aFromIndex << 1), b, CHAR_BASE + ((long) bFromIndex << 1), length, 1);
+                if (i >= 0) return i;
+                i = length - ~i;
+            }
+            for (; i < length; i++) {
+                if (a[aFromIndex + i] != b[bFromIndex + i]) return i;
+            }
+            return -1;
+        }
+
+        static int mismatch(short[] a, int aFromIndex, short[] b, int bFromIndex, int length) {
+            var i = 0;
+            if (UNALIGNED && length > 3) {
+                i = vectorizedMismatch(a, SHORT_BASE + ((long) aFromIndex << 1), b, SHORT_BASE + ((long) bFromIndex << 1), length, 1);
+                if (i >= 0) return i;
+                i = length - ~i;
+            }
+            for (; i < length; i++) {
+                if (a[aFromIndex + i] != b[bFromIndex + i]) return i;
+            }
+            return -1;
+        }
+
+        static int mismatch(int[] a, int aFromIndex, int[] b, int bFromIndex, int length) {
+            var i = 0;
+            if (UNALIGNED && length > 1) {
+                i = vectorizedMismatch(a, INT_BASE + ((long) aFromIndex << 2), b, INT_BASE + ((long) bFromIndex << 2), length, 2);
+                if (i >= 0) return i;
+                i = length - ~i;
+            }
+            for (; i < length; i++) {
+                if (a[aFromIndex + i] != b[bFromIndex + i]) return i;
+            }
+            return -1;
+        }
+
+        static int mismatch(long[] a, int aFromIndex, long[] b, int bFromIndex, int length) {
+            // Already one word per element
+            for (var i = 0; i < length; i++) {
+                if (a[aFromIndex + i] != b[bFromIndex + i]) return i;
+            }
+            return -1;
+        }
+
+        static int mismatch(Object[] a, int aFromIndex, Object[] b, int bFromIndex, int length) {
+            for (var i = 0; i < length; i++) {
+                if (!Objects.equals(a[aFromIndex + i], b[bFromIndex + i])) return i;
+            }
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,481 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Lowers private member accesses between nestmates (JDK 11+) to accessors, like javac 8 does.
+ * <p>
+ * Only classes of one nest can access each other's private members, so the analysis is split
+ * into independent units by the {@code NestHost} and {@code NestMembers} attributes: a nest host
+ * with its members. Units are analyzed in parallel, each only looks up members of its own
+ * classes. Classes outside any nest are skipped, except interfaces: JDK 8 can't call a private
+ * interface method with {@code invokeinterface}, not even from the interface itself.
+ * <p>
+ * Classes generated for a class, like spun lambdas, join its nest, see {@link #join}.
+ * <p>
+ * A {@link Converter#target(int) target} of JDK 11+ has nestmates, only units with a member
+ * of an older class file version are lowered there. Up to JDK 14 the {@code LambdaMetafactory}
+ * classes still aren't nestmates of their caller, the method handles to private members of
+ * another class keep their accessors.
+ * <p>
+ * Private interface methods are moved to a static method of a {@code $Bridge$} class, the other
+ * private members get an {@code accessor$N}. Method handles to them are redirected as well,
+ * the {@code LambdaMetafactory} of JDK 8 can't reach private members of other classes
+ * or private interface methods.
+ */
+public class NestAccess {
+    static final class SharedMethod {
+        ClassNode declaredClass;
+        MethodNode declaredMethod;
+        boolean isStatic;
+        String desc;
+        String accessorName;
+        String redirectedClassName;
+    }
+
+    static final class SharedField {
+        ClassNode declaredClass;
+        FieldNode declaredField;
+        boolean isStatic;
+        String getAccessName;
+        String setAccessName;
+        boolean hasGetAccess;
+        boolean hasSetAccess;
+    }
+
+    /**
+     * A nest host and its members in the jar
+     */
+    static final class Unit {
+        final String host;
+        final LinkedHashMap<String, ClassNode> members = new LinkedHashMap<>();
+        final LinkedHashMap<String, SharedMethod> methods = new LinkedHashMap<>();
+        final LinkedHashMap<String, SharedField> fields = new LinkedHashMap<>();
+        final List<ClassNode> bridges = new ArrayList<>();
+        int counter;
+        /**
+         * Only method handles need accessors, the target has nestmates
+         */
+        boolean handlesOnly;
+
+        Unit(String host) {
+            this.host = host;
+        }
+
+        void method(String targetClass, String targetMethod, String targetMethodDesc, boolean isStatic) {
+            var key = key(targetClass, targetMethod, targetMethodDesc, isStatic);
+            if (methods.containsKey(key)) return;
+            var klass = members.get(targetClass);
+            if (klass == null || klass.methods == null) return;
+            for (var method : klass.methods) {
+                if (((method.access & Opcodes.ACC_STATIC) == 0) == isStatic) continue;
+                if ((method.access & Opcodes.ACC_PRIVATE) == 0) continue;
+                if (!method.name.equals(targetMethod)) continue;
+                if (!method.desc.equals(targetMethodDesc)) continue;
+                var met = new SharedMethod();
+                met.declaredMethod = method;
+                met.declaredClass = klass;
+                met.isStatic = (method.access & Opcodes.ACC_STATIC) != 0;
+                met.desc = method.desc;
+                methods.put(key, met);
+                return;
+            }
+        }
+
+        SharedField field(String targetClass, String targetField, String targetFieldDesc, boolean isStatic) {
+            var key = key(targetClass, targetField, targetFieldDesc, isStatic);
+            var f = fields.get(key);
+            if (f != null) return f;
+            var klass = members.get(targetClass);
+            if (klass == null || klass.fields == null) return null;
+            for (var field : klass.fields) {
+                if (((field.access & Opcodes.ACC_STATIC) == 0) == isStatic) continue;
+                if ((field.access & Opcodes.ACC_PRIVATE) == 0) continue;
+                if (!field.name.equals(targetField)) continue;
+                if (!field.desc.equals(targetFieldDesc)) continue;
+                var fie = new SharedField();
+                fie.declaredField = field;
+                fie.declaredClass = klass;
+                fie.isStatic = (field.access & Opcodes.ACC_STATIC) != 0;
+                fields.put(key, fie);
+                return fie;
+            }
+            return null;
+        }
+
+        void analyze() {
+            for (var klass : members.values()) {
+                if (klass.methods == null) continue;
+                var isInterface = (klass.access & Opcodes.ACC_INTERFACE) != 0;
+                for (var method : klass.methods) {
+                    if (method.instructions == null) continue;
+                    for (var insn : method.instructions) {
+                        if (handlesOnly && !(insn instanceof InvokeDynamicInsnNode)) continue;
+                        if (insn instanceof MethodInsnNode) {
+                            var min = (MethodInsnNode) insn;
+                            if (!isInterface && min.owner.equals(klass.name)) continue;
+                            method(min.owner, min.name, min.desc, min.getOpcode() == Opcodes.INVOKESTATIC);
+                        } else if (insn instanceof FieldInsnNode) {
+                            var fin = (FieldInsnNode) insn;
+                            if (fin.owner.equals(klass.name)) continue;
+                            var opcode = fin.getOpcode();
+                            var field = field(fin.owner, fin.name, fin.desc, opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC);
+                            if (field == null) continue;
+                            field.hasGetAccess |= (opcode == Opcodes.GETSTATIC || opcode == Opcodes.GETFIELD);
+                            field.hasSetAccess |= (opcode == Opcodes.PUTSTATIC || opcode == Opcodes.PUTFIELD);
+                        } else if (insn instanceof InvokeDynamicInsnNode) {
+                            for (var arg : ((InvokeDynamicInsnNode) insn).bsmArgs) {
+                                if (!(arg instanceof Handle)) continue;
+                                var handle = (Handle) arg;
+                                // The extra parameter of a constructor accessor doesn't fit a handle
+                                if (handle.getTag() < Opcodes.H_INVOKEVIRTUAL || handle.getTag() == Opcodes.H_NEWINVOKESPECIAL) continue;
+                                if ((!isInterface || handlesOnly) && handle.getOwner().equals(klass.name)) continue;
+                                method(handle.getOwner(), handle.getName(), handle.getDesc(), handle.getTag() == Opcodes.H_INVOKESTATIC);
+                            }
+                        }
+                    }
+                }
+            }
+            genFieldAccessors();
+            genInterfaceBridges();
+            genMethodAccessors();
+        }
+
+        private void genFieldAccessors() {
+            for (var field : fields.values()) {
+                var klass = field.declaredClass;
+                var type = Type.getType(field.declaredField.desc);
+                if (field.hasGetAccess) {
+                    var name = "accessor$" + counter++;
+                    field.getAccessName = name;
+                    var accessor = klass.visitMethod(
+                            (field.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
+                            name, "()" + field.declaredField.desc,
+                            null, null
+                    );
+                    if (!field.isStatic) {
+                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
+                    }
+                    accessor.visitFieldInsn(
+                            field.isStatic ? Opcodes.GETSTATIC : Opcodes.GETFIELD,
+                            field.declaredClass.name,
+                            field.declaredField.name,
+                            field.declaredField.desc
+                    );
+                    accessor.visitInsn(type.getOpcode(Opcodes.IRETURN));
+                    if (field.isStatic) {
+                        accessor.visitMaxs(type.getSize() + 1, type.getSize());
+                    } else {
+                        accessor.visitMaxs(type.getSize() + 2, type.getSize() + 1);
+                    }
+                }
+                if (field.hasSetAccess) {
+                    var name = "accessor$" + counter++;
+                    field.setAccessName = name;
+                    var accessor = klass.visitMethod(
+                            (field.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
+                            name, "(" + field.declaredField.desc + ")V",
+                            null, null
+                    );
+                    if (!field.isStatic) {
+                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
+                    }
+                    accessor.visitVarInsn(
+                            type.getOpcode(Opcodes.ILOAD),
+                            field.isStatic ? 0 : 1
+                    );
+                    accessor.visitFieldInsn(
+                            field.isStatic ? Opcodes.PUTSTATIC : Opcodes.PUTFIELD,
+                            field.declaredClass.name,
+                            field.declaredField.name,
+                            field.declaredField.desc
+                    );
+                    accessor.visitInsn(Opcodes.RETURN);
+                    if (field.isStatic) {
+                        accessor.visitMaxs(type.getSize() + 1, type.getSize());
+                    } else {
+                        accessor.visitMaxs(type.getSize() + 2, type.getSize() + 1);
+                    }
+                }
+            }
+        }
+
+        private void genInterfaceBridges() {
+            var itfs = new LinkedHashMap<ClassNode, List<SharedMethod>>();
+            for (var method : methods.values()) {
+                // private interface call
+                var cln = method.declaredClass;
+                if ((cln.access & Opcodes.ACC_INTERFACE) == 0) continue;
+                itfs.computeIfAbsent(cln, k -> new ArrayList<>()).add(method);
+            }
+            for (var itf : itfs.entrySet()) {
+                var node = itf.getKey();
+                var bridge = new ClassNode();
+                bridge.visit(Opcodes.V1_8,
+                        Opcodes.ACC_FINAL,
+                        node.name + "$Bridge$" + counter++,
+                        null, "java/lang/Object", null
+                );
+                bridges.add(bridge);
+                bridge.sourceDebug = node.sourceDebug;
+                bridge.sourceFile = node.sourceFile;
+                for (var met : itf.getValue()) {
+                    var m = met.declaredMethod;
+                    node.methods.remove(m);
+                    bridge.methods.add(m);
+                    m.access &= ~Opcodes.ACC_PRIVATE;
+                    if (!met.isStatic) {
+                        m.access |= Opcodes.ACC_STATIC;
+                        m.desc = "(L" + node.name + ";" + m.desc.substring(1);
+                    }
+                    met.redirectedClassName = bridge.name;
+                    met.accessorName = m.desc;
+                }
+            }
+        }
+
+        private void genMethodAccessors() {
+            for (var method : methods.values()) {
+                if (method.accessorName != null) continue;
+                if (method.declaredMethod.name.equals("<init>")) {
+                    // java.lang.SuppressWarnings;
+                    // )V
+                    var desc = method.declaredMethod.desc;
+                    desc = desc.substring(0, desc.length() - 2) + "Ljava/lang/SuppressWarnings;)V";
+                    method.accessorName = desc;
+                    var classNode = method.declaredClass;
+                    var accessor = classNode.visitMethod(
+                            Opcodes.ACC_SYNTHETIC,
+                            "<init>",
+                            desc, null, null
+                    );
+                    accessor.visitVarInsn(Opcodes.ALOAD, 0);
+                    var slot = 1;
+                    for (var t : Type.getArgumentTypes(method.declaredMethod.desc)) {
+                        accessor.visitVarInsn(t.getOpcode(Opcodes.ILOAD), slot);
+                        slot += t.getSize();
+                    }
+                    accessor.visitMethodInsn(
+                            Opcodes.INVOKESPECIAL,
+                            method.declaredClass.name,
+                            "<init>",
+                            method.declaredMethod.desc,
+                            false
+                    );
+                    accessor.visitInsn(Opcodes.RETURN);
+                    slot++;
+                    accessor.visitMaxs(slot, slot);
+
+                } else {
+                    var name = "accessor$" + counter++;
+                    method.accessorName = name;
+                    var classNode = method.declaredClass;
+                    var desc = method.declaredMethod.desc;
+                    var accessor = classNode.visitMethod(
+                            (method.isStatic ? Opcodes.ACC_STATIC : 0) | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL,
+                            name,
+                            desc,
+                            null, null
+                    );
+                    int slot = 0;
+                    if (!method.isStatic) {
+                        slot++;
+                        accessor.visitVarInsn(Opcodes.ALOAD, 0);
+                    }
+                    for (var t : Type.getArgumentTypes(desc)) {
+                        accessor.visitVarInsn(t.getOpcode(Opcodes.ILOAD), slot);
+                        slot += t.getSize();
+                    }
+
+                    accessor.visitMethodInsn(
+                            method.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKESPECIAL,
+                            method.declaredClass.name,
+                            method.declaredMethod.name,
+                            method.declaredMethod.desc,
+                            false
+                    );
+
+                    accessor.visitInsn(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN));
+
+                    slot++;
+                    accessor.visitMaxs(slot, slot);
+                }
+            }
+        }
+    }
+
+    private final HashMap<String, SharedMethod> methods = new HashMap<>();
+    private final HashMap<String, SharedField> fields = new HashMap<>();
+
+    static String key(String owner, String name, String desc, boolean isStatic) {
+        return (isStatic ? "static " : "") + owner + '.' + name + desc;
+    }
+
+    /**
+     * @return the host of the nest of {@code klass}, {@code null} if it isn't in a nest
+     */
+    static String nestHost(ClassNode klass) {
+        if (klass.nestHostClass != null) return klass.nestHostClass;
+        if (klass.nestMembers != null && !klass.nestMembers.isEmpty()) return klass.name;
+        return null;
+    }
+
+    /**
+     * Puts {@code generated} into the nest of {@code outer}, it may then access the private members of the nest
+     */
+    static void join(ClassNode outer, ClassNode generated) {
+        var host = nestHost(outer);
+        if (host == null || host.equals(outer.name)) {
+            // Without nested classes outer has no nest yet, it becomes the host
+            if (outer.nestMembers == null) outer.nestMembers = new ArrayList<>();
+            outer.nestMembers.add(generated.name);
+            host = outer.name;
+        }
+        generated.nestHostClass = host;
+    }
+
+    /**
+     * Generates the accessors and interface bridges, the bridges are added to {@code classes}
+     *
+     * @param version the class file version of the target
+     */
+    static NestAccess analyze(List<ClassNode> classes, int version) {
+        var units = new LinkedHashMap<String, Unit>();
+        for (var klass : classes) {
+            var host = nestHost(klass);
+            if (host == null) {
+                if ((klass.access & Opcodes.ACC_INTERFACE) == 0) continue;
+                host = klass.name;
+            }
+            units.computeIfAbsent(host, Unit::new).members.put(klass.name, klass);
+        }
+        for (var unit : units.values()) {
+            // Generated classes join the nest of the class they're generated for, the host lists them too
+            var host = unit.members.get(unit.host);
+            if (host == null) continue;
+            for (var member : unit.members.values()) {
+                if (member == host || !unit.host.equals(member.nestHostClass)) continue;
+                if (host.nestMembers == null) host.nestMembers = new ArrayList<>();
+                if (!host.nestMembers.contains(member.name)) host.nestMembers.add(member.name);
+            }
+        }
+        if (version >= Opcodes.V11) {
+            for (var unit : units.values()) {
+                unit.handlesOnly = unit.members.values().stream().allMatch(klass -> (klass.version & 0xFFFF) >= Opcodes.V11);
+            }
+            if (version >= Opcodes.V15) units.values().removeIf(unit -> unit.handlesOnly);
+        }
+        units.values().parallelStream().forEach(Unit::analyze);
+
+        var access = new NestAccess();
+        for (var unit : units.values()) {
+            access.methods.putAll(unit.methods);
+            access.fields.putAll(unit.fields);
+            classes.addAll(unit.bridges);
+        }
+        return access;
+    }
+
+    /**
+     * Registers the redirects to the accessors
+     */
+    void register(TransformPipeline pipeline) {
+        // replace calls
+        pipeline.onMethodInsn(cursor -> {
+            var min = (MethodInsnNode) cursor.insn;
+            var met = methods.get(key(min.owner, min.name, min.desc, min.getOpcode() == Opcodes.INVOKESTATIC));
+            if (met == null) return;
+            if (met.redirectedClassName == null && min.owner.equals(cursor.klass.name)) return;
+            if (min.name.equals("<init>")) {
+                if (met.accessorName != null) {
+                    min.desc = met.accessorName;
+                    cursor.iterator.previous();
+                    cursor.iterator.add(new InsnNode(Opcodes.ACONST_NULL));
+                    cursor.iterator.next();
+                    cursor.growStack(1);
+                }
+            } else if (met.accessorName != null) {
+                min.name = met.accessorName;
+                if (met.redirectedClassName != null) {
+                    min.owner = met.redirectedClassName;
+                    min.desc = met.accessorName;
+                    min.name = met.declaredMethod.name;
+                    min.setOpcode(Opcodes.INVOKESTATIC);
+                    min.itf = false;
+                }
+            }
+        });
+        pipeline.onFieldInsn(cursor -> {
+            var fin = (FieldInsnNode) cursor.insn;
+            if (fin.owner.equals(cursor.klass.name)) return;
+            var opcode = fin.getOpcode();
+            var field = fields.get(key(fin.owner, fin.name, fin.desc, opcode == Opcodes.GETSTATIC || opcode == Opcodes.PUTSTATIC));
+            if (field == null) return;
+            if (opcode == Opcodes.GETFIELD || opcode == Opcodes.GETSTATIC) {
+                var getAccessName = field.getAccessName;
+                cursor.replace(new MethodInsnNode(
+                        field.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKEVIRTUAL,
+                        fin.owner,
+                        getAccessName,
+                        "()" + fin.desc,
+                        false
+                ));
+            } else {
+                var setAccessName = field.setAccessName;
+                cursor.replace(new MethodInsnNode(
+                        field.isStatic ? Opcodes.INVOKESTATIC : Opcodes.INVOKEVIRTUAL,
+                        fin.owner,
+                        setAccessName,
+                        "(" + fin.desc + ")V",
+                        false
+                ));
+            }
+        });
+        pipeline.on(Opcodes.INVOKEDYNAMIC, cursor -> {
+            var bargs = ((InvokeDynamicInsnNode) cursor.insn).bsmArgs;
+            for (var i = 0; i < bargs.length; i++) {
+                if (bargs[i] instanceof Handle) {
+                    bargs[i] = redirect((Handle) bargs[i], cursor.klass);
+                }
+            }
+        });
+    }
+
+    private Handle redirect(Handle handle, ClassNode klass) {
+        var tag = handle.getTag();
+        if (tag < Opcodes.H_INVOKEVIRTUAL || tag == Opcodes.H_NEWINVOKESPECIAL) return handle;
+        var met = methods.get(key(handle.getOwner(), handle.getName(), handle.getDesc(), tag == Opcodes.H_INVOKESTATIC));
+        if (met != null && met.redirectedClassName != null) {
+            return new Handle(Opcodes.H_INVOKESTATIC, met.redirectedClassName, met.declaredMethod.name, met.accessorName, false);
+        }
+        if (handle.getOwner().equals(klass.name)) {
+            // A private method of the class itself is invoked with invokespecial on JDK 8
+            if (tag == Opcodes.H_INVOKEVIRTUAL && isPrivate(klass, handle.getName(), handle.getDesc())) {
+                return new Handle(Opcodes.H_INVOKESPECIAL, handle.getOwner(), handle.getName(), handle.getDesc(), false);
+            }
+            return handle;
+        }
+        if (met == null || met.accessorName == null) return handle;
+        return new Handle(
+                met.isStatic ? Opcodes.H_INVOKESTATIC : Opcodes.H_INVOKEVIRTUAL,
+                handle.getOwner(), met.accessorName, handle.getDesc(), false
+        );
+    }
+
+    private static boolean isPrivate(ClassNode klass, String name, String desc) {
+        for (var method : klass.methods) {
+            if (method.name.equals(name) && method.desc.equals(desc)) {
+                return (method.access & Opcodes.ACC_PRIVATE) != 0;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,257 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Lowers records to plain classes.
+ * <p>
+ * {@code java/lang/Record} is replaced by {@code java/lang/Object} and every
+ * {@code ObjectMethods.bootstrap} call site is replaced by a generated
+ * straight-line {@code equals}, {@code hashCode} or {@code toString}.
+ * Call sites for a record other than the enclosing class cannot read its private
+ * components and fail the conversion.
+ */
+public class RecordLowering {
+    static final String RECORD = "java/lang/Record";
+    static final String OBJECT_METHODS = "java/lang/runtime/ObjectMethods";
+
+    public static void lower(ClassNode klass) {
+        if (RECORD.equals(klass.superName)) {
+            klass.superName = "java/lang/Object";
+            klass.access &= ~Opcodes.ACC_RECORD;
+            klass.recordComponents = null;
+            for (var method : klass.methods) {
+                if (!method.name.equals("<init>") || method.instructions == null) continue;
+                for (var insn : method.instructions) {
+                    if (insn.getOpcode() != Opcodes.INVOKESPECIAL) continue;
+                    var min = (MethodInsnNode) insn;
+                    if (min.owner.equals(RECORD) && min.name.equals("<init>")) {
+                        min.owner = "java/lang/Object";
+                    }
+                }
+            }
+        }
+
+        var generated = new HashMap<String, String>();
+        for (var method : new ArrayList<>(klass.methods)) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (!(insn instanceof InvokeDynamicInsnNode)) continue;
+                var idn = (InvokeDynamicInsnNode) insn;
+                if (!idn.bsm.getOwner().equals(OBJECT_METHODS)) continue;
+                var recordType = (Type) idn.bsmArgs[0];
+                if (!recordType.getInternalName().equals(klass.name)) {
+                    // Components are private, only the record itself can read them
+                    throw new IllegalArgumentException("Unsupported ObjectMethods call for foreign record "
+                            + recordType.getInternalName() + " in " + klass.name + "." + method.name);
+                }
+                var name = generated.get(idn.name + idn.desc);
+                if (name == null) {
+                    name = "record$" + idn.name;
+                    generate(klass, idn, name);
+                    generated.put(idn.name + idn.desc, name);
+                }
+                insnIterator.set(new MethodInsnNode(
+                        Opcodes.INVOKESTATIC, klass.name, name, idn.desc,
+                        (klass.access & Opcodes.ACC_INTERFACE) != 0
+                ));
+            }
+        }
+    }
+
+    private static void generate(ClassNode klass, InvokeDynamicInsnNode idn, String name) {
+        var names = (String) idn.bsmArgs[1];
+        var getters = new Handle[idn.bsmArgs.length - 2];
+        for (var i = 0; i < getters.length; i++) {
+            getters[i] = (Handle) idn.bsmArgs[i + 2];
+        }
+        var mv = klass.visitMethod(
+                Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                name, idn.desc, null, null
+        );
+        switch (idn.name) {
+            case "equals":
+                genEquals(mv, klass.name, getters);
+                break;
+            case "hashCode":
+                genHashCode(mv, getters);
+                break;
+            case "toString":
+                genToString(mv, simpleName(klass), names.isEmpty() ? new String[0] : names.split(";"), getters);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown ObjectMethods method " + idn.name + " in " + klass.name);
+        }
+    }
+
+    private static void getField(MethodVisitor mv, int slot, Handle getter) {
+        mv.visitVarInsn(Opcodes.ALOAD, slot);
+        mv.visitFieldInsn(Opcodes.GETFIELD, getter.getOwner(), getter.getName(), getter.getDesc());
+    }
+
+    private static void genEquals(MethodVisitor mv, String owner, Handle[] getters) {
+        var notSame = new Label();
+        var sameType = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, notSame);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitLabel(notSame);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, owner);
+        mv.visitJumpInsn(Opcodes.IFNE, sameType);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitLabel(sameType);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        var notEquals = new Label();
+        for (var getter : getters) {
+            getField(mv, 0, getter);
+            getField(mv, 2, getter);
+            switch (Type.getType(getter.getDesc()).getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    mv.visitJumpInsn(Opcodes.IF_ICMPNE, notEquals);
+                    break;
+                case Type.LONG:
+                    mv.visitInsn(Opcodes.LCMP);
+                    mv.visitJumpInsn(Opcodes.IFNE, notEquals);
+                    break;
+                case Type.FLOAT:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "compare", "(FF)I", false);
+                    mv.visitJumpInsn(Opcodes.IFNE, notEquals);
+                    break;
+                case Type.DOUBLE:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "compare", "(DD)I", false);
+                    mv.visitJumpInsn(Opcodes.IFNE, notEquals);
+                    break;
+                default:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Objects", "equals", "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+                    mv.visitJumpInsn(Opcodes.IFEQ, notEquals);
+            }
+        }
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+        if (getters.length != 0) {
+            mv.visitLabel(notEquals);
+            mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitInsn(Opcodes.IRETURN);
+        }
+        mv.visitMaxs(4, 3);
+    }
+
+    private static void genHashCode(MethodVisitor mv, Handle[] getters) {
+        if (getters.length == 0) {
+            mv.visitInsn(Opcodes.ICONST_0);
+        }
+        for (var i = 0; i < getters.length; i++) {
+            if (i != 0) {
+                mv.visitIntInsn(Opcodes.BIPUSH, 31);
+                mv.visitInsn(Opcodes.IMUL);
+            }
+            var getter = getters[i];
+            getField(mv, 0, getter);
+            switch (Type.getType(getter.getDesc()).getSort()) {
+                case Type.BOOLEAN:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Boolean", "hashCode", "(Z)I", false);
+                    break;
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    // Byte/Short/Character/Integer.hashCode are the value itself
+                    break;
+                case Type.LONG:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "hashCode", "(J)I", false);
+                    break;
+                case Type.FLOAT:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "hashCode", "(F)I", false);
+                    break;
+                case Type.DOUBLE:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "hashCode", "(D)I", false);
+                    break;
+                default:
+                    mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Objects", "hashCode", "(Ljava/lang/Object;)I", false);
+            }
+            if (i != 0) {
+                mv.visitInsn(Opcodes.IADD);
+            }
+        }
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(3, 1);
+    }
+
+    private static void genToString(MethodVisitor mv, String simpleName, String[] names, Handle[] getters) {
+        if (getters.length == 0) {
+            mv.visitLdcInsn(simpleName + "[]");
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(1, 1);
+            return;
+        }
+        var sb = "java/lang/StringBuilder";
+        mv.visitTypeInsn(Opcodes.NEW, sb);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitLdcInsn(simpleName + "[" + names[0] + "=");
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, sb, "<init>", "(Ljava/lang/String;)V", false);
+        for (var i = 0; i < getters.length; i++) {
+            if (i != 0) {
+                mv.visitLdcInsn(", " + names[i] + "=");
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "append", "(Ljava/lang/String;)L" + sb + ";", false);
+            }
+            var getter = getters[i];
+            getField(mv, 0, getter);
+            String desc;
+            switch (Type.getType(getter.getDesc()).getSort()) {
+                case Type.BYTE:
+                case Type.SHORT:
+                    desc = "I";
+                    break;
+                case Type.BOOLEAN:
+                case Type.CHAR:
+                case Type.INT:
+                case Type.LONG:
+                case Type.FLOAT:
+                case Type.DOUBLE:
+                    desc = getter.getDesc();
+                    break;
+                default:
+                    desc = getter.getDesc().equals("Ljava/lang/String;") ? getter.getDesc() : "Ljava/lang/Object;";
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "append", "(" + desc + ")L" + sb + ";", false);
+        }
+        mv.visitIntInsn(Opcodes.BIPUSH, ']');
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "append", "(C)L" + sb + ";", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, sb, "toString", "()Ljava/lang/String;", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, 1);
+    }
+
+    private static String simpleName(ClassNode klass) {
+        for (var inner : klass.innerClasses) {
+            if (inner.name.equals(klass.name) && inner.innerName != null) {
+                return inner.innerName;
+            }
+        }
+        return klass.name.substring(klass.name.lastIndexOf('/') + 1);
+    }
+}
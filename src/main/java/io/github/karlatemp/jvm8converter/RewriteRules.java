@@ -0,0 +1,165 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.ListIterator;
+
+/**
+ * Declarative call site rewrites, for methods which only need another call target.
+ * <p>
+ * One rule per line, {@code #} starts a comment:
+ * <pre>
+ * INVOKEVIRTUAL java/nio/ByteBuffer.flip()Ljava/nio/ByteBuffer; -> java/nio/Buffer.flip()Ljava/nio/Buffer; CHECKCAST java/nio/ByteBuffer
+ * </pre>
+ * The target may start with another opcode. The optional {@code CHECKCAST} is inserted
+ * after the call, so the rewritten call site verifies like the original one.
+ * <p>
+ * The rules shipped with the converter are in {@code rewrite-rules.txt}.
+ */
+public class RewriteRules {
+    public static class Rule {
+        public int opcode;
+        public String owner;
+        public String name;
+        public String desc;
+
+        public int newOpcode;
+        public String newOwner;
+        public String newName;
+        public String newDesc;
+        public String checkcast;
+
+        @Override
+        public String toString() {
+            return "Rule{" +
+                    owner + '.' + name + desc +
+                    " -> " + newOwner + '.' + newName + newDesc +
+                    (checkcast == null ? "" : " CHECKCAST " + checkcast) +
+                    '}';
+        }
+    }
+
+    private final HashMap<String, Rule> rules = new HashMap<>();
+
+    public static RewriteRules load() {
+        var rules = new RewriteRules();
+        var res = RewriteRules.class.getResourceAsStream("rewrite-rules.txt");
+        if (res == null) return rules;
+        try (var reader = new InputStreamReader(res, StandardCharsets.UTF_8)) {
+            rules.parse(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return rules;
+    }
+
+    public void parse(Reader reader) throws IOException {
+        var br = new BufferedReader(reader);
+        var lineNumber = 0;
+        String line;
+        while ((line = br.readLine()) != null) {
+            lineNumber++;
+            var comment = line.indexOf('#');
+            if (comment != -1) line = line.substring(0, comment);
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            var parts = line.split("\\s+");
+            try {
+                add(parse(parts));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Malformed rewrite rule at line " + lineNumber + ": " + line, e);
+            }
+        }
+    }
+
+    private static Rule parse(String[] parts) {
+        var rule = new Rule();
+        var index = 0;
+        rule.opcode = opcode(parts[index++]);
+        var from = parts[index++];
+        if (!parts[index++].equals("->")) throw new IllegalArgumentException("Missing ->");
+        rule.newOpcode = rule.opcode;
+        if (!parts[index].contains("(")) {
+            rule.newOpcode = opcode(parts[index++]);
+        }
+        var to = parts[index++];
+        if (index < parts.length) {
+            if (!parts[index++].equals("CHECKCAST")) throw new IllegalArgumentException("Expected CHECKCAST");
+            rule.checkcast = parts[index++];
+        }
+        if (index != parts.length) throw new IllegalArgumentException("Trailing tokens");
+
+        var fromDesc = from.indexOf('(');
+        var fromName = from.lastIndexOf('.', fromDesc);
+        rule.owner = from.substring(0, fromName);
+        rule.name = from.substring(fromName + 1, fromDesc);
+        rule.desc = from.substring(fromDesc);
+        var toDesc = to.indexOf('(');
+        var toName = to.lastIndexOf('.', toDesc);
+        rule.newOwner = to.substring(0, toName);
+        rule.newName = to.substring(toName + 1, toDesc);
+        rule.newDesc = to.substring(toDesc);
+        return rule;
+    }
+
+    private static int opcode(String name) {
+        switch (name) {
+            case "INVOKEVIRTUAL":
+                return Opcodes.INVOKEVIRTUAL;
+            case "INVOKESPECIAL":
+                return Opcodes.INVOKESPECIAL;
+            case "INVOKESTATIC":
+                return Opcodes.INVOKESTATIC;
+            case "INVOKEINTERFACE":
+                return Opcodes.INVOKEINTERFACE;
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + name);
+        }
+    }
+
+    private static String key(int opcode, String owner, String name, String desc) {
+        return opcode + " " + owner + '.' + name + desc;
+    }
+
+    public void add(Rule rule) {
+        rules.put(key(rule.opcode, rule.owner, rule.name, rule.desc), rule);
+    }
+
+    public Rule find(int opcode, String owner, String name, String desc) {
+        if (rules.isEmpty()) return null;
+        return rules.get(key(opcode, owner, name, desc));
+    }
+
+    /**
+     * Rewrites {@code min}, the last instruction returned by {@code iterator}
+     *
+     * @return {@code true} if a rule matched
+     */
+    public boolean apply(MethodInsnNode min, ListIterator<AbstractInsnNode> iterator) {
+        var rule = find(min.getOpcode(), min.owner, min.name, min.desc);
+        if (rule == null) return false;
+        if (!min.owner.equals(rule.newOwner)) {
+            min.itf = rule.newOpcode == Opcodes.INVOKEINTERFACE;
+        } else if (rule.newOpcode == Opcodes.INVOKEINTERFACE) {
+            min.itf = true;
+        }
+        min.setOpcode(rule.newOpcode);
+        min.owner = rule.newOwner;
+        min.name = rule.newName;
+        min.desc = rule.newDesc;
+        if (rule.checkcast != null) {
+            iterator.add(new TypeInsnNode(Opcodes.CHECKCAST, rule.checkcast));
+        }
+        return true;
+    }
+}
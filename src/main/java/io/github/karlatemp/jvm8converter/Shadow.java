@@ -0,0 +1,9 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+@interface Shadow {
+    Class<?> value();
+}
@@ -0,0 +1,8 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+@interface ShadowStatic {
+}
@@ -0,0 +1,107 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.*;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Drops debug information and metadata from the output classes, see {@link Converter#shrink(java.util.Set)}.
+ * <p>
+ * Classes are always written by a fresh {@link ClassWriter}, the constant pool only holds what the
+ * written class refers to. When shrinking, classes which need no conversion are rewritten the same
+ * way instead of being copied.
+ */
+public class Shrinker {
+    public enum Strip {
+        /**
+         * {@code LocalVariableTable}, and with it {@code LocalVariableTypeTable}
+         */
+        LOCAL_VARIABLES,
+        /**
+         * {@code LocalVariableTypeTable}
+         */
+        LOCAL_VARIABLE_TYPES,
+        /**
+         * {@code LineNumberTable}, stack traces lose their line numbers
+         */
+        LINE_NUMBERS,
+        /**
+         * {@code SourceFile} and {@code SourceDebugExtension}
+         */
+        SOURCE,
+        /**
+         * {@code MethodParameters}
+         */
+        METHOD_PARAMETERS,
+        /**
+         * {@code RuntimeInvisibleParameterAnnotations}
+         */
+        INVISIBLE_PARAMETER_ANNOTATIONS,
+        /**
+         * {@code RuntimeVisibleParameterAnnotations}, may be read by reflection
+         */
+        VISIBLE_PARAMETER_ANNOTATIONS,
+    }
+
+    /**
+     * Debug information stack traces don't need, metadata read by reflection is kept
+     */
+    public static final Set<Strip> DEFAULT = Collections.unmodifiableSet(EnumSet.of(
+            Strip.LOCAL_VARIABLES, Strip.LOCAL_VARIABLE_TYPES, Strip.INVISIBLE_PARAMETER_ANNOTATIONS
+    ));
+    /**
+     * Everything except stack trace information
+     */
+    public static final Set<Strip> AGGRESSIVE = Collections.unmodifiableSet(EnumSet.of(
+            Strip.LOCAL_VARIABLES, Strip.LOCAL_VARIABLE_TYPES, Strip.METHOD_PARAMETERS,
+            Strip.INVISIBLE_PARAMETER_ANNOTATIONS, Strip.VISIBLE_PARAMETER_ANNOTATIONS
+    ));
+
+    static ClassVisitor strip(ClassVisitor next, Set<Strip> policy) {
+        if (policy.isEmpty()) return next;
+        return new ClassVisitor(Jvm8Converter.ASMV, next) {
+            @Override
+            public void visitSource(String source, String debug) {
+                if (!policy.contains(Strip.SOURCE)) super.visitSource(source, debug);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Jvm8Converter.ASMV, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                    @Override
+                    public void visitParameter(String name, int access) {
+                        if (!policy.contains(Strip.METHOD_PARAMETERS)) super.visitParameter(name, access);
+                    }
+
+                    @Override
+                    public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+                        if (!stripped(visible)) super.visitAnnotableParameterCount(parameterCount, visible);
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                        return stripped(visible) ? null : super.visitParameterAnnotation(parameter, descriptor, visible);
+                    }
+
+                    private boolean stripped(boolean visible) {
+                        return policy.contains(visible ? Strip.VISIBLE_PARAMETER_ANNOTATIONS : Strip.INVISIBLE_PARAMETER_ANNOTATIONS);
+                    }
+
+                    @Override
+                    public void visitLineNumber(int line, Label start) {
+                        if (!policy.contains(Strip.LINE_NUMBERS)) super.visitLineNumber(line, start);
+                    }
+
+                    @Override
+                    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+                        if (policy.contains(Strip.LOCAL_VARIABLES)) return;
+                        if (policy.contains(Strip.LOCAL_VARIABLE_TYPES)) signature = null;
+                        super.visitLocalVariable(name, descriptor, signature, start, end, index);
+                    }
+                };
+            }
+        };
+    }
+}
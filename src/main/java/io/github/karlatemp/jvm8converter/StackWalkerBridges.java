@@ -0,0 +1,335 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@code java.lang.StackWalker} of JDK 9+, the converted classes refer to {@link StackWalkerB} instead.
+ * <p>
+ * {@link StackWalkerB#getCallerClass()} reads the class context of a {@link SecurityManager}:
+ * the classes on the stack, without method names or line numbers.
+ * <p>
+ * {@link StackWalkerB#walk} captures the stack with a {@link Throwable} but doesn't build its
+ * stack trace. On JDK 8 a frame is decoded once the stream reaches it, through
+ * {@code JavaLangAccess.getStackTraceElement}, a walk stopping after a few frames only
+ * pays for those. Other JDKs build the whole stack trace once per walk.
+ */
+@SuppressWarnings({"unused", "removal"})
+class StackWalkerBridges {
+    @Backport("java/lang/StackWalker$Option")
+    public enum OptionB {
+        RETAIN_CLASS_REFERENCE,
+        SHOW_REFLECT_FRAMES,
+        SHOW_HIDDEN_FRAMES,
+    }
+
+    @Backport("java/lang/StackWalker$StackFrame")
+    public interface StackFrameB {
+        String getClassName();
+
+        String getMethodName();
+
+        Class<?> getDeclaringClass();
+
+        default MethodType getMethodType() {
+            throw new UnsupportedOperationException();
+        }
+
+        default String getDescriptor() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Not known from a stack trace, always negative
+         */
+        int getByteCodeIndex();
+
+        String getFileName();
+
+        int getLineNumber();
+
+        boolean isNativeMethod();
+
+        StackTraceElement toStackTraceElement();
+    }
+
+    @Backport("java/lang/StackWalker")
+    public static final class StackWalkerB {
+        static final StackWalkerB DEFAULT = new StackWalkerB(false, false);
+
+        final boolean retainClass;
+        final boolean showReflect;
+
+        StackWalkerB(boolean retainClass, boolean showReflect) {
+            this.retainClass = retainClass;
+            this.showReflect = showReflect;
+        }
+
+        public static StackWalkerB getInstance() {
+            return DEFAULT;
+        }
+
+        public static StackWalkerB getInstance(OptionB option) {
+            return getInstance(EnumSet.of(Objects.requireNonNull(option)));
+        }
+
+        public static StackWalkerB getInstance(Set<OptionB> options) {
+            if (options.isEmpty()) return DEFAULT;
+            // Hidden frames are never in a stack trace
+            return new StackWalkerB(
+                    options.contains(OptionB.RETAIN_CLASS_REFERENCE),
+                    options.contains(OptionB.SHOW_REFLECT_FRAMES)
+            );
+        }
+
+        public static StackWalkerB getInstance(Set<OptionB> options, int estimateDepth) {
+            if (estimateDepth <= 0) throw new IllegalArgumentException("estimateDepth must be > 0");
+            return getInstance(options);
+        }
+
+        public <T> T walk(Function<? super Stream<StackFrameB>, ? extends T> function) {
+            Objects.requireNonNull(function);
+            // Taken here, frame 0 is this method in both
+            var frames = new Frames(this, new Throwable(), retainClass && ClassContext.INSTANCE != null ? ClassContext.INSTANCE.classes() : null, showReflect);
+            try {
+                return function.apply(StreamSupport.stream(frames, false));
+            } finally {
+                frames.closed = true;
+            }
+        }
+
+        public void forEach(Consumer<? super StackFrameB> action) {
+            Objects.requireNonNull(action);
+            var frames = new Frames(this, new Throwable(), retainClass && ClassContext.INSTANCE != null ? ClassContext.INSTANCE.classes() : null, showReflect);
+            frames.forEachRemaining(action);
+        }
+
+        public Class<?> getCallerClass() {
+            if (!retainClass) throw new UnsupportedOperationException("This stack walker does not have RETAIN_CLASS_REFERENCE access");
+            if (ClassContext.INSTANCE != null) {
+                // ClassContext, this method, its caller and the caller's caller
+                var classes = ClassContext.INSTANCE.classes();
+                if (classes.length < 4) throw illegalCaller();
+                return classes[3];
+            }
+            // Not allowed to create a SecurityManager
+            var frames = new Frames(this, new Throwable(), null, false);
+            var caller = frames.next() == null ? null : frames.next();
+            if (caller == null) throw illegalCaller();
+            return load(caller.getClassName());
+        }
+
+        static RuntimeException illegalCaller() {
+            var message = "no caller frame";
+            try {
+                return (RuntimeException) Class.forName("java.lang.IllegalCallerException").getConstructor(String.class).newInstance(message);
+            } catch (ReflectiveOperationException e) {
+                return new IllegalStateException(message);
+            }
+        }
+
+        static Class<?> load(String name) {
+            try {
+                return Class.forName(name, false, Thread.currentThread().getContextClassLoader());
+            } catch (ClassNotFoundException e) {
+                try {
+                    return Class.forName(name, false, StackWalkerB.class.getClassLoader());
+                } catch (ClassNotFoundException e1) {
+                    throw new UnsupportedOperationException("Can't load " + name, e1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Classes on the stack, with their methods in the order of the stack trace,
+     * reflection frames are skipped
+     */
+    static final class ClassContext extends SecurityManager {
+        static final ClassContext INSTANCE = create();
+
+        static ClassContext create() {
+            try {
+                return new ClassContext();
+            } catch (SecurityException e) {
+                return null;
+            }
+        }
+
+        Class<?>[] classes() {
+            return getClassContext();
+        }
+    }
+
+    /**
+     * {@code JavaLangAccess} of JDK 8, reads single frames of a captured stack
+     */
+    static final class TraceAccess {
+        static final MethodHandle DEPTH;
+        static final MethodHandle ELEMENT;
+
+        static {
+            MethodHandle depth, element;
+            try {
+                var access = Class.forName("sun.misc.SharedSecrets").getMethod("getJavaLangAccess").invoke(null);
+                var type = Class.forName("sun.misc.JavaLangAccess");
+                var lookup = MethodHandles.publicLookup();
+                depth = lookup.findVirtual(type, "getStackTraceDepth", MethodType.methodType(int.class, Throwable.class)).bindTo(access);
+                element = lookup.findVirtual(type, "getStackTraceElement", MethodType.methodType(StackTraceElement.class, Throwable.class, int.class)).bindTo(access);
+            } catch (Throwable ignored) {
+                depth = null;
+                element = null;
+            }
+            DEPTH = depth;
+            ELEMENT = element;
+        }
+    }
+
+    /**
+     * The frames of a captured stack after frame 0, decoded one at a time
+     */
+    static final class Frames extends Spliterators.AbstractSpliterator<StackFrameB> {
+        final StackWalkerB walker;
+        final Throwable trace;
+        /**
+         * {@link ClassContext#classes()} taken by the method of frame 0, {@code null} if no class is needed
+         */
+        final Class<?>[] classes;
+        final boolean showReflect;
+        StackTraceElement[] elements;
+        int depth = -1;
+        int index = 1;
+        int classIndex = 2;
+        Class<?> declaringClass;
+        boolean closed;
+
+        Frames(StackWalkerB walker, Throwable trace, Class<?>[] classes, boolean showReflect) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.walker = walker;
+            this.trace = trace;
+            this.classes = classes;
+            this.showReflect = showReflect;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super StackFrameB> action) {
+            if (closed) throw new IllegalStateException("This stack stream is not valid for walking");
+            var element = next();
+            if (element == null) return false;
+            action.accept(new Frame(walker, element, declaringClass));
+            return true;
+        }
+
+        /**
+         * @return the next frame shown, {@code null} at the bottom of the stack
+         */
+        StackTraceElement next() {
+            while (index < depth()) {
+                var element = element(index++);
+                // The class context has no reflection frames, a class is only taken if it's the same
+                declaringClass = null;
+                if (classes != null && classIndex < classes.length && classes[classIndex].getName().equals(element.getClassName())) {
+                    declaringClass = classes[classIndex++];
+                }
+                if (!showReflect && isReflection(element)) continue;
+                return element;
+            }
+            return null;
+        }
+
+        int depth() {
+            if (depth == -1) {
+                if (TraceAccess.DEPTH != null) {
+                    try {
+                        depth = (int) TraceAccess.DEPTH.invokeExact(trace);
+                    } catch (Throwable e) {
+                        throw new InternalError(e);
+                    }
+                } else {
+                    elements = trace.getStackTrace();
+                    depth = elements.length;
+                }
+            }
+            return depth;
+        }
+
+        StackTraceElement element(int index) {
+            if (elements != null) return elements[index];
+            try {
+                return (StackTraceElement) TraceAccess.ELEMENT.invokeExact(trace, index);
+            } catch (Throwable e) {
+                throw new InternalError(e);
+            }
+        }
+
+        static boolean isReflection(StackTraceElement element) {
+            var name = element.getClassName();
+            return name.equals("java.lang.reflect.Method") || name.equals("java.lang.reflect.Constructor")
+                    || name.startsWith("sun.reflect.") || name.startsWith("jdk.internal.reflect.");
+        }
+    }
+
+    static final class Frame implements StackFrameB {
+        final StackWalkerB walker;
+        final StackTraceElement element;
+        final Class<?> declaringClass;
+
+        Frame(StackWalkerB walker, StackTraceElement element, Class<?> declaringClass) {
+            this.walker = walker;
+            this.element = element;
+            this.declaringClass = declaringClass;
+        }
+
+        @Override
+        public String getClassName() {
+            return element.getClassName();
+        }
+
+        @Override
+        public String getMethodName() {
+            return element.getMethodName();
+        }
+
+        @Override
+        public Class<?> getDeclaringClass() {
+            if (!walker.retainClass) throw new UnsupportedOperationException("No access to RETAIN_CLASS_REFERENCE");
+            return declaringClass != null ? declaringClass : StackWalkerB.load(element.getClassName());
+        }
+
+        @Override
+        public int getByteCodeIndex() {
+            return -1;
+        }
+
+        @Override
+        public String getFileName() {
+            return element.getFileName();
+        }
+
+        @Override
+        public int getLineNumber() {
+            return element.getLineNumber();
+        }
+
+        @Override
+        public boolean isNativeMethod() {
+            return element.isNativeMethod();
+        }
+
+        @Override
+        public StackTraceElement toStackTraceElement() {
+            return element;
+        }
+
+        @Override
+        public String toString() {
+            return element.toString();
+        }
+    }
+}
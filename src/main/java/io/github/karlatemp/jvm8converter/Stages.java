@@ -0,0 +1,235 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of one conversion, running at the same time and connected by bounded queues.
+ * <p>
+ * Every stage has one worker and takes its items from its own queue, a full queue blocks
+ * the stage feeding it. When a stage fails the others give up at their next queue operation
+ * and {@link #join()} rethrows the failure.
+ * <p>
+ * Each stage counts its items, its busy time, the time it waited for input (the stage before
+ * is slower) and the time it waited for room in the next queue (the stage after is slower).
+ */
+public class Stages {
+    private static final Object END = new Object();
+
+    public static final class Stage {
+        private final Stages stages;
+        private final String name;
+        private final ArrayBlockingQueue<Object> queue;
+        private Thread thread;
+        long items;
+        long bytes;
+        long startNanos;
+        long endNanos;
+        long starvedNanos;
+        long blockedNanos;
+        long depthSum;
+        int depthMax;
+
+        Stage(Stages stages, String name, int capacity) {
+            this.stages = stages;
+            this.name = name;
+            this.queue = capacity == 0 ? null : new ArrayBlockingQueue<>(capacity);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long items() {
+            return items;
+        }
+
+        /**
+         * Uncompressed bytes passed on, or written by the last stage
+         */
+        public long bytes() {
+            return bytes;
+        }
+
+        public long wallNanos() {
+            return endNanos - startNanos;
+        }
+
+        public long busyNanos() {
+            return wallNanos() - starvedNanos - blockedNanos;
+        }
+
+        /**
+         * Time spent waiting for the previous stage
+         */
+        public long starvedNanos() {
+            return starvedNanos;
+        }
+
+        /**
+         * Time spent waiting for the next stage
+         */
+        public long blockedNanos() {
+            return blockedNanos;
+        }
+
+        public int capacity() {
+            return queue == null ? 0 : queue.remainingCapacity() + queue.size();
+        }
+
+        public int maxDepth() {
+            return depthMax;
+        }
+
+        /**
+         * Queued items seen by each take
+         */
+        public double averageDepth() {
+            return items == 0 ? 0 : (double) depthSum / items;
+        }
+
+        /**
+         * Items per busy second, what the stage could do if never waiting
+         */
+        public double throughput() {
+            var busy = busyNanos();
+            return busy <= 0 ? 0 : items * 1e9 / busy;
+        }
+
+        /**
+         * @return the next item, {@code null} once the stage before is done
+         */
+        @SuppressWarnings("unchecked")
+        <T> T take() throws InterruptedException {
+            var depth = queue.size();
+            depthSum += depth;
+            depthMax = Math.max(depthMax, depth);
+            var start = System.nanoTime();
+            Object item;
+            do {
+                stages.checkFailure();
+            } while ((item = queue.poll(50, TimeUnit.MILLISECONDS)) == null);
+            starvedNanos += System.nanoTime() - start;
+            if (item == END) return null;
+            items++;
+            return (T) item;
+        }
+
+        /**
+         * Hands an item to the next stage, called by the worker of this stage
+         */
+        void emit(Stage next, Object item, long bytes) throws InterruptedException {
+            if (queue == null) items++;
+            this.bytes += bytes;
+            offer(next, item);
+        }
+
+        /**
+         * Tells the next stage nothing follows
+         */
+        void end(Stage next) throws InterruptedException {
+            offer(next, END);
+        }
+
+        private void offer(Stage next, Object item) throws InterruptedException {
+            var start = System.nanoTime();
+            do {
+                stages.checkFailure();
+            } while (!next.queue.offer(item, 50, TimeUnit.MILLISECONDS));
+            blockedNanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-9s %6d items %8.1f KiB  wall %5dms busy %5dms starved %5dms blocked %5dms  queue %3d/%d avg %.1f  %.0f items/s",
+                    name, items, bytes / 1024.0,
+                    wallNanos() / 1_000_000, busyNanos() / 1_000_000, starvedNanos / 1_000_000, blockedNanos / 1_000_000,
+                    depthMax, capacity(), averageDepth(), throughput()
+            );
+        }
+    }
+
+    @FunctionalInterface
+    interface Worker {
+        void run(Stage stage) throws Exception;
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private volatile Throwable failure;
+
+    /**
+     * @param capacity of the input queue, {@code 0} for a stage without input
+     */
+    Stage stage(String name, int capacity) {
+        var stage = new Stage(this, name, capacity);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Runs the stage on a new thread
+     */
+    void start(Stage stage, Worker worker) {
+        stage.thread = new Thread(() -> {
+            try {
+                run(stage, worker);
+            } catch (Throwable e) {
+                fail(e);
+            }
+        }, "Jvm8Converter " + stage.name);
+        stage.thread.setDaemon(true);
+        stage.thread.start();
+    }
+
+    /**
+     * Runs the stage on the current thread
+     */
+    void run(Stage stage, Worker worker) throws Exception {
+        stage.startNanos = System.nanoTime();
+        try {
+            worker.run(stage);
+        } finally {
+            stage.endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * Waits until a stage is done, for a stage which needs all of its input at once
+     */
+    void await(Stage done, Stage waiting) throws InterruptedException {
+        var start = System.nanoTime();
+        done.thread.join();
+        waiting.starvedNanos += System.nanoTime() - start;
+        checkFailure();
+    }
+
+    synchronized void fail(Throwable failure) {
+        if (this.failure == null && !(failure instanceof CancellationException)) {
+            this.failure = failure;
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) throw new CancellationException();
+    }
+
+    /**
+     * Waits for the started stages, rethrows the first failure
+     */
+    void join() throws Exception {
+        for (var stage : stages) {
+            if (stage.thread != null) stage.thread.join();
+        }
+        var failure = this.failure;
+        if (failure instanceof Exception) throw (Exception) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new RuntimeException(failure);
+    }
+
+    public List<Stage> stages() {
+        return stages;
+    }
+}
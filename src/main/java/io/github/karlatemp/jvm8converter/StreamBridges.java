@@ -0,0 +1,403 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stream, Optional and Collectors methods of JDK 9 - 16.
+ * <p>
+ * Stream operations are spliterators wrapping the source spliterator,
+ * nothing is buffered and the result stream stays lazy.
+ */
+@SuppressWarnings({"unchecked", "DuplicatedCode"})
+class StreamBridges {
+    @Shadow(Stream.class)
+    static class StreamB {
+        public static <T> Stream<T> takeWhile(Stream<T> thiz, Predicate<? super T> predicate) {
+            Objects.requireNonNull(predicate);
+            return wrap(thiz, new TakeWhileSpliterator<>(thiz.spliterator(), predicate));
+        }
+
+        public static <T> Stream<T> dropWhile(Stream<T> thiz, Predicate<? super T> predicate) {
+            Objects.requireNonNull(predicate);
+            return wrap(thiz, new DropWhileSpliterator<>(thiz.spliterator(), predicate));
+        }
+
+        public static <T, R> Stream<R> mapMulti(Stream<T> thiz, BiConsumer<? super T, ? super Consumer<R>> mapper) {
+            Objects.requireNonNull(mapper);
+            return thiz.flatMap(e -> {
+                var buffer = Stream.<R>builder();
+                mapper.accept(e, buffer);
+                return buffer.build();
+            });
+        }
+
+        public static <T> List<T> toList(Stream<T> thiz) {
+            return new CollectionBridges.ListN<>(thiz.toArray(), true);
+        }
+
+        @ShadowStatic
+        public static <T> Stream<T> iterate(T seed, Predicate<? super T> hasNext, UnaryOperator<T> next) {
+            Objects.requireNonNull(hasNext);
+            Objects.requireNonNull(next);
+            return StreamSupport.stream(new IterateSpliterator<>(seed, hasNext, next), false);
+        }
+
+        @ShadowStatic
+        public static <T> Stream<T> ofNullable(T t) {
+            return t == null ? Stream.empty() : Stream.of(t);
+        }
+
+        static <T> Stream<T> wrap(Stream<?> source, Spliterator<T> spliterator) {
+            return StreamSupport.stream(spliterator, source.isParallel()).onClose(source::close);
+        }
+    }
+
+    @Shadow(Optional.class)
+    static class OptionalB {
+        public static boolean isEmpty(Optional<?> thiz) {
+            return !thiz.isPresent();
+        }
+
+        public static <T> Stream<T> stream(Optional<T> thiz) {
+            return thiz.isPresent() ? Stream.of(thiz.get()) : Stream.empty();
+        }
+
+        public static <T> Optional<T> or(Optional<T> thiz, Supplier<? extends Optional<? extends T>> supplier) {
+            Objects.requireNonNull(supplier);
+            if (thiz.isPresent()) return thiz;
+            return (Optional<T>) Objects.requireNonNull(supplier.get());
+        }
+
+        public static <T> T orElseThrow(Optional<T> thiz) {
+            if (!thiz.isPresent()) throw new NoSuchElementException("No value present");
+            return thiz.get();
+        }
+
+        public static <T> void ifPresentOrElse(Optional<T> thiz, Consumer<? super T> action, Runnable emptyAction) {
+            if (thiz.isPresent()) {
+                action.accept(thiz.get());
+            } else {
+                emptyAction.run();
+            }
+        }
+    }
+
+    @Shadow(Collectors.class)
+    static class CollectorsB {
+        @ShadowStatic
+        public static <T> Collector<T, ?, List<T>> toUnmodifiableList() {
+            return Collector.of(
+                    ArrayList::new, List::add,
+                    (left, right) -> {
+                        left.addAll(right);
+                        return left;
+                    },
+                    list -> CollectionBridges.ListN.fromTrustedArray(list.toArray())
+            );
+        }
+
+        @ShadowStatic
+        public static <T> Collector<T, ?, Set<T>> toUnmodifiableSet() {
+            return Collector.<T, HashSet<T>, Set<T>>of(
+                    HashSet::new, Set::add,
+                    (left, right) -> {
+                        if (left.size() < right.size()) {
+                            right.addAll(left);
+                            return right;
+                        }
+                        left.addAll(right);
+                        return left;
+                    },
+                    set -> CollectionBridges.SetB.<T>copyOf(set),
+                    Collector.Characteristics.UNORDERED
+            );
+        }
+
+        @ShadowStatic
+        public static <T, K, U> Collector<T, ?, Map<K, U>> toUnmodifiableMap(
+                Function<? super T, ? extends K> keyMapper,
+                Function<? super T, ? extends U> valueMapper
+        ) {
+            return Collectors.collectingAndThen(
+                    Collectors.toMap(keyMapper, valueMapper),
+                    map -> CollectionBridges.MapB.copyOf(map)
+            );
+        }
+
+        @ShadowStatic
+        public static <T, K, U> Collector<T, ?, Map<K, U>> toUnmodifiableMap(
+                Function<? super T, ? extends K> keyMapper,
+                Function<? super T, ? extends U> valueMapper,
+                BinaryOperator<U> mergeFunction
+        ) {
+            return Collectors.collectingAndThen(
+                    Collectors.toMap(keyMapper, valueMapper, mergeFunction, HashMap::new),
+                    map -> CollectionBridges.MapB.copyOf(map)
+            );
+        }
+
+        @ShadowStatic
+        public static <T, A, R> Collector<T, ?, R> filtering(
+                Predicate<? super T> predicate,
+                Collector<? super T, A, R> downstream
+        ) {
+            var accumulator = downstream.accumulator();
+            return Collector.of(
+                    downstream.supplier(),
+                    (container, t) -> {
+                        if (predicate.test(t)) accumulator.accept(container, t);
+                    },
+                    downstream.combiner(),
+                    downstream.finisher(),
+                    downstream.characteristics().toArray(new Collector.Characteristics[0])
+            );
+        }
+
+        @ShadowStatic
+        public static <T, U, A, R> Collector<T, ?, R> flatMapping(
+                Function<? super T, ? extends Stream<? extends U>> mapper,
+                Collector<? super U, A, R> downstream
+        ) {
+            var accumulator = downstream.accumulator();
+            return Collector.of(
+                    downstream.supplier(),
+                    (container, t) -> {
+                        try (var result = mapper.apply(t)) {
+                            if (result != null) result.sequential().forEach(u -> accumulator.accept(container, u));
+                        }
+                    },
+                    downstream.combiner(),
+                    downstream.finisher(),
+                    downstream.characteristics().toArray(new Collector.Characteristics[0])
+            );
+        }
+
+        @ShadowStatic
+        public static <T, R1, R2, R> Collector<T, ?, R> teeing(
+                Collector<? super T, ?, R1> downstream1,
+                Collector<? super T, ?, R2> downstream2,
+                BiFunction<? super R1, ? super R2, R> merger
+        ) {
+            Objects.requireNonNull(merger);
+            var c1 = (Collector<T, Object, R1>) downstream1;
+            var c2 = (Collector<T, Object, R2>) downstream2;
+            var supplier1 = c1.supplier();
+            var supplier2 = c2.supplier();
+            var accumulator1 = c1.accumulator();
+            var accumulator2 = c2.accumulator();
+            var combiner1 = c1.combiner();
+            var combiner2 = c2.combiner();
+            var finisher1 = c1.finisher();
+            var finisher2 = c2.finisher();
+            var unordered = c1.characteristics().contains(Collector.Characteristics.UNORDERED)
+                    && c2.characteristics().contains(Collector.Characteristics.UNORDERED);
+            return Collector.of(
+                    () -> new Pair(supplier1.get(), supplier2.get()),
+                    (pair, t) -> {
+                        accumulator1.accept(pair.left, t);
+                        accumulator2.accept(pair.right, t);
+                    },
+                    (a, b) -> {
+                        a.left = combiner1.apply(a.left, b.left);
+                        a.right = combiner2.apply(a.right, b.right);
+                        return a;
+                    },
+                    pair -> merger.apply(finisher1.apply(pair.left), finisher2.apply(pair.right)),
+                    unordered ? new Collector.Characteristics[]{Collector.Characteristics.UNORDERED} : new Collector.Characteristics[0]
+            );
+        }
+    }
+
+    static final class Pair {
+        Object left;
+        Object right;
+
+        Pair(Object left, Object right) {
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Spliterator of the elements before the first one failing {@code predicate}.
+     * Unordered sources are split, each part stops independently.
+     */
+    static final class TakeWhileSpliterator<T> implements Spliterator<T>, Consumer<T> {
+        final Spliterator<T> source;
+        final Predicate<? super T> predicate;
+        boolean done;
+        T current;
+
+        TakeWhileSpliterator(Spliterator<T> source, Predicate<? super T> predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void accept(T t) {
+            current = t;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (done) return false;
+            if (!source.tryAdvance(this)) {
+                done = true;
+                return false;
+            }
+            var t = current;
+            current = null;
+            if (!predicate.test(t)) {
+                done = true;
+                return false;
+            }
+            action.accept(t);
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (done || source.hasCharacteristics(ORDERED)) return null;
+            var split = source.trySplit();
+            return split == null ? null : new TakeWhileSpliterator<>(split, predicate);
+        }
+
+        @Override
+        public long estimateSize() {
+            return done ? 0 : source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return source.characteristics() & ~(SIZED | SUBSIZED);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return source.getComparator();
+        }
+    }
+
+    /**
+     * Spliterator of the elements from the first one failing {@code predicate}.
+     * Once the prefix is dropped, the source is traversed directly.
+     */
+    static final class DropWhileSpliterator<T> implements Spliterator<T>, Consumer<T> {
+        final Spliterator<T> source;
+        final Predicate<? super T> predicate;
+        boolean dropped;
+        T current;
+
+        DropWhileSpliterator(Spliterator<T> source, Predicate<? super T> predicate) {
+            this.source = source;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void accept(T t) {
+            current = t;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (dropped) return source.tryAdvance(action);
+            dropped = true;
+            while (source.tryAdvance(this)) {
+                var t = current;
+                current = null;
+                if (!predicate.test(t)) {
+                    action.accept(t);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (!dropped && !tryAdvance(action)) return;
+            source.forEachRemaining(action);
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (dropped) {
+                // Only the not yet traversed suffix is left
+                return source.trySplit();
+            }
+            if (source.hasCharacteristics(ORDERED)) return null;
+            var split = source.trySplit();
+            return split == null ? null : new DropWhileSpliterator<>(split, predicate);
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            if (dropped) return source.characteristics();
+            return source.characteristics() & ~(SIZED | SUBSIZED);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return source.getComparator();
+        }
+    }
+
+    /**
+     * {@code Stream.iterate(seed, hasNext, next)}, split in batches by {@link Spliterators.AbstractSpliterator}
+     */
+    static final class IterateSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        final Predicate<? super T> hasNext;
+        final UnaryOperator<T> next;
+        T prev;
+        boolean started;
+        boolean finished;
+
+        IterateSpliterator(T seed, Predicate<? super T> hasNext, UnaryOperator<T> next) {
+            super(Long.MAX_VALUE, ORDERED | IMMUTABLE);
+            this.prev = seed;
+            this.hasNext = hasNext;
+            this.next = next;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (finished) return false;
+            T t;
+            if (started) {
+                t = next.apply(prev);
+            } else {
+                t = prev;
+                started = true;
+            }
+            if (!hasNext.test(t)) {
+                prev = null;
+                finished = true;
+                return false;
+            }
+            action.accept(prev = t);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (finished) return;
+            finished = true;
+            var t = started ? next.apply(prev) : prev;
+            prev = null;
+            while (hasNext.test(t)) {
+                action.accept(t);
+                t = next.apply(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.ConstantDynamic;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.*;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Lowers {@code SwitchBootstraps.typeSwitch} / {@code enumSwitch} call sites.
+ * <p>
+ * Every call site is replaced by an invokestatic of a generated helper with the same
+ * descriptor. The helper jumps to the restart index with a {@code tableswitch} and tests
+ * the labels with {@code instanceof} / constant comparisons, qualified enum constants
+ * ({@code EnumDesc} labels) with a {@code getstatic} of the constant. The {@code tableswitch} that
+ * javac emitted on the returned index is kept. Call sites with other labels fail the conversion.
+ * <p>
+ * {@code MatchException}, thrown by exhaustive switches, becomes its super class {@code RuntimeException}
+ * everywhere in the class, also in exception handlers and member types.
+ */
+public class SwitchLowering {
+    static final String SWITCH_BOOTSTRAPS = "java/lang/runtime/SwitchBootstraps";
+    static final String MATCH_EXCEPTION = "java/lang/MatchException";
+    static final String CONSTANT_BOOTSTRAPS = "java/lang/invoke/ConstantBootstraps";
+
+    /**
+     * @return {@code klass}, or a copy of it if it refers to {@code MatchException}
+     */
+    public static ClassNode lower(ClassNode klass) {
+        var isInterface = (klass.access & Opcodes.ACC_INTERFACE) != 0;
+        var counter = 0;
+        for (var method : new ArrayList<>(klass.methods)) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (insn instanceof InvokeDynamicInsnNode) {
+                    var idn = (InvokeDynamicInsnNode) insn;
+                    if (!idn.bsm.getOwner().equals(SWITCH_BOOTSTRAPS)) continue;
+                    if (!isSupported(idn)) {
+                        throw new IllegalArgumentException("Unsupported " + idn.name + " labels in " + klass.name + "." + method.name);
+                    }
+                    var name = idn.name + "$" + counter++;
+                    var mv = klass.visitMethod(
+                            (isInterface ? Opcodes.ACC_PUBLIC : Opcodes.ACC_PRIVATE) | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+                            name, idn.desc, null, null
+                    );
+                    generate(mv, idn);
+                    insnIterator.set(new MethodInsnNode(Opcodes.INVOKESTATIC, klass.name, name, idn.desc, isInterface));
+                }
+            }
+        }
+        if (!MethodBridgeMap.mentions(klass, Set.of(MATCH_EXCEPTION))) return klass;
+        var node = new ClassNode();
+        klass.accept(new ClassRemapper(node, new SimpleRemapper(MATCH_EXCEPTION, "java/lang/RuntimeException")));
+        return node;
+    }
+
+    private static boolean isSupported(InvokeDynamicInsnNode idn) {
+        if (!idn.name.equals("typeSwitch") && !idn.name.equals("enumSwitch")) return false;
+        for (var label : idn.bsmArgs) {
+            if (label instanceof Type) continue;
+            if (label instanceof String) continue;
+            if (label instanceof Integer && idn.name.equals("typeSwitch")) continue;
+            if (enumConstant(label) != null) continue;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The enum class and constant name of an {@code EnumDesc.of(ClassDesc.of(name), constant)} label
+     *
+     * @return {@code null} if {@code label} isn't such a constant
+     */
+    static String[] enumConstant(Object label) {
+        if (!(label instanceof ConstantDynamic)) return null;
+        var enumDesc = (ConstantDynamic) label;
+        if (!isInvoke(enumDesc, "java/lang/Enum$EnumDesc", "of", 3)) return null;
+        var name = enumDesc.getBootstrapMethodArgument(2);
+        var classDesc = enumDesc.getBootstrapMethodArgument(1);
+        if (!(name instanceof String) || !(classDesc instanceof ConstantDynamic)) return null;
+        var type = (ConstantDynamic) classDesc;
+        String owner;
+        if (isInvoke(type, "java/lang/constant/ClassDesc", "of", 2) && type.getBootstrapMethodArgument(1) instanceof String) {
+            owner = ((String) type.getBootstrapMethodArgument(1)).replace('.', '/');
+        } else if (isInvoke(type, "java/lang/constant/ClassDesc", "ofDescriptor", 2) && type.getBootstrapMethodArgument(1) instanceof String) {
+            owner = Type.getType((String) type.getBootstrapMethodArgument(1)).getInternalName();
+        } else {
+            return null;
+        }
+        return new String[]{owner, (String) name};
+    }
+
+    /**
+     * Whether {@code cst} is a {@code ConstantBootstraps.invoke} of the static {@code owner.name} with {@code arguments - 1} arguments
+     */
+    private static boolean isInvoke(ConstantDynamic cst, String owner, String name, int arguments) {
+        if (!cst.getBootstrapMethod().getOwner().equals(CONSTANT_BOOTSTRAPS) || !cst.getName().equals("invoke")) return false;
+        if (cst.getBootstrapMethodArgumentCount() != arguments) return false;
+        var factory = cst.getBootstrapMethodArgument(0);
+        return factory instanceof Handle && ((Handle) factory).getTag() == Opcodes.H_INVOKESTATIC
+                && ((Handle) factory).getOwner().equals(owner) && ((Handle) factory).getName().equals(name);
+    }
+
+    private static void generate(MethodVisitor mv, InvokeDynamicInsnNode idn) {
+        var labels = idn.bsmArgs;
+        var targetType = Type.getArgumentTypes(idn.desc)[0].getInternalName();
+        var start = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitJumpInsn(Opcodes.IFNONNULL, start);
+        mv.visitInsn(Opcodes.ICONST_M1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitLabel(start);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+
+        if (labels.length == 0) {
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitInsn(Opcodes.IRETURN);
+            mv.visitMaxs(1, 2);
+            return;
+        }
+        var end = new Label();
+        {
+            var cases = new Label[labels.length];
+            for (var i = 0; i < cases.length; i++) {
+                cases[i] = new Label();
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitTableSwitchInsn(0, cases.length - 1, end, cases);
+            for (var i = 0; i < labels.length; i++) {
+                var next = i + 1 == labels.length ? end : cases[i + 1];
+                var label = labels[i];
+                mv.visitLabel(cases[i]);
+                mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+                var enumConstant = enumConstant(label);
+                if (label instanceof Type) {
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitTypeInsn(Opcodes.INSTANCEOF, ((Type) label).getInternalName());
+                    mv.visitJumpInsn(Opcodes.IFEQ, next);
+                } else if (enumConstant != null) {
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitFieldInsn(Opcodes.GETSTATIC, enumConstant[0], enumConstant[1], "L" + enumConstant[0] + ";");
+                    mv.visitJumpInsn(Opcodes.IF_ACMPNE, next);
+                } else if (label instanceof String && idn.name.equals("enumSwitch")) {
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitFieldInsn(Opcodes.GETSTATIC, targetType, (String) label, "L" + targetType + ";");
+                    mv.visitJumpInsn(Opcodes.IF_ACMPNE, next);
+                } else if (label instanceof String) {
+                    mv.visitLdcInsn(label);
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "equals", "(Ljava/lang/Object;)Z", false);
+                    mv.visitJumpInsn(Opcodes.IFEQ, next);
+                } else {
+                    var value = (Integer) label;
+                    var character = new Label();
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/lang/Number");
+                    mv.visitJumpInsn(Opcodes.IFEQ, character);
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Number");
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Number", "intValue", "()I", false);
+                    pushInt(mv, value);
+                    mv.visitJumpInsn(Opcodes.IF_ICMPNE, next);
+                    pushInt(mv, i);
+                    mv.visitInsn(Opcodes.IRETURN);
+
+                    mv.visitLabel(character);
+                    mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/lang/Character");
+                    mv.visitJumpInsn(Opcodes.IFEQ, next);
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Character");
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Character", "charValue", "()C", false);
+                    pushInt(mv, value);
+                    mv.visitJumpInsn(Opcodes.IF_ICMPNE, next);
+                }
+                pushInt(mv, i);
+                mv.visitInsn(Opcodes.IRETURN);
+            }
+        }
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        pushInt(mv, labels.length);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(2, 2);
+    }
+
+    static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.karlatemp.jvm8converter;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bridge telemetry of a converted jar, injected into the runtime package with {@link Converter#telemetry(boolean)}.
+ * <p>
+ * Each bridge method counts its calls in a {@link LongAdder}, each proxy {@code <clinit>} records the
+ * time it spent linking its bridges and each string concat call site its bootstrap time.
+ * The platform MBean {@code io.github.karlatemp.jvm8converter:type=BridgeTelemetry,runtime=<package>}
+ * exposes them. With {@code -Djvm8converter.telemetry.dump=<file>}, or {@code -} for stderr, they are
+ * written at shutdown.
+ */
+public class Telemetry implements TelemetryMXBean {
+    static final ConcurrentHashMap<String, LongAdder> CALLS = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, Long> LINKING = new ConcurrentHashMap<>();
+    static final ConcurrentHashMap<String, Long> LINKED = new ConcurrentHashMap<>();
+    static final LongAdder CONCAT_SITES = new LongAdder();
+    static final LongAdder CONCAT_NANOS = new LongAdder();
+    static final LongAccumulator CONCAT_MAX_NANOS = new LongAccumulator(Math::max, 0);
+
+    static {
+        var runtime = Telemetry.class.getName();
+        runtime = runtime.substring(0, Math.max(runtime.lastIndexOf('.'), 0));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(new Telemetry(), TelemetryMXBean.class, true),
+                    new ObjectName("io.github.karlatemp.jvm8converter:type=BridgeTelemetry,runtime=" + ObjectName.quote(runtime))
+            );
+        } catch (Exception | LinkageError e) {
+            // No JMX, the telemetry can still be dumped
+            System.err.println("[Telemetry] MBean not registered: " + e);
+        }
+        var dump = System.getProperty("jvm8converter.telemetry.dump");
+        if (dump != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Dump(dump), "BridgeTelemetryDump"));
+        }
+    }
+
+    /**
+     * Called by the {@code <clinit>} of a proxy
+     *
+     * @param bridge the bridged JDK member, {@code owner.name(desc)}
+     */
+    public static LongAdder counter(String bridge) {
+        var counter = new LongAdder();
+        var existing = CALLS.putIfAbsent(bridge, counter);
+        return existing != null ? existing : counter;
+    }
+
+    public static void linking(String type) {
+        LINKING.put(type, System.nanoTime());
+    }
+
+    public static void linked(String type) {
+        var start = LINKING.remove(type);
+        if (start != null) LINKED.put(type, System.nanoTime() - start);
+    }
+
+    public static CallSite makeConcatWithConstants(
+            MethodHandles.Lookup lookup,
+            String name,
+            MethodType concatType,
+            String recipe,
+            Object... constants
+    ) throws Exception {
+        var start = System.nanoTime();
+        try {
+            return Jvm8Converter.StringCCF.makeConcatWithConstants(lookup, name, concatType, recipe, constants);
+        } finally {
+            concatLinked(System.nanoTime() - start);
+        }
+    }
+
+    public static CallSite makeConcat(
+            MethodHandles.Lookup lookup,
+            String name,
+            MethodType concatType
+    ) throws Exception {
+        var start = System.nanoTime();
+        try {
+            return Jvm8Converter.StringCCF.makeConcat(lookup, name, concatType);
+        } finally {
+            concatLinked(System.nanoTime() - start);
+        }
+    }
+
+    static void concatLinked(long nanos) {
+        CONCAT_SITES.increment();
+        CONCAT_NANOS.add(nanos);
+        CONCAT_MAX_NANOS.accumulate(nanos);
+    }
+
+    @Override
+    public Map<String, Long> getBridgeCalls() {
+        var calls = new TreeMap<String, Long>();
+        for (var entry : CALLS.entrySet()) {
+            calls.put(entry.getKey(), entry.getValue().sum());
+        }
+        return calls;
+    }
+
+    @Override
+    public Map<String, Long> getProxyLinkNanos() {
+        return new TreeMap<>(LINKED);
+    }
+
+    @Override
+    public long getConcatCallSites() {
+        return CONCAT_SITES.sum();
+    }
+
+    @Override
+    public long getConcatLinkNanos() {
+        return CONCAT_NANOS.sum();
+    }
+
+    @Override
+    public long getConcatMaxLinkNanos() {
+        return CONCAT_MAX_NANOS.get();
+    }
+
+    /**
+     * The called bridges by calls, then the proxies by link time
+     */
+    @Override
+    public String dump() {
+        var text = new StringBuilder();
+        var calls = new ArrayList<>(getBridgeCalls().entrySet());
+        calls.removeIf(entry -> entry.getValue() == 0);
+        calls.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        text.append("bridge calls: ").append(calls.size()).append('\n');
+        for (var entry : calls) {
+            text.append(String.format("  %12d %s%n", entry.getValue(), entry.getKey()));
+        }
+        var linked = new ArrayList<>(getProxyLinkNanos().entrySet());
+        linked.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        text.append("proxy linkage: ").append(linked.size()).append('\n');
+        for (var entry : linked) {
+            text.append(String.format("  %10.3fms %s%n", entry.getValue() / 1e6, entry.getKey()));
+        }
+        text.append(String.format("concat call sites: %d, linkage %.3fms, max %.3fms%n",
+                getConcatCallSites(), getConcatLinkNanos() / 1e6, getConcatMaxLinkNanos() / 1e6));
+        return text.toString();
+    }
+
+    static final class Dump implements Runnable {
+        final String file;
+
+        Dump(String file) {
+            this.file = file;
+        }
+
+        @Override
+        public void run() {
+            var text = new Telemetry().dump();
+            if (file.equals("-")) {
+                System.err.print(text);
+                return;
+            }
+            try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                out.write(text);
+            } catch (Exception e) {
+                System.err.println("[Telemetry] " + file + ": " + e);
+            }
+        }
+    }
+}
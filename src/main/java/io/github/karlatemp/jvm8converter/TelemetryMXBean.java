@@ -0,0 +1,26 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.util.Map;
+
+/**
+ * The platform MBean of {@link Telemetry}
+ */
+public interface TelemetryMXBean {
+    /**
+     * Calls per bridged JDK member
+     */
+    Map<String, Long> getBridgeCalls();
+
+    /**
+     * {@code <clinit>} time per proxied JDK type
+     */
+    Map<String, Long> getProxyLinkNanos();
+
+    long getConcatCallSites();
+
+    long getConcatLinkNanos();
+
+    long getConcatMaxLinkNanos();
+
+    String dump();
+}
@@ -0,0 +1,164 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.ListIterator;
+
+/**
+ * The rewriting passes of one conversion, fused into a single traversal of every method.
+ * <p>
+ * Passes register per-opcode handlers, {@link #run()} walks each instruction list once and
+ * dispatches every instruction to the handlers of its opcode in registration order.
+ * If a handler {@link Cursor#replace replaces} the instruction, the handlers after it are skipped.
+ * Class handlers run before the methods of a class are walked.
+ * <p>
+ * Further passes are found with {@link java.util.ServiceLoader}, see {@link ConversionPass}.
+ */
+public class TransformPipeline {
+    @FunctionalInterface
+    public interface InsnHandler {
+        void handle(Cursor cursor) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ClassHandler {
+        void handle(ClassNode klass) throws Exception;
+    }
+
+    public static final class Cursor {
+        public ClassNode klass;
+        public MethodNode method;
+        public AbstractInsnNode insn;
+        /**
+         * Positioned after {@link #insn}
+         */
+        public ListIterator<AbstractInsnNode> iterator;
+        boolean replaced;
+        int stackGrowth;
+
+        public void replace(AbstractInsnNode insn) {
+            iterator.set(insn);
+            this.insn = insn;
+            replaced = true;
+        }
+
+        /**
+         * The max stack of the method is raised by {@code size} once the method is done
+         */
+        public void growStack(int size) {
+            stackGrowth = Math.max(stackGrowth, size);
+        }
+    }
+
+    private final List<ClassNode> classes;
+    private final String pkg;
+    private final Kit.NameGenerator names;
+    private final List<ClassHandler> classHandlers = new ArrayList<>();
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final List<InsnHandler>[] insnHandlers = new List[256];
+
+    public TransformPipeline(List<ClassNode> classes, String pkg, Kit.NameGenerator names) {
+        this.classes = classes;
+        this.pkg = pkg;
+        this.names = names;
+    }
+
+    /**
+     * All classes of the output, passes may add theirs before {@link #run()}
+     */
+    public List<ClassNode> classes() {
+        return classes;
+    }
+
+    /**
+     * Package of the injected runtime, ends with {@code /}
+     */
+    public String runtimePackage() {
+        return pkg;
+    }
+
+    /**
+     * Names for injected runtime classes, prefix them with {@link #runtimePackage()}
+     */
+    public Kit.NameGenerator names() {
+        return names;
+    }
+
+    public void onClass(ClassHandler handler) {
+        classHandlers.add(handler);
+    }
+
+    public void on(int opcode, InsnHandler handler) {
+        var handlers = insnHandlers[opcode];
+        if (handlers == null) insnHandlers[opcode] = handlers = new ArrayList<>();
+        handlers.add(handler);
+    }
+
+    public void onMethodInsn(InsnHandler handler) {
+        on(Opcodes.INVOKEVIRTUAL, handler);
+        on(Opcodes.INVOKESPECIAL, handler);
+        on(Opcodes.INVOKESTATIC, handler);
+        on(Opcodes.INVOKEINTERFACE, handler);
+    }
+
+    public void onFieldInsn(InsnHandler handler) {
+        on(Opcodes.GETSTATIC, handler);
+        on(Opcodes.PUTSTATIC, handler);
+        on(Opcodes.GETFIELD, handler);
+        on(Opcodes.PUTFIELD, handler);
+    }
+
+    public void run() throws Exception {
+        run(klass -> {
+        });
+    }
+
+    /**
+     * @param done gets each class once its methods are walked, while the classes after it are
+     *             still being walked. Handlers only change the class they are walking.
+     */
+    public void run(ClassHandler done) throws Exception {
+        var dispatch = new InsnHandler[256][];
+        for (var i = 0; i < dispatch.length; i++) {
+            if (insnHandlers[i] != null) dispatch[i] = insnHandlers[i].toArray(new InsnHandler[0]);
+        }
+        var cursor = new Cursor();
+        for (var klass : classes) {
+            for (var handler : classHandlers) {
+                handler.handle(klass);
+            }
+            if (klass.methods == null) {
+                done.handle(klass);
+                continue;
+            }
+            cursor.klass = klass;
+            for (var method : klass.methods) {
+                if (method.instructions == null) continue;
+                cursor.method = method;
+                cursor.stackGrowth = 0;
+                var iterator = method.instructions.iterator();
+                cursor.iterator = iterator;
+                while (iterator.hasNext()) {
+                    var insn = iterator.next();
+                    var opcode = insn.getOpcode();
+                    if (opcode == -1) continue;
+                    var handlers = dispatch[opcode];
+                    if (handlers == null) continue;
+                    cursor.insn = insn;
+                    cursor.replaced = false;
+                    for (var handler : handlers) {
+                        handler.handle(cursor);
+                        if (cursor.replaced) break;
+                    }
+                }
+                method.maxStack += cursor.stackGrowth;
+            }
+            done.handle(klass);
+        }
+    }
+}
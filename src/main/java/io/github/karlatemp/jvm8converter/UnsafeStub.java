@@ -0,0 +1,79 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.reflect.Field;
+
+/**
+ * Compile time stand-in for {@code sun.misc.Unsafe}, declaring the members the injected runtime uses.
+ * <p>
+ * The injected classes refer to this type and are remapped to {@code sun/misc/Unsafe} when they are
+ * copied into the converted jar, so the converter itself is built without the internal API.
+ * The instance is read reflectively from {@code theUnsafe}, see {@link VarHandleLowering.VH} and
+ * {@code MethodBridgeMap.ArraysSupport}.
+ */
+@SuppressWarnings("unused")
+abstract class UnsafeStub {
+    static final String NAME = UnsafeStub.class.getName().replace('.', '/');
+    static final String UNSAFE = "sun/misc/Unsafe";
+
+    abstract long objectFieldOffset(Field field);
+
+    abstract Object staticFieldBase(Field field);
+
+    abstract long staticFieldOffset(Field field);
+
+    abstract int arrayBaseOffset(Class<?> arrayClass);
+
+    abstract int arrayIndexScale(Class<?> arrayClass);
+
+    abstract void fullFence();
+
+    abstract void loadFence();
+
+    abstract void storeFence();
+
+    abstract int getInt(Object o, long offset);
+
+    abstract void putInt(Object o, long offset, int x);
+
+    abstract int getIntVolatile(Object o, long offset);
+
+    abstract void putIntVolatile(Object o, long offset, int x);
+
+    abstract void putOrderedInt(Object o, long offset, int x);
+
+    abstract boolean compareAndSwapInt(Object o, long offset, int expected, int x);
+
+    abstract int getAndSetInt(Object o, long offset, int newValue);
+
+    abstract int getAndAddInt(Object o, long offset, int delta);
+
+    abstract long getLong(Object o, long offset);
+
+    abstract void putLong(Object o, long offset, long x);
+
+    abstract long getLongVolatile(Object o, long offset);
+
+    abstract void putLongVolatile(Object o, long offset, long x);
+
+    abstract void putOrderedLong(Object o, long offset, long x);
+
+    abstract boolean compareAndSwapLong(Object o, long offset, long expected, long x);
+
+    abstract long getAndSetLong(Object o, long offset, long newValue);
+
+    abstract long getAndAddLong(Object o, long offset, long delta);
+
+    abstract Object getObject(Object o, long offset);
+
+    abstract void putObject(Object o, long offset, Object x);
+
+    abstract Object getObjectVolatile(Object o, long offset);
+
+    abstract void putObjectVolatile(Object o, long offset, Object x);
+
+    abstract void putOrderedObject(Object o, long offset, Object x);
+
+    abstract boolean compareAndSwapObject(Object o, long offset, Object expected, Object x);
+
+    abstract Object getAndSetObject(Object o, long offset, Object newValue);
+}
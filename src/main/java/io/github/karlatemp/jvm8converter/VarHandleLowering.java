@@ -0,0 +1,1019 @@
+package io.github.karlatemp.jvm8converter;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ListIterator;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Lowers {@code VarHandle} to {@code sun.misc.Unsafe}, see {@link UnsafeStub}.
+ * <p>
+ * {@code VarHandle} is replaced by the injected {@link VH}, which holds the field offset
+ * (or the array base offset and index shift) resolved once by the factory methods.
+ * Each signature-polymorphic call site becomes a typed call selected by its descriptor:
+ * the coordinates (none, a receiver, or an array and an index) and the value kind
+ * ({@code int}, {@code long} or a reference). Access modes map to the Unsafe operation
+ * with the same or stronger ordering: acquire and opaque reads are volatile reads, release
+ * and opaque writes are ordered writes, weak CAS is a strong CAS.
+ * <p>
+ * Other value types ({@code boolean}, {@code byte}, {@code short}, {@code char}, {@code float}
+ * and {@code double}), call sites which rely on {@code asType} conversions and the other
+ * VarHandle methods are rejected, the conversion fails with {@link IllegalArgumentException}.
+ * At runtime a handle used with another shape or value kind than its own throws
+ * {@link WrongMethodTypeException}.
+ */
+public class VarHandleLowering {
+    static final String VAR_HANDLE = "java/lang/invoke/VarHandle";
+    static final String LOOKUP = "java/lang/invoke/MethodHandles$Lookup";
+    static final String METHOD_HANDLES = "java/lang/invoke/MethodHandles";
+    static final String OBJECT_DESC = "Ljava/lang/Object;";
+
+    /**
+     * Access mode to the implemented mode with the same or stronger semantics
+     */
+    static final HashMap<String, String> ACCESS_MODES = new HashMap<>();
+
+    /**
+     * Other members implemented by {@link VH}
+     */
+    static final Set<String> MEMBERS = Set.of("varType", "coordinateTypes", "toString", "hashCode", "equals", "getClass",
+            "fullFence", "acquireFence", "releaseFence", "loadLoadFence", "storeStoreFence");
+
+    static {
+        for (var mode : List.of("get", "set", "getVolatile", "setVolatile", "setRelease", "compareAndSet", "compareAndExchange")) {
+            ACCESS_MODES.put(mode, mode);
+        }
+        ACCESS_MODES.put("getAcquire", "getVolatile");
+        ACCESS_MODES.put("getOpaque", "getVolatile");
+        ACCESS_MODES.put("setOpaque", "setRelease");
+        ACCESS_MODES.put("weakCompareAndSet", "compareAndSet");
+        ACCESS_MODES.put("weakCompareAndSetPlain", "compareAndSet");
+        ACCESS_MODES.put("weakCompareAndSetAcquire", "compareAndSet");
+        ACCESS_MODES.put("weakCompareAndSetRelease", "compareAndSet");
+        ACCESS_MODES.put("compareAndExchangeAcquire", "compareAndExchange");
+        ACCESS_MODES.put("compareAndExchangeRelease", "compareAndExchange");
+        for (var mode : List.of("getAndSet", "getAndAdd", "getAndBitwiseOr", "getAndBitwiseAnd", "getAndBitwiseXor")) {
+            ACCESS_MODES.put(mode, mode);
+            ACCESS_MODES.put(mode + "Acquire", mode);
+            ACCESS_MODES.put(mode + "Release", mode);
+        }
+    }
+
+    /**
+     * Rewrites the VarHandle usages of {@code classes} and injects {@link VH} as {@code vhName}
+     *
+     * @return {@code true} if any class uses VarHandle
+     */
+    public static boolean lower(List<ClassNode> classes, String vhName) throws IOException {
+        var remapper = new SimpleRemapper(VAR_HANDLE, vhName);
+        var used = false;
+        for (var i = 0; i < classes.size(); i++) {
+            var klass = classes.get(i);
+            if (!lowerCalls(klass, vhName) && !mentions(klass)) continue;
+            used = true;
+            var node = new ClassNode();
+            klass.accept(new ClassRemapper(node, remapper));
+            classes.set(i, node);
+        }
+        if (!used) return false;
+
+        var node = new ClassNode();
+        new ClassReader(VH.class.getName()).accept(new ClassRemapper(node, new SimpleRemapper(Map.of(
+                VH.class.getName().replace('.', '/'), vhName,
+                UnsafeStub.NAME, UnsafeStub.UNSAFE
+        ))), 0);
+        node.innerClasses.clear();
+        classes.add(node);
+        return true;
+    }
+
+    private static boolean lowerCalls(ClassNode klass, String vhName) {
+        var changed = false;
+        for (var method : klass.methods) {
+            if (method.instructions == null) continue;
+            var insnIterator = method.instructions.iterator();
+            for (var insn : Jvm8Converter.II.of(insnIterator)) {
+                if (insn instanceof LdcInsnNode) {
+                    // CONSTANT_Dynamic VarHandles, loaded by the holders of CondyLowering
+                    var ldc = (LdcInsnNode) insn;
+                    if (ldc.cst instanceof Handle) {
+                        var handle = (Handle) ldc.cst;
+                        if (handle.getOwner().equals(CondyLowering.CONSTANT_BOOTSTRAPS) && handle.getName().endsWith("VarHandle")) {
+                            ldc.cst = new Handle(handle.getTag(), vhName, handle.getName(), handle.getDesc(), false);
+                            changed = true;
+                        }
+                    }
+                    continue;
+                }
+                if (!(insn instanceof MethodInsnNode)) continue;
+                var min = (MethodInsnNode) insn;
+                switch (min.owner) {
+                    case LOOKUP:
+                        if (min.name.equals("findVarHandle") || min.name.equals("findStaticVarHandle")) {
+                            // The lookup stays on the stack as the first argument
+                            min.setOpcode(Opcodes.INVOKESTATIC);
+                            min.owner = vhName;
+                            min.desc = "(L" + LOOKUP + ";" + min.desc.substring(1);
+                            min.itf = false;
+                            changed = true;
+                        }
+                        break;
+                    case METHOD_HANDLES:
+                        if (min.name.equals("arrayElementVarHandle")) {
+                            min.owner = vhName;
+                            changed = true;
+                        }
+                        break;
+                    case VAR_HANDLE:
+                        changed = true;
+                        var mode = min.getOpcode() == Opcodes.INVOKEVIRTUAL ? ACCESS_MODES.get(min.name) : null;
+                        if (mode != null ? !lowerAccess(min, mode, insnIterator) : !MEMBERS.contains(min.name)) {
+                            throw new IllegalArgumentException("Unsupported VarHandle." + min.name + min.desc + " in " + klass.name + "." + method.name);
+                        }
+                        break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private static boolean lowerAccess(MethodInsnNode min, String mode, ListIterator<AbstractInsnNode> insnIterator) {
+        int arity;
+        switch (mode) {
+            case "get":
+            case "getVolatile":
+                arity = 0;
+                break;
+            case "compareAndSet":
+            case "compareAndExchange":
+                arity = 2;
+                break;
+            default:
+                arity = 1;
+        }
+        var args = Type.getArgumentTypes(min.desc);
+        var returnType = Type.getReturnType(min.desc);
+        var coordinates = args.length - arity;
+        if (coordinates < 0 || coordinates > 2) return false;
+        if (coordinates >= 1 && !isReference(args[0])) return false;
+        if (coordinates == 2 && !isIndex(args[1])) return false;
+
+        var valueType = arity == 0 ? returnType : args[coordinates];
+        String kind, valueDesc;
+        switch (valueType.getSort()) {
+            case Type.INT:
+                kind = "Int";
+                valueDesc = "I";
+                break;
+            case Type.LONG:
+                kind = "Long";
+                valueDesc = "J";
+                break;
+            case Type.OBJECT:
+            case Type.ARRAY:
+                if (mode.startsWith("getAndAdd") || mode.startsWith("getAndBitwise")) return false;
+                kind = "Reference";
+                valueDesc = OBJECT_DESC;
+                break;
+            default:
+                return false;
+        }
+        for (var i = coordinates; i < args.length; i++) {
+            if (kind.equals("Reference") ? !isReference(args[i]) : args[i].getSort() != valueType.getSort()) return false;
+        }
+
+        var desc = new StringBuilder("(");
+        if (coordinates >= 1) desc.append(OBJECT_DESC);
+        if (coordinates == 2) desc.append('I');
+        for (var i = 0; i < arity; i++) desc.append(valueDesc);
+        desc.append(')');
+        String result;
+        if (mode.equals("compareAndSet")) {
+            result = "Z";
+        } else if (mode.startsWith("set")) {
+            result = "V";
+        } else {
+            result = valueDesc;
+        }
+        desc.append(result);
+
+        var resultType = Type.getType(result);
+        if (returnType.getSort() != Type.VOID && resultType.getSort() != returnType.getSort()
+                && !(isReference(returnType) && kind.equals("Reference"))) {
+            return false;
+        }
+
+        min.name = mode + kind;
+        min.desc = desc.toString();
+        if (returnType.getSort() == Type.VOID) {
+            if (resultType.getSize() == 1) insnIterator.add(new InsnNode(Opcodes.POP));
+            if (resultType.getSize() == 2) insnIterator.add(new InsnNode(Opcodes.POP2));
+        } else if (isReference(returnType) && !returnType.getDescriptor().equals(OBJECT_DESC)) {
+            insnIterator.add(new TypeInsnNode(Opcodes.CHECKCAST, returnType.getInternalName()));
+        }
+        return true;
+    }
+
+    private static boolean isReference(Type type) {
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY;
+    }
+
+    private static boolean isIndex(Type type) {
+        switch (type.getSort()) {
+            case Type.INT:
+            case Type.SHORT:
+            case Type.CHAR:
+            case Type.BYTE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean mentions(String desc) {
+        return desc != null && desc.contains(VAR_HANDLE);
+    }
+
+    /**
+     * Whether {@code klass} still refers to VarHandle, as field, parameter, return or stack type
+     */
+    private static boolean mentions(ClassNode klass) {
+        for (var field : klass.fields) {
+            if (mentions(field.desc)) return true;
+        }
+        for (var method : klass.methods) {
+            if (mentions(method.desc)) return true;
+            if (method.instructions == null) continue;
+            for (var insn : method.instructions) {
+                if (insn instanceof MethodInsnNode) {
+                    if (mentions(((MethodInsnNode) insn).desc)) return true;
+                } else if (insn instanceof FieldInsnNode) {
+                    if (mentions(((FieldInsnNode) insn).desc)) return true;
+                } else if (insn instanceof TypeInsnNode) {
+                    if (mentions(((TypeInsnNode) insn).desc)) return true;
+                } else if (insn instanceof InvokeDynamicInsnNode) {
+                    if (mentions(((InvokeDynamicInsnNode) insn).desc)) return true;
+                } else if (insn instanceof LdcInsnNode) {
+                    if (((LdcInsnNode) insn).cst instanceof Type && mentions(((LdcInsnNode) insn).cst.toString())) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runtime replacement of {@code VarHandle}, injected into the converted jar.
+     * <p>
+     * Every access checks the shape and value kind of the handle first, a mismatched
+     * call site throws instead of touching memory of another type. Stores into reference arrays
+     * are checked against the component type of the array, like {@code aastore}.
+     */
+    @SuppressWarnings({"unused", "DuplicatedCode"})
+    public static final class VH {
+        static final UnsafeStub U;
+
+        static final int STATIC = 0, INSTANCE = 4, ARRAY = 8;
+        static final int INT = 0, LONG = 1, REFERENCE = 2, OTHER = 3;
+
+        static {
+            try {
+                var theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                U = (UnsafeStub) theUnsafe.get(null);
+            } catch (Exception e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final int mode;
+        final Class<?> receiverType;
+        final Class<?> valueType;
+        final Object base;
+        final long offset;
+        final int shift;
+
+        VH(int shape, Class<?> receiverType, Class<?> valueType, Object base, long offset, int shift) {
+            this.mode = shape | (valueType == int.class ? INT : valueType == long.class ? LONG : valueType.isPrimitive() ? OTHER : REFERENCE);
+            this.receiverType = receiverType;
+            this.valueType = valueType;
+            this.base = base;
+            this.offset = offset;
+            this.shift = shift;
+        }
+
+        public static VH findVarHandle(MethodHandles.Lookup lookup, Class<?> recv, String name, Class<?> type) throws NoSuchFieldException {
+            var field = field(recv, name, type, false);
+            return new VH(INSTANCE, recv, type, null, U.objectFieldOffset(field), 0);
+        }
+
+        public static VH findStaticVarHandle(MethodHandles.Lookup lookup, Class<?> decl, String name, Class<?> type) throws NoSuchFieldException {
+            var field = field(decl, name, type, true);
+            try {
+                Class.forName(decl.getName(), true, decl.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new NoClassDefFoundError(decl.getName());
+            }
+            return new VH(STATIC, decl, type, U.staticFieldBase(field), U.staticFieldOffset(field), 0);
+        }
+
+        public static VH arrayElementVarHandle(Class<?> arrayClass) {
+            if (!arrayClass.isArray()) throw new IllegalArgumentException("not an array class: ".concat(arrayClass.getName()));
+            var scale = U.arrayIndexScale(arrayClass);
+            return new VH(ARRAY, arrayClass, arrayClass.getComponentType(), null,
+                    U.arrayBaseOffset(arrayClass), 31 - Integer.numberOfLeadingZeros(scale));
+        }
+
+        // ConstantBootstraps
+
+        public static VH fieldVarHandle(MethodHandles.Lookup lookup, String name, Class<?> type, Class<?> decl, Class<?> fieldType) throws NoSuchFieldException {
+            return findVarHandle(lookup, decl, name, fieldType);
+        }
+
+        public static VH staticFieldVarHandle(MethodHandles.Lookup lookup, String name, Class<?> type, Class<?> decl, Class<?> fieldType) throws NoSuchFieldException {
+            return findStaticVarHandle(lookup, decl, name, fieldType);
+        }
+
+        public static VH arrayVarHandle(MethodHandles.Lookup lookup, String name, Class<?> type, Class<?> arrayClass) {
+            return arrayElementVarHandle(arrayClass);
+        }
+
+        static Field field(Class<?> klass, String name, Class<?> type, boolean isStatic) throws NoSuchFieldException {
+            for (var k = klass; k != null; k = k.getSuperclass()) {
+                Field field;
+                try {
+                    field = k.getDeclaredField(name);
+                } catch (NoSuchFieldException ignore) {
+                    continue;
+                }
+                if (field.getType() == type && Modifier.isStatic(field.getModifiers()) == isStatic) return field;
+                break;
+            }
+            throw new NoSuchFieldException(name);
+        }
+
+        // Fences
+
+        public static void fullFence() {
+            U.fullFence();
+        }
+
+        public static void acquireFence() {
+            U.loadFence();
+        }
+
+        public static void releaseFence() {
+            U.fullFence();
+        }
+
+        public static void loadLoadFence() {
+            U.loadFence();
+        }
+
+        public static void storeStoreFence() {
+            U.storeFence();
+        }
+
+        public Class<?> varType() {
+            return valueType;
+        }
+
+        public List<Class<?>> coordinateTypes() {
+            switch (mode & ~3) {
+                case STATIC:
+                    return Arrays.<Class<?>>asList();
+                case INSTANCE:
+                    return Arrays.<Class<?>>asList(receiverType);
+                default:
+                    return Arrays.<Class<?>>asList(receiverType, int.class);
+            }
+        }
+
+        @Override
+        public String toString() {
+            // No string concatenation, the template is injected after the StringConcatFactory scan
+            return new StringBuilder("VarHandle[varType=").append(valueType.getName())
+                    .append(", coord=").append(coordinateTypes()).append(']').toString();
+        }
+
+        void check(int expected) {
+            if (mode != expected) throw new WrongMethodTypeException("Access mode does not match ".concat(toString()));
+        }
+
+        Object receiver(Object recv) {
+            return receiverType.cast(Objects.requireNonNull(recv));
+        }
+
+        long index(int length, int index) {
+            if (index < 0 || index >= length) throw new ArrayIndexOutOfBoundsException(index);
+            return offset + ((long) index << shift);
+        }
+
+        /**
+         * Checks the value against the handle type and, as {@code aastore} does, the runtime component type
+         */
+        Object element(Object array, Object value) {
+            if (valueType.cast(value) != null && !array.getClass().getComponentType().isInstance(value)) {
+                throw new ArrayStoreException(value.getClass().getName());
+            }
+            return value;
+        }
+
+        long indexInt(Object array, int index) {
+            return index(((int[]) array).length, index);
+        }
+
+        long indexLong(Object array, int index) {
+            return index(((long[]) array).length, index);
+        }
+
+        long indexReference(Object array, int index) {
+            return index(((Object[]) receiverType.cast(array)).length, index);
+        }
+
+        static int compareAndExchangeInt(Object base, long offset, int expected, int newValue) {
+            while (true) {
+                var witness = U.getIntVolatile(base, offset);
+                if (witness != expected) return witness;
+                if (U.compareAndSwapInt(base, offset, expected, newValue)) return expected;
+            }
+        }
+
+        static long compareAndExchangeLong(Object base, long offset, long expected, long newValue) {
+            while (true) {
+                var witness = U.getLongVolatile(base, offset);
+                if (witness != expected) return witness;
+                if (U.compareAndSwapLong(base, offset, expected, newValue)) return expected;
+            }
+        }
+
+        static Object compareAndExchangeObject(Object base, long offset, Object expected, Object newValue) {
+            while (true) {
+                var witness = U.getObjectVolatile(base, offset);
+                if (witness != expected) return witness;
+                if (U.compareAndSwapObject(base, offset, expected, newValue)) return expected;
+            }
+        }
+
+        static int getAndBitwiseOrInt(Object base, long offset, int value) {
+            int witness;
+            do {
+                witness = U.getIntVolatile(base, offset);
+            } while (!U.compareAndSwapInt(base, offset, witness, witness | value));
+            return witness;
+        }
+
+        static int getAndBitwiseAndInt(Object base, long offset, int value) {
+            int witness;
+            do {
+                witness = U.getIntVolatile(base, offset);
+            } while (!U.compareAndSwapInt(base, offset, witness, witness & value));
+            return witness;
+        }
+
+        static int getAndBitwiseXorInt(Object base, long offset, int value) {
+            int witness;
+            do {
+                witness = U.getIntVolatile(base, offset);
+            } while (!U.compareAndSwapInt(base, offset, witness, witness ^ value));
+            return witness;
+        }
+
+        static long getAndBitwiseOrLong(Object base, long offset, long value) {
+            long witness;
+            do {
+                witness = U.getLongVolatile(base, offset);
+            } while (!U.compareAndSwapLong(base, offset, witness, witness | value));
+            return witness;
+        }
+
+        static long getAndBitwiseAndLong(Object base, long offset, long value) {
+            long witness;
+            do {
+                witness = U.getLongVolatile(base, offset);
+            } while (!U.compareAndSwapLong(base, offset, witness, witness & value));
+            return witness;
+        }
+
+        static long getAndBitwiseXorLong(Object base, long offset, long value) {
+            long witness;
+            do {
+                witness = U.getLongVolatile(base, offset);
+            } while (!U.compareAndSwapLong(base, offset, witness, witness ^ value));
+            return witness;
+        }
+
+        // static int
+
+        public final int getInt() {
+            check(STATIC | INT);
+            return U.getInt(base, offset);
+        }
+
+        public final void setInt(int value) {
+            check(STATIC | INT);
+            U.putInt(base, offset, value);
+        }
+
+        public final int getVolatileInt() {
+            check(STATIC | INT);
+            return U.getIntVolatile(base, offset);
+        }
+
+        public final void setVolatileInt(int value) {
+            check(STATIC | INT);
+            U.putIntVolatile(base, offset, value);
+        }
+
+        public final void setReleaseInt(int value) {
+            check(STATIC | INT);
+            U.putOrderedInt(base, offset, value);
+        }
+
+        public final boolean compareAndSetInt(int expected, int newValue) {
+            check(STATIC | INT);
+            return U.compareAndSwapInt(base, offset, expected, newValue);
+        }
+
+        public final int compareAndExchangeInt(int expected, int newValue) {
+            check(STATIC | INT);
+            return compareAndExchangeInt(base, offset, expected, newValue);
+        }
+
+        public final int getAndSetInt(int value) {
+            check(STATIC | INT);
+            return U.getAndSetInt(base, offset, value);
+        }
+
+        public final int getAndAddInt(int value) {
+            check(STATIC | INT);
+            return U.getAndAddInt(base, offset, value);
+        }
+
+        public final int getAndBitwiseOrInt(int value) {
+            check(STATIC | INT);
+            return getAndBitwiseOrInt(base, offset, value);
+        }
+
+        public final int getAndBitwiseAndInt(int value) {
+            check(STATIC | INT);
+            return getAndBitwiseAndInt(base, offset, value);
+        }
+
+        public final int getAndBitwiseXorInt(int value) {
+            check(STATIC | INT);
+            return getAndBitwiseXorInt(base, offset, value);
+        }
+
+        // instance int
+
+        public final int getInt(Object recv) {
+            check(INSTANCE | INT);
+            return U.getInt(receiver(recv), offset);
+        }
+
+        public final void setInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            U.putInt(receiver(recv), offset, value);
+        }
+
+        public final int getVolatileInt(Object recv) {
+            check(INSTANCE | INT);
+            return U.getIntVolatile(receiver(recv), offset);
+        }
+
+        public final void setVolatileInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            U.putIntVolatile(receiver(recv), offset, value);
+        }
+
+        public final void setReleaseInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            U.putOrderedInt(receiver(recv), offset, value);
+        }
+
+        public final boolean compareAndSetInt(Object recv, int expected, int newValue) {
+            check(INSTANCE | INT);
+            return U.compareAndSwapInt(receiver(recv), offset, expected, newValue);
+        }
+
+        public final int compareAndExchangeInt(Object recv, int expected, int newValue) {
+            check(INSTANCE | INT);
+            return compareAndExchangeInt(receiver(recv), offset, expected, newValue);
+        }
+
+        public final int getAndSetInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            return U.getAndSetInt(receiver(recv), offset, value);
+        }
+
+        public final int getAndAddInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            return U.getAndAddInt(receiver(recv), offset, value);
+        }
+
+        public final int getAndBitwiseOrInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            return getAndBitwiseOrInt(receiver(recv), offset, value);
+        }
+
+        public final int getAndBitwiseAndInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            return getAndBitwiseAndInt(receiver(recv), offset, value);
+        }
+
+        public final int getAndBitwiseXorInt(Object recv, int value) {
+            check(INSTANCE | INT);
+            return getAndBitwiseXorInt(receiver(recv), offset, value);
+        }
+
+        // array int
+
+        public final int getInt(Object array, int index) {
+            check(ARRAY | INT);
+            return U.getInt(array, indexInt(array, index));
+        }
+
+        public final void setInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            U.putInt(array, indexInt(array, index), value);
+        }
+
+        public final int getVolatileInt(Object array, int index) {
+            check(ARRAY | INT);
+            return U.getIntVolatile(array, indexInt(array, index));
+        }
+
+        public final void setVolatileInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            U.putIntVolatile(array, indexInt(array, index), value);
+        }
+
+        public final void setReleaseInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            U.putOrderedInt(array, indexInt(array, index), value);
+        }
+
+        public final boolean compareAndSetInt(Object array, int index, int expected, int newValue) {
+            check(ARRAY | INT);
+            return U.compareAndSwapInt(array, indexInt(array, index), expected, newValue);
+        }
+
+        public final int compareAndExchangeInt(Object array, int index, int expected, int newValue) {
+            check(ARRAY | INT);
+            return compareAndExchangeInt(array, indexInt(array, index), expected, newValue);
+        }
+
+        public final int getAndSetInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            return U.getAndSetInt(array, indexInt(array, index), value);
+        }
+
+        public final int getAndAddInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            return U.getAndAddInt(array, indexInt(array, index), value);
+        }
+
+        public final int getAndBitwiseOrInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            return getAndBitwiseOrInt(array, indexInt(array, index), value);
+        }
+
+        public final int getAndBitwiseAndInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            return getAndBitwiseAndInt(array, indexInt(array, index), value);
+        }
+
+        public final int getAndBitwiseXorInt(Object array, int index, int value) {
+            check(ARRAY | INT);
+            return getAndBitwiseXorInt(array, indexInt(array, index), value);
+        }
+
+        // static long
+
+        public final long getLong() {
+            check(STATIC | LONG);
+            return U.getLong(base, offset);
+        }
+
+        public final void setLong(long value) {
+            check(STATIC | LONG);
+            U.putLong(base, offset, value);
+        }
+
+        public final long getVolatileLong() {
+            check(STATIC | LONG);
+            return U.getLongVolatile(base, offset);
+        }
+
+        public final void setVolatileLong(long value) {
+            check(STATIC | LONG);
+            U.putLongVolatile(base, offset, value);
+        }
+
+        public final void setReleaseLong(long value) {
+            check(STATIC | LONG);
+            U.putOrderedLong(base, offset, value);
+        }
+
+        public final boolean compareAndSetLong(long expected, long newValue) {
+            check(STATIC | LONG);
+            return U.compareAndSwapLong(base, offset, expected, newValue);
+        }
+
+        public final long compareAndExchangeLong(long expected, long newValue) {
+            check(STATIC | LONG);
+            return compareAndExchangeLong(base, offset, expected, newValue);
+        }
+
+        public final long getAndSetLong(long value) {
+            check(STATIC | LONG);
+            return U.getAndSetLong(base, offset, value);
+        }
+
+        public final long getAndAddLong(long value) {
+            check(STATIC | LONG);
+            return U.getAndAddLong(base, offset, value);
+        }
+
+        public final long getAndBitwiseOrLong(long value) {
+            check(STATIC | LONG);
+            return getAndBitwiseOrLong(base, offset, value);
+        }
+
+        public final long getAndBitwiseAndLong(long value) {
+            check(STATIC | LONG);
+            return getAndBitwiseAndLong(base, offset, value);
+        }
+
+        public final long getAndBitwiseXorLong(long value) {
+            check(STATIC | LONG);
+            return getAndBitwiseXorLong(base, offset, value);
+        }
+
+        // instance long
+
+        public final long getLong(Object recv) {
+            check(INSTANCE | LONG);
+            return U.getLong(receiver(recv), offset);
+        }
+
+        public final void setLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            U.putLong(receiver(recv), offset, value);
+        }
+
+        public final long getVolatileLong(Object recv) {
+            check(INSTANCE | LONG);
+            return U.getLongVolatile(receiver(recv), offset);
+        }
+
+        public final void setVolatileLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            U.putLongVolatile(receiver(recv), offset, value);
+        }
+
+        public final void setReleaseLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            U.putOrderedLong(receiver(recv), offset, value);
+        }
+
+        public final boolean compareAndSetLong(Object recv, long expected, long newValue) {
+            check(INSTANCE | LONG);
+            return U.compareAndSwapLong(receiver(recv), offset, expected, newValue);
+        }
+
+        public final long compareAndExchangeLong(Object recv, long expected, long newValue) {
+            check(INSTANCE | LONG);
+            return compareAndExchangeLong(receiver(recv), offset, expected, newValue);
+        }
+
+        public final long getAndSetLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            return U.getAndSetLong(receiver(recv), offset, value);
+        }
+
+        public final long getAndAddLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            return U.getAndAddLong(receiver(recv), offset, value);
+        }
+
+        public final long getAndBitwiseOrLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            return getAndBitwiseOrLong(receiver(recv), offset, value);
+        }
+
+        public final long getAndBitwiseAndLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            return getAndBitwiseAndLong(receiver(recv), offset, value);
+        }
+
+        public final long getAndBitwiseXorLong(Object recv, long value) {
+            check(INSTANCE | LONG);
+            return getAndBitwiseXorLong(receiver(recv), offset, value);
+        }
+
+        // array long
+
+        public final long getLong(Object array, int index) {
+            check(ARRAY | LONG);
+            return U.getLong(array, indexLong(array, index));
+        }
+
+        public final void setLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            U.putLong(array, indexLong(array, index), value);
+        }
+
+        public final long getVolatileLong(Object array, int index) {
+            check(ARRAY | LONG);
+            return U.getLongVolatile(array, indexLong(array, index));
+        }
+
+        public final void setVolatileLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            U.putLongVolatile(array, indexLong(array, index), value);
+        }
+
+        public final void setReleaseLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            U.putOrderedLong(array, indexLong(array, index), value);
+        }
+
+        public final boolean compareAndSetLong(Object array, int index, long expected, long newValue) {
+            check(ARRAY | LONG);
+            return U.compareAndSwapLong(array, indexLong(array, index), expected, newValue);
+        }
+
+        public final long compareAndExchangeLong(Object array, int index, long expected, long newValue) {
+            check(ARRAY | LONG);
+            return compareAndExchangeLong(array, indexLong(array, index), expected, newValue);
+        }
+
+        public final long getAndSetLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            return U.getAndSetLong(array, indexLong(array, index), value);
+        }
+
+        public final long getAndAddLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            return U.getAndAddLong(array, indexLong(array, index), value);
+        }
+
+        public final long getAndBitwiseOrLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            return getAndBitwiseOrLong(array, indexLong(array, index), value);
+        }
+
+        public final long getAndBitwiseAndLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            return getAndBitwiseAndLong(array, indexLong(array, index), value);
+        }
+
+        public final long getAndBitwiseXorLong(Object array, int index, long value) {
+            check(ARRAY | LONG);
+            return getAndBitwiseXorLong(array, indexLong(array, index), value);
+        }
+
+        // static Object
+
+        public final Object getReference() {
+            check(STATIC | REFERENCE);
+            return U.getObject(base, offset);
+        }
+
+        public final void setReference(Object value) {
+            check(STATIC | REFERENCE);
+            U.putObject(base, offset, valueType.cast(value));
+        }
+
+        public final Object getVolatileReference() {
+            check(STATIC | REFERENCE);
+            return U.getObjectVolatile(base, offset);
+        }
+
+        public final void setVolatileReference(Object value) {
+            check(STATIC | REFERENCE);
+            U.putObjectVolatile(base, offset, valueType.cast(value));
+        }
+
+        public final void setReleaseReference(Object value) {
+            check(STATIC | REFERENCE);
+            U.putOrderedObject(base, offset, valueType.cast(value));
+        }
+
+        public final boolean compareAndSetReference(Object expected, Object newValue) {
+            check(STATIC | REFERENCE);
+            return U.compareAndSwapObject(base, offset, expected, valueType.cast(newValue));
+        }
+
+        public final Object compareAndExchangeReference(Object expected, Object newValue) {
+            check(STATIC | REFERENCE);
+            return compareAndExchangeObject(base, offset, expected, valueType.cast(newValue));
+        }
+
+        public final Object getAndSetReference(Object value) {
+            check(STATIC | REFERENCE);
+            return U.getAndSetObject(base, offset, valueType.cast(value));
+        }
+
+        // instance Object
+
+        public final Object getReference(Object recv) {
+            check(INSTANCE | REFERENCE);
+            return U.getObject(receiver(recv), offset);
+        }
+
+        public final void setReference(Object recv, Object value) {
+            check(INSTANCE | REFERENCE);
+            U.putObject(receiver(recv), offset, valueType.cast(value));
+        }
+
+        public final Object getVolatileReference(Object recv) {
+            check(INSTANCE | REFERENCE);
+            return U.getObjectVolatile(receiver(recv), offset);
+        }
+
+        public final void setVolatileReference(Object recv, Object value) {
+            check(INSTANCE | REFERENCE);
+            U.putObjectVolatile(receiver(recv), offset, valueType.cast(value));
+        }
+
+        public final void setReleaseReference(Object recv, Object value) {
+            check(INSTANCE | REFERENCE);
+            U.putOrderedObject(receiver(recv), offset, valueType.cast(value));
+        }
+
+        public final boolean compareAndSetReference(Object recv, Object expected, Object newValue) {
+            check(INSTANCE | REFERENCE);
+            return U.compareAndSwapObject(receiver(recv), offset, expected, valueType.cast(newValue));
+        }
+
+        public final Object compareAndExchangeReference(Object recv, Object expected, Object newValue) {
+            check(INSTANCE | REFERENCE);
+            return compareAndExchangeObject(receiver(recv), offset, expected, valueType.cast(newValue));
+        }
+
+        public final Object getAndSetReference(Object recv, Object value) {
+            check(INSTANCE | REFERENCE);
+            return U.getAndSetObject(receiver(recv), offset, valueType.cast(value));
+        }
+
+        // array Object
+
+        public final Object getReference(Object array, int index) {
+            check(ARRAY | REFERENCE);
+            return U.getObject(array, indexReference(array, index));
+        }
+
+        public final void setReference(Object array, int index, Object value) {
+            check(ARRAY | REFERENCE);
+            U.putObject(array, indexReference(array, index), element(array, value));
+        }
+
+        public final Object getVolatileReference(Object array, int index) {
+            check(ARRAY | REFERENCE);
+            return U.getObjectVolatile(array, indexReference(array, index));
+        }
+
+        public final void setVolatileReference(Object array, int index, Object value) {
+            check(ARRAY | REFERENCE);
+            U.putObjectVolatile(array, indexReference(array, index), element(array, value));
+        }
+
+        public final void setReleaseReference(Object array, int index, Object value) {
+            check(ARRAY | REFERENCE);
+            U.putOrderedObject(array, indexReference(array, index), element(array, value));
+        }
+
+        public final boolean compareAndSetReference(Object array, int index, Object expected, Object newValue) {
+            check(ARRAY | REFERENCE);
+            return U.compareAndSwapObject(array, indexReference(array, index), expected, element(array, newValue));
+        }
+
+        public final Object compareAndExchangeReference(Object array, int index, Object expected, Object newValue) {
+            check(ARRAY | REFERENCE);
+            return compareAndExchangeObject(array, indexReference(array, index), expected, element(array, newValue));
+        }
+
+        public final Object getAndSetReference(Object array, int index, Object value) {
+            check(ARRAY | REFERENCE);
+            return U.getAndSetObject(array, indexReference(array, index), element(array, value));
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package io.github.karlatemp.jvm8converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Virtual threads of JDK 21.
+ * <p>
+ * {@code Thread.Builder} is backported, {@code Thread.ofVirtual()} builders create real virtual
+ * threads when the running JDK has them. Otherwise:
+ * <ul>
+ *     <li>Tasks of {@code Executors.newVirtualThreadPerTaskExecutor()} run on a shared work-stealing
+ *     {@link ForkJoinPool} of {@code jvm8converter.virtual.parallelism} carriers. Once
+ *     {@code jvm8converter.virtual.maxPending} tasks are queued or running, submitting blocks.</li>
+ *     <li>Virtual {@link Thread} objects are daemon platform threads, {@code join()} and {@code isAlive()}
+ *     are final and need a real thread. Once {@code jvm8converter.virtual.maxThreads} of them are alive,
+ *     {@code start()} blocks.</li>
+ * </ul>
+ * Carriers and virtual threads never block when submitting or starting, a task waiting for a task
+ * it starts can't deadlock. {@code inheritInheritableThreadLocals(false)} needs JDK 21.
+ */
+@SuppressWarnings("unused")
+class VirtualThreadBridges {
+    @Backport("java/lang/Thread$Builder")
+    public interface BuilderB {
+        BuilderB name(String name);
+
+        BuilderB name(String prefix, long start);
+
+        BuilderB inheritInheritableThreadLocals(boolean inherit);
+
+        BuilderB uncaughtExceptionHandler(Thread.UncaughtExceptionHandler ueh);
+
+        Thread unstarted(Runnable task);
+
+        Thread start(Runnable task);
+
+        ThreadFactory factory();
+    }
+
+    @Backport("java/lang/Thread$Builder$OfPlatform")
+    public interface OfPlatformB extends BuilderB {
+        @Override
+        OfPlatformB name(String name);
+
+        @Override
+        OfPlatformB name(String prefix, long start);
+
+        @Override
+        OfPlatformB inheritInheritableThreadLocals(boolean inherit);
+
+        @Override
+        OfPlatformB uncaughtExceptionHandler(Thread.UncaughtExceptionHandler ueh);
+
+        OfPlatformB group(ThreadGroup group);
+
+        OfPlatformB daemon(boolean on);
+
+        default OfPlatformB daemon() {
+            return daemon(true);
+        }
+
+        OfPlatformB priority(int priority);
+
+        OfPlatformB stackSize(long stackSize);
+    }
+
+    @Backport("java/lang/Thread$Builder$OfVirtual")
+    public interface OfVirtualB extends BuilderB {
+        @Override
+        OfVirtualB name(String name);
+
+        @Override
+        OfVirtualB name(String prefix, long start);
+
+        @Override
+        OfVirtualB inheritInheritableThreadLocals(boolean inherit);
+
+        @Override
+        OfVirtualB uncaughtExceptionHandler(Thread.UncaughtExceptionHandler ueh);
+    }
+
+    @Shadow(Thread.class)
+    static class ThreadBuildersB {
+        @ShadowStatic
+        public static OfPlatformB ofPlatform() {
+            return new PlatformBuilder();
+        }
+
+        @ShadowStatic
+        public static OfVirtualB ofVirtual() {
+            return new VirtualBuilder();
+        }
+
+        @ShadowStatic
+        public static Thread startVirtualThread(Runnable task) {
+            var thread = new VirtualThread("", Objects.requireNonNull(task));
+            thread.start();
+            return thread;
+        }
+
+        public static boolean isVirtual(Thread thiz) {
+            return thiz instanceof VirtualThread;
+        }
+
+        public static long threadId(Thread thiz) {
+            return thiz.getId();
+        }
+    }
+
+    @Shadow(Executors.class)
+    static class ExecutorsB {
+        @ShadowStatic
+        public static ExecutorService newVirtualThreadPerTaskExecutor() {
+            return new PerTaskExecutor(null);
+        }
+
+        @ShadowStatic
+        public static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+            Objects.requireNonNull(factory);
+            // Virtual threads of the backport run on the carriers, without a thread per task
+            var virtual = factory instanceof AbstractBuilder.Factory && ((AbstractBuilder.Factory) factory).builder() instanceof VirtualBuilder;
+            return new PerTaskExecutor(virtual && Native.OF_VIRTUAL == null ? null : factory);
+        }
+    }
+
+    @Shadow(ExecutorService.class)
+    static class ExecutorServiceB {
+        public static void close(ExecutorService thiz) {
+            if (thiz instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) thiz).close();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+                return;
+            }
+            awaitClose(thiz);
+        }
+
+        /**
+         * {@code ExecutorService.close()} of JDK 19
+         */
+        static void awaitClose(ExecutorService executor) {
+            var terminated = executor.isTerminated();
+            if (terminated) return;
+            executor.shutdown();
+            var interrupted = false;
+            while (!terminated) {
+                try {
+                    terminated = executor.awaitTermination(1L, TimeUnit.DAYS);
+                } catch (InterruptedException e) {
+                    if (!interrupted) {
+                        executor.shutdownNow();
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@code Thread.ofVirtual()} of JDK 21, {@code null} before
+     */
+    static final class Native {
+        static final MethodHandle OF_VIRTUAL;
+        static final MethodHandle NAME;
+        static final MethodHandle INHERIT;
+        static final MethodHandle UEH;
+        static final MethodHandle UNSTARTED;
+
+        static {
+            MethodHandle ofVirtual = null, name = null, inherit = null, ueh = null, unstarted = null;
+            try {
+                var builder = Class.forName("java.lang.Thread$Builder");
+                var lookup = MethodHandles.publicLookup();
+                ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(Class.forName("java.lang.Thread$Builder$OfVirtual")));
+                name = lookup.findVirtual(builder, "name", MethodType.methodType(builder, String.class));
+                inherit = lookup.findVirtual(builder, "inheritInheritableThreadLocals", MethodType.methodType(builder, boolean.class));
+                ueh = lookup.findVirtual(builder, "uncaughtExceptionHandler", MethodType.methodType(builder, Thread.UncaughtExceptionHandler.class));
+                unstarted = lookup.findVirtual(builder, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+                // A preview API on JDK 19 and 20
+                ofVirtual.invoke();
+            } catch (Throwable ignored) {
+                ofVirtual = null;
+            }
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            INHERIT = inherit;
+            UEH = ueh;
+            UNSTARTED = unstarted;
+        }
+    }
+
+    /**
+     * Permits of a bounded resource. Carriers and virtual threads take a permit only if one is
+     * free and go past the bound otherwise, the others wait.
+     */
+    static final class Limit {
+        final Semaphore permits;
+
+        Limit(int permits) {
+            this.permits = new Semaphore(permits);
+        }
+
+        /**
+         * @return whether a permit was taken and has to be released
+         */
+        boolean acquire() {
+            var current = Thread.currentThread();
+            if (current instanceof VirtualThread || current instanceof Carriers.Carrier) {
+                return permits.tryAcquire();
+            }
+            try {
+                permits.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                current.interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for a virtual thread");
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+    }
+
+    static final class Carriers {
+        static final int PARALLELISM = Math.min(0x7fff, Integer.getInteger(
+                "jvm8converter.virtual.parallelism", Math.max(64, 4 * Runtime.getRuntime().availableProcessors())
+        ));
+        static final ForkJoinPool POOL = new ForkJoinPool(PARALLELISM, new CarrierFactory(), null, true);
+        static final Limit PENDING = new Limit(Integer.getInteger("jvm8converter.virtual.maxPending", PARALLELISM * 256));
+        static final Limit THREADS = new Limit(Integer.getInteger("jvm8converter.virtual.maxThreads", 1024));
+
+        static final class Carrier extends ForkJoinWorkerThread {
+            Carrier(ForkJoinPool pool) {
+                super(pool);
+                setName("VirtualCarrier-" + getPoolIndex());
+                setDaemon(true);
+            }
+        }
+
+        static final class CarrierFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                return new Carrier(pool);
+            }
+        }
+    }
+
+    static final class VirtualThread extends Thread {
+        private boolean permit;
+
+        VirtualThread(String name, Runnable task) {
+            super(null, task, name, 0);
+            setDaemon(true);
+        }
+
+        @Override
+        public synchronized void start() {
+            var permit = Carriers.THREADS.acquire();
+            try {
+                super.start();
+            } catch (Throwable e) {
+                if (permit) Carriers.THREADS.release();
+                throw e;
+            }
+            this.permit = permit;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally {
+                synchronized (this) {
+                    if (permit) {
+                        permit = false;
+                        Carriers.THREADS.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Configuration shared by both builders
+     */
+    abstract static class AbstractBuilder {
+        String name;
+        AtomicLong counter;
+        boolean inherit = true;
+        Thread.UncaughtExceptionHandler ueh;
+
+        void setName(String name) {
+            this.name = Objects.requireNonNull(name);
+            this.counter = null;
+        }
+
+        void setName(String prefix, long start) {
+            Objects.requireNonNull(prefix);
+            if (start < 0) throw new IllegalArgumentException("'start' is negative");
+            this.name = prefix;
+            this.counter = new AtomicLong(start);
+        }
+
+        /**
+         * @return the name of the next thread, {@code null} if unnamed
+         */
+        String nextName() {
+            return counter == null ? name : name + counter.getAndIncrement();
+        }
+
+        abstract Thread newThread(String name, Runnable task);
+
+        public Thread unstarted(Runnable task) {
+            var thread = newThread(nextName(), Objects.requireNonNull(task));
+            if (ueh != null) thread.setUncaughtExceptionHandler(ueh);
+            return thread;
+        }
+
+        public Thread start(Runnable task) {
+            var thread = unstarted(task);
+            thread.start();
+            return thread;
+        }
+
+        /**
+         * A factory with the current configuration, safe for concurrent use
+         */
+        final class Factory implements ThreadFactory {
+            final String name = AbstractBuilder.this.name;
+            final AtomicLong counter = AbstractBuilder.this.counter == null ? null : new AtomicLong(AbstractBuilder.this.counter.get());
+            final Thread.UncaughtExceptionHandler ueh = AbstractBuilder.this.ueh;
+
+            AbstractBuilder builder() {
+                return AbstractBuilder.this;
+            }
+
+            @Override
+            public Thread newThread(Runnable task) {
+                var thread = AbstractBuilder.this.newThread(counter == null ? name : name + counter.getAndIncrement(), Objects.requireNonNull(task));
+                if (ueh != null) thread.setUncaughtExceptionHandler(ueh);
+                return thread;
+            }
+        }
+    }
+
+    static final class PlatformBuilder extends AbstractBuilder implements OfPlatformB {
+        private static final AtomicLong THREAD_NUMBER = new AtomicLong();
+        ThreadGroup group;
+        Boolean daemon;
+        int priority;
+        long stackSize;
+
+        @Override
+        Thread newThread(String name, Runnable task) {
+            var thread = name == null && stackSize == 0 ? new Thread(group, task)
+                    : new Thread(group, task, name == null ? "Thread-" + THREAD_NUMBER.getAndIncrement() : name, stackSize);
+            if (daemon != null) thread.setDaemon(daemon);
+            if (priority != 0) thread.setPriority(priority);
+            return thread;
+        }
+
+        @Override
+        public OfPlatformB name(String name) {
+            setName(name);
+            return this;
+        }
+
+        @Override
+        public OfPlatformB name(String prefix, long start) {
+            setName(prefix, start);
+            return this;
+        }
+
+        @Override
+        public OfPlatformB inheritInheritableThreadLocals(boolean inherit) {
+            this.inherit = inherit;
+            return this;
+        }
+
+        @Override
+        public OfPlatformB uncaughtExceptionHandler(Thread.UncaughtExceptionHandler ueh) {
+            this.ueh = Objects.requireNonNull(ueh);
+            return this;
+        }
+
+        @Override
+        public OfPlatformB group(ThreadGroup group) {
+            this.group = Objects.requireNonNull(group);
+            return this;
+        }
+
+        @Override
+        public OfPlatformB daemon(boolean on) {
+            this.daemon = on;
+            return this;
+        }
+
+        @Override
+        public OfPlatformB priority(int priority) {
+            if (priority < Thread.MIN_PRIORITY || priority > Thread.MAX_PRIORITY) throw new IllegalArgumentException();
+            this.priority = priority;
+            return this;
+        }
+
+        @Override
+        public OfPlatformB stackSize(long stackSize) {
+            if (stackSize < 0) throw new IllegalArgumentException();
+            this.stackSize = stackSize;
+            return this;
+        }
+
+        @Override
+        public ThreadFactory factory() {
+            return new Factory();
+        }
+    }
+
+    static final class VirtualBuilder extends AbstractBuilder implements OfVirtualB {
+        @Override
+        Thread newThread(String name, Runnable task) {
+            if (Native.OF_VIRTUAL == null) return new VirtualThread(name == null ? "" : name, task);
+            try {
+                var builder = Native.OF_VIRTUAL.invoke();
+                if (name != null) builder = Native.NAME.invoke(builder, name);
+                builder = Native.INHERIT.invoke(builder, inherit);
+                return (Thread) Native.UNSTARTED.invoke(builder, task);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        @Override
+        public OfVirtualB name(String name) {
+            setName(name);
+            return this;
+        }
+
+        @Override
+        public OfVirtualB name(String prefix, long start) {
+            setName(prefix, start);
+            return this;
+        }
+
+        @Override
+        public OfVirtualB inheritInheritableThreadLocals(boolean inherit) {
+            this.inherit = inherit;
+            return this;
+        }
+
+        @Override
+        public OfVirtualB uncaughtExceptionHandler(Thread.UncaughtExceptionHandler ueh) {
+            this.ueh = Objects.requireNonNull(ueh);
+            return this;
+        }
+
+        @Override
+        public ThreadFactory factory() {
+            return new Factory();
+        }
+    }
+
+    /**
+     * Runs each task on its own thread of {@code factory}, or on the carriers if {@code null}
+     */
+    static final class PerTaskExecutor extends AbstractExecutorService implements AutoCloseable {
+        final ThreadFactory factory;
+        final Set<Task> tasks = ConcurrentHashMap.newKeySet();
+        final CountDownLatch terminated = new CountDownLatch(1);
+        volatile boolean shutdown;
+
+        PerTaskExecutor(ThreadFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            Objects.requireNonNull(command);
+            if (shutdown) throw new RejectedExecutionException();
+            var task = new Task(this, command);
+            tasks.add(task);
+            // Added before checking again, shutdown() either sees the task or the task sees shutdown
+            if (shutdown) {
+                done(task);
+                throw new RejectedExecutionException();
+            }
+            try {
+                if (factory == null) {
+                    task.permit = Carriers.PENDING.acquire();
+                    Carriers.POOL.execute(task);
+                } else {
+                    var thread = factory.newThread(task);
+                    if (thread == null) throw new RejectedExecutionException();
+                    thread.start();
+                }
+            } catch (Throwable e) {
+                if (task.permit) Carriers.PENDING.release();
+                done(task);
+                throw e;
+            }
+        }
+
+        void done(Task task) {
+            tasks.remove(task);
+            if (shutdown && tasks.isEmpty()) terminated.countDown();
+        }
+
+        @Override
+        public void shutdown() {
+            shutdown = true;
+            if (tasks.isEmpty()) terminated.countDown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            for (var task : tasks) {
+                task.interrupt();
+            }
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return terminated.getCount() == 0;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return terminated.await(timeout, unit);
+        }
+
+        @Override
+        public void close() {
+            ExecutorServiceB.awaitClose(this);
+        }
+    }
+
+    static final class Task implements Runnable {
+        final PerTaskExecutor executor;
+        final Runnable command;
+        boolean permit;
+        private Thread runner;
+
+        Task(PerTaskExecutor executor, Runnable command) {
+            this.executor = executor;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+            try {
+                command.run();
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                }
+                if (permit) Carriers.PENDING.release();
+                executor.done(this);
+                // A late shutdownNow() must not interrupt the next task of the carrier
+                if (executor.factory == null) Thread.interrupted();
+            }
+        }
+
+        synchronized void interrupt() {
+            if (runner != null) runner.interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package twunit;
+
+import org.objectweb.asm.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes {@code twunit/Condy.class}, {@code CONSTANT_Dynamic} constants javac doesn't emit:
+ * the inlined {@code ConstantBootstraps}, constants of an own bootstrap held by a holder class
+ * and an {@code invokedynamic} with a dynamic static argument.
+ */
+public class CondyFixture implements Opcodes {
+    static final String NAME = "twunit/Condy";
+    static final String LOOKUP = "Ljava/lang/invoke/MethodHandles$Lookup;";
+    static final String CONSTANT_BOOTSTRAPS = "java/lang/invoke/ConstantBootstraps";
+
+    public static void main(String[] args) throws IOException {
+        var file = new File(args[0], NAME + ".class");
+        file.getParentFile().mkdirs();
+        try (var out = new FileOutputStream(file)) {
+            out.write(generate());
+        }
+    }
+
+    static byte[] generate() {
+        var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V11, ACC_PUBLIC | ACC_SUPER, NAME, null, "java/lang/Object", null);
+        cw.visitField(ACC_STATIC, "calls", "I", null, null).visitEnd();
+
+        // static Object value(Lookup, String name, Class<?> type): counts its calls
+        var bsm = new Handle(H_INVOKESTATIC, NAME, "value", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false);
+        var mv = cw.visitMethod(ACC_STATIC, bsm.getName(), bsm.getDesc(), null, null);
+        mv.visitCode();
+        mv.visitFieldInsn(GETSTATIC, NAME, "calls", "I");
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IADD);
+        mv.visitFieldInsn(PUTSTATIC, NAME, "calls", "I");
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitFieldInsn(GETSTATIC, "java/lang/Long", "TYPE", "Ljava/lang/Class;");
+        var string = new Label();
+        mv.visitJumpInsn(IF_ACMPNE, string);
+        mv.visitLdcInsn(42L);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitLabel(string);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // static CallSite link(Lookup, String, MethodType, Object constant): returns the constant
+        var link = new Handle(H_INVOKESTATIC, NAME, "link", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/invoke/MethodType;Ljava/lang/Object;)Ljava/lang/invoke/CallSite;", false);
+        mv = cw.visitMethod(ACC_STATIC, link.getName(), link.getDesc(), null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, "java/lang/invoke/ConstantCallSite");
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn(Type.getType(Object.class));
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "constant", "(Ljava/lang/Class;Ljava/lang/Object;)Ljava/lang/invoke/MethodHandle;", false);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "asType", "(Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/MethodHandle;", false);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/invoke/ConstantCallSite", "<init>", "(Ljava/lang/invoke/MethodHandle;)V", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        var named = new ConstantDynamic("named", "Ljava/lang/String;", bsm);
+        // static String named(): the same constant on every call
+        mv = cw.visitMethod(ACC_STATIC, "named", "()Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(named);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "run", "()V", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
+        mv.visitInsn(DUP);
+        mv.visitLdcInsn("Condy: calls ");
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V", false);
+        // Nothing is bootstrapped before its first load
+        mv.visitFieldInsn(GETSTATIC, NAME, "calls", "I");
+        append(mv, "I");
+        mv.visitLdcInsn(new ConstantDynamic("_", "Ljava/lang/Object;",
+                new Handle(H_INVOKESTATIC, CONSTANT_BOOTSTRAPS, "nullConstant", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false)));
+        append(mv, "Ljava/lang/Object;");
+        mv.visitLdcInsn(new ConstantDynamic("I", "Ljava/lang/Class;",
+                new Handle(H_INVOKESTATIC, CONSTANT_BOOTSTRAPS, "primitiveClass", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Class;", false)));
+        append(mv, "Ljava/lang/Object;");
+        mv.visitLdcInsn(new ConstantDynamic("NEW", "Ljava/lang/Thread$State;",
+                new Handle(H_INVOKESTATIC, CONSTANT_BOOTSTRAPS, "enumConstant", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Enum;", false)));
+        append(mv, "Ljava/lang/Object;");
+        mv.visitLdcInsn(new ConstantDynamic("MAX_VALUE", "I",
+                new Handle(H_INVOKESTATIC, CONSTANT_BOOTSTRAPS, "getStaticFinal", "(" + LOOKUP + "Ljava/lang/String;Ljava/lang/Class;Ljava/lang/Class;)Ljava/lang/Object;", false),
+                Type.getType(Integer.class)));
+        append(mv, "I");
+        mv.visitMethodInsn(INVOKESTATIC, NAME, "named", "()Ljava/lang/String;", false);
+        append(mv, "Ljava/lang/String;");
+        mv.visitMethodInsn(INVOKESTATIC, NAME, "named", "()Ljava/lang/String;", false);
+        append(mv, "Ljava/lang/String;");
+        mv.visitLdcInsn(new ConstantDynamic("answer", "J", bsm));
+        append(mv, "J");
+        mv.visitInvokeDynamicInsn("indy", "()Ljava/lang/String;", link, named);
+        append(mv, "Ljava/lang/String;");
+        // One call per constant: named and answer
+        mv.visitFieldInsn(GETSTATIC, NAME, "calls", "I");
+        append(mv, "I");
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+        mv.visitVarInsn(ASTORE, 0);
+        mv.visitFieldInsn(GETSTATIC, "java/lang/System", "out", "Ljava/io/PrintStream;");
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/io/PrintStream", "println", "(Ljava/lang/String;)V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Appends the value on the stack and a space
+     */
+    private static void append(MethodVisitor mv, String desc) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(" + desc + ")Ljava/lang/StringBuilder;", false);
+        mv.visitLdcInsn(" ");
+        mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+    }
+}
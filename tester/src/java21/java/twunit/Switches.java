@@ -0,0 +1,90 @@
+package twunit;
+
+/**
+ * Pattern and enum switches of Java 21, compiled to {@code SwitchBootstraps} call sites
+ */
+public class Switches {
+    sealed interface Shape permits Circle, Square, Rect {
+    }
+
+    record Circle(int r) implements Shape {
+    }
+
+    record Square(int side) implements Shape {
+    }
+
+    record Rect(int w, int h) implements Shape {
+    }
+
+    sealed interface Paint permits Color, Mix {
+    }
+
+    enum Color implements Paint {RED, GREEN, BLUE}
+
+    record Mix(Color a, Color b) implements Paint {
+    }
+
+    record Broken(int value) {
+        @Override
+        public int value() {
+            throw new IllegalStateException("broken");
+        }
+    }
+
+    static String describe(Object o) {
+        return switch (o) {
+            case null -> "null";
+            case Integer i when i > 10 -> "big " + i;
+            case Integer i -> "int " + i;
+            case String s -> "string " + s.length();
+            case Color c -> "color " + c.ordinal();
+            default -> "other";
+        };
+    }
+
+    static int area(Shape shape) {
+        return switch (shape) {
+            case Circle(var r) -> 3 * r * r;
+            case Square(var side) -> side * side;
+            case Rect(var w, var h) when w == h -> -1;
+            case Rect(var w, var h) -> w * h;
+        };
+    }
+
+    static String color(Color color) {
+        return switch (color) {
+            case RED -> "r";
+            case Color c when c.ordinal() == 1 -> "g";
+            case BLUE -> "b";
+            default -> "?";
+        };
+    }
+
+    static String paint(Paint paint) {
+        return switch (paint) {
+            case Color.RED -> "red";
+            case Color c -> c.name().toLowerCase();
+            case Mix(var a, var b) -> "mix";
+        };
+    }
+
+    static String unwrap(Object o) {
+        try {
+            return switch (o) {
+                case Broken(var value) -> "value " + value;
+                default -> "other";
+            };
+        } catch (MatchException e) {
+            return "match " + e.getCause().getMessage();
+        }
+    }
+
+    public static void run() {
+        System.out.println("Switches: " + describe(null) + ", " + describe(42) + ", " + describe(7) + ", "
+                + describe("abc") + ", " + describe(Color.BLUE) + ", " + describe(1.5) + " | "
+                + area(new Circle(2)) + " " + area(new Square(3)) + " " + area(new Rect(2, 2)) + " " + area(new Rect(2, 5))
+                + " | " + color(Color.RED) + color(Color.GREEN) + color(Color.BLUE)
+                + " | " + paint(Color.RED) + " " + paint(Color.BLUE) + " " + paint(new Mix(Color.RED, Color.GREEN))
+                + " | " + unwrap(new Broken(1)) + " " + unwrap(2));
+    }
+}
@@ -0,0 +1,41 @@
+package twunit;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual threads of Java 21, backported by the converter when the JDK lacks them
+ */
+public class VirtualThreads {
+    public static void run() throws InterruptedException, ExecutionException {
+        var ran = new AtomicInteger();
+        var thread = Thread.ofVirtual().name("worker-", 7).unstarted(ran::incrementAndGet);
+        var name = thread.getName();
+        var virtual = thread.isVirtual();
+        thread.start();
+        thread.join();
+
+        Thread.startVirtualThread(ran::incrementAndGet).join();
+        var factory = Thread.ofVirtual().name("factory").factory();
+        var created = factory.newThread(ran::incrementAndGet);
+        created.start();
+        created.join();
+
+        var sum = 0;
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var futures = new ArrayList<Future<Integer>>();
+            for (var i = 1; i <= 10; i++) {
+                var n = i;
+                futures.add(executor.submit(() -> n * n));
+            }
+            for (var future : futures) sum += future.get();
+            executor.submit(ran::incrementAndGet);
+        }
+        // close() waits for the submitted tasks
+        System.out.println("VirtualThreads: " + name + " " + virtual + " " + created.getName()
+                + " " + sum + " " + ran.get());
+    }
+}
@@ -14,6 +14,9 @@ public class Tester {
         System.out.println("Hello World!");
         A = 10;
         Mock.run();
+        fixture("Switches");
+        fixture("Condy");
+        fixture("VirtualThreads");
         System.out.println("Test repeat: " + "WZXT".repeat(3));
         //noinspection RedundantSuppression
         try {
@@ -24,6 +27,17 @@ public class Tester {
         }
     }
 
+    /**
+     * Runs a fixture javac 17 can't link against: a class of the java21 source set or one generated by the fixtures
+     */
+    private static void fixture(String fixture) {
+        try {
+            Class.forName("twunit." + fixture).getMethod("run").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace(System.out);
+        }
+    }
+
     public static class Mock {
         public static void run() {
             System.out.println("A = " + A);
@@ -32,9 +46,73 @@ public class Tester {
             new Tester();
             new Interface0() {
             }.invoke();
+            var point = new Point(1, 2L, "p");
+            System.out.println(point + " equals: " + point.equals(new Point(1, 2L, "p"))
+                    + ", hashCode: " + (point.hashCode() == new Point(1, 2L, "p").hashCode()));
+            Runnable stateless = () -> System.out.println("Stateless lambda");
+            stateless.run();
+            var prefix = "Captured ";
+            java.util.function.IntFunction<String> capturing = i -> prefix + i + A;
+            System.out.println(capturing.apply(1));
+            java.util.function.Function<Integer, Long> widening = Long::valueOf;
+            System.out.println("Widened " + widening.apply(3));
+            Runnable nestmate = Tester::w;
+            nestmate.run();
+            new Interface0() {
+            }.runner().run();
+            System.out.println("Collections: " + java.util.List.of(1, 2, 3) + " " + java.util.Set.of("s").contains("s")
+                    + " " + java.util.Map.of("k", "v").get("k") + " " + java.util.Map.of("a", 1, "b", 2).get("b"));
+            System.out.println("Streams: " + java.util.stream.Stream.of(1, 2, 3, 4).takeWhile(i -> i < 3).toList()
+                    + " " + java.util.Optional.empty().isEmpty());
+            var buffer = java.nio.ByteBuffer.allocate(8);
+            buffer.putInt(42).flip();
+            System.out.println("Buffer: " + buffer.getInt() + " " + buffer.clear().remaining());
+            Counter.run();
+            Thread.onSpinWait();
+            System.out.println("Helpers: " + java.util.Objects.checkIndex(2, 3) + " " + Math.multiplyHigh(-1L << 40, 1L << 40)
+                    + " " + Math.floorMod(-7L, 3) + " " + java.util.Arrays.mismatch(new byte[]{1, 2, 3}, new byte[]{1, 2, 4})
+                    + " " + Integer.parseInt("x-42y", 1, 4, 10));
+            System.out.println("Caller: " + StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE).getCallerClass()
+                    + " " + StackWalker.getInstance().walk(frames -> frames.map(StackWalker.StackFrame::getMethodName).limit(2)
+                    .collect(java.util.stream.Collectors.toList())));
+        }
+    }
+
+    static class Counter {
+        private static final java.lang.invoke.VarHandle COUNT, TOTAL, NAME, SLOTS;
+        private static volatile long total;
+        private volatile int count;
+        private volatile String name;
+
+        static {
+            try {
+                var lookup = java.lang.invoke.MethodHandles.lookup();
+                COUNT = lookup.findVarHandle(Counter.class, "count", int.class);
+                TOTAL = lookup.findStaticVarHandle(Counter.class, "total", long.class);
+                NAME = lookup.findVarHandle(Counter.class, "name", String.class);
+                SLOTS = java.lang.invoke.MethodHandles.arrayElementVarHandle(int[].class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        static void run() {
+            var counter = new Counter();
+            COUNT.getAndAdd(counter, 5);
+            var cas = COUNT.compareAndSet(counter, 5, 7);
+            TOTAL.setRelease(3L);
+            var witness = (String) NAME.compareAndExchange(counter, null, "counter");
+            var slots = new int[4];
+            SLOTS.setVolatile(slots, 2, 9);
+            System.out.println("VarHandle: " + (int) COUNT.getAcquire(counter) + " " + cas + " "
+                    + (long) TOTAL.getAndBitwiseOr(4L) + " " + (long) TOTAL.get() + " " + witness + " "
+                    + NAME.get(counter) + " " + (int) SLOTS.getAndSet(slots, 2, 1) + " " + slots[2]);
         }
     }
 
+    public record Point(int x, long y, String name) {
+    }
+
     public interface Interface0 {
         private void run() {
             System.out.println("Hi!");
@@ -43,5 +121,9 @@ public class Tester {
         default void invoke() {
             run();
         }
+
+        default Runnable runner() {
+            return () -> run();
+        }
     }
 }